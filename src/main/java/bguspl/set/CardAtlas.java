@@ -0,0 +1,180 @@
+package bguspl.set;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Loads the card images for the user interface.
+ * The card faces (and the empty card, last) are packed into a single atlas image that is generated at build time
+ * (see the main method), so the user interface decodes one image instead of one per card. Every card is then cut out
+ * of the atlas and pre-scaled once into an image that is compatible with the screen (and therefore accelerated) and
+ * has the size of a table cell, so painting a card is a plain copy.
+ * If the atlas is missing or does not match the configured deck, the card images are loaded one by one.
+ */
+public class CardAtlas {
+
+    /**
+     * The resources of the atlas image and its layout.
+     */
+    public static final String ATLAS_RESOURCE = "cards/atlas.png";
+    public static final String LAYOUT_RESOURCE = "cards/atlas.properties";
+    public static final String EMPTY_CARD_RESOURCE = "cards/empty_card.png";
+
+    static String cardResource(int card, Config config) {
+        return "cards/" + UserInterfaceSwing.intInBaseToPaddedString(card, config.featureCount, config.featureSize) + ".png";
+    }
+
+    /**
+     * Loads the card images, scaled to the cell size.
+     * @param config - the game configuration.
+     * @param logger - the logger.
+     * @return - config.deckSize + 1 images: the card faces by card id, and the empty card last.
+     */
+    public static BufferedImage[] load(Config config, Logger logger) {
+        BufferedImage[] images = null;
+        try {
+            images = loadAtlas(config);
+        } catch (IOException e) {
+            logger.severe("cannot load the card atlas: " + e.getMessage());
+        }
+        if (images == null) {
+            logger.info("loading the card images one by one");
+            images = new BufferedImage[config.deckSize + 1];
+            for (int i = 0; i < config.deckSize; ++i)
+                images[i] = readResource(cardResource(i, config));
+            images[config.deckSize] = readResource(EMPTY_CARD_RESOURCE);
+        }
+        for (int i = 0; i < images.length; i++)
+            images[i] = toCompatibleImage(images[i], config.cellWidth, config.cellHeight);
+        return images;
+    }
+
+    /**
+     * @return - the unscaled images of the atlas, or null if there is no atlas for the configured deck.
+     */
+    private static BufferedImage[] loadAtlas(Config config) throws IOException {
+        ClassLoader loader = CardAtlas.class.getClassLoader();
+        Properties layout = new Properties();
+        try (InputStream is = loader.getResourceAsStream(LAYOUT_RESOURCE)) {
+            if (is == null)
+                return null;
+            layout.load(is);
+        }
+        if (Integer.parseInt(layout.getProperty("FeatureSize")) != config.featureSize
+                || Integer.parseInt(layout.getProperty("FeatureCount")) != config.featureCount)
+            return null;
+        BufferedImage atlas = readResource(ATLAS_RESOURCE);
+        return unpack(atlas, config.deckSize + 1, Integer.parseInt(layout.getProperty("Columns")),
+                Integer.parseInt(layout.getProperty("CardWidth")), Integer.parseInt(layout.getProperty("CardHeight")));
+    }
+
+    private static BufferedImage readResource(String filename) {
+        URL resource = CardAtlas.class.getClassLoader().getResource(filename);
+        try {
+            if (resource == null)
+                throw new FileNotFoundException(filename);
+            return ImageIO.read(resource);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Packs equally sized images into a grid.
+     * @param images  - the images.
+     * @param columns - the number of images in a row.
+     * @return - the atlas image.
+     */
+    static BufferedImage pack(BufferedImage[] images, int columns) {
+        int width = images[0].getWidth(), height = images[0].getHeight();
+        int rows = (images.length + columns - 1) / columns;
+        BufferedImage atlas = new BufferedImage(columns * width, rows * height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = atlas.createGraphics();
+        for (int i = 0; i < images.length; i++)
+            g.drawImage(images[i], (i % columns) * width, (i / columns) * height, null);
+        g.dispose();
+        return atlas;
+    }
+
+    /**
+     * Cuts an atlas image back into its images (sharing the atlas pixels).
+     * @param atlas   - the atlas image.
+     * @param count   - the number of images in the atlas.
+     * @param columns - the number of images in a row.
+     * @param width   - the width of an image.
+     * @param height  - the height of an image.
+     * @return - the images.
+     */
+    static BufferedImage[] unpack(BufferedImage atlas, int count, int columns, int width, int height) {
+        BufferedImage[] images = new BufferedImage[count];
+        for (int i = 0; i < count; i++)
+            images[i] = atlas.getSubimage((i % columns) * width, (i / columns) * height, width, height);
+        return images;
+    }
+
+    /**
+     * Creates an image in the format of the screen, so drawing it is accelerated (a plain image when running headless).
+     * @param width        - the width of the image.
+     * @param height       - the height of the image.
+     * @param transparency - the transparency mode (see java.awt.Transparency).
+     * @return - the image.
+     */
+    static BufferedImage createCompatibleImage(int width, int height, int transparency) {
+        if (GraphicsEnvironment.isHeadless())
+            return new BufferedImage(width, height, transparency == Transparency.OPAQUE ?
+                    BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                .getDefaultConfiguration().createCompatibleImage(width, height, transparency);
+    }
+
+    /**
+     * Scales an image into a new image in the format of the screen (a plain image when running headless).
+     */
+    static BufferedImage toCompatibleImage(BufferedImage image, int width, int height) {
+        BufferedImage compatible = createCompatibleImage(width, height, image.getColorModel().getTransparency());
+        Graphics2D g = compatible.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(image, 0, 0, width, height, null);
+        g.dispose();
+        return compatible;
+    }
+
+    /**
+     * Generates the atlas of the default deck at build time (see pom.xml).
+     *
+     * @param args - the classes output directory, which contains the card images.
+     */
+    public static void main(String[] args) throws IOException {
+        File output = new File(args.length > 0 ? args[0] : "target/classes");
+        Properties properties = new Properties();
+        Config config = new Config(Logger.getAnonymousLogger(), properties);
+
+        BufferedImage[] images = new BufferedImage[config.deckSize + 1];
+        for (int i = 0; i < config.deckSize; ++i)
+            images[i] = ImageIO.read(new File(output, cardResource(i, config)));
+        images[config.deckSize] = ImageIO.read(new File(output, EMPTY_CARD_RESOURCE));
+        int columns = (int) Math.ceil(Math.sqrt(images.length));
+        ImageIO.write(pack(images, columns), "png", new File(output, ATLAS_RESOURCE));
+
+        Properties layout = new Properties();
+        layout.setProperty("FeatureSize", Integer.toString(config.featureSize));
+        layout.setProperty("FeatureCount", Integer.toString(config.featureCount));
+        layout.setProperty("Columns", Integer.toString(columns));
+        layout.setProperty("CardWidth", Integer.toString(images[0].getWidth()));
+        layout.setProperty("CardHeight", Integer.toString(images[0].getHeight()));
+        try (OutputStream os = new FileOutputStream(new File(output, LAYOUT_RESOURCE))) {
+            layout.store(os, "generated by CardAtlas");
+        }
+    }
+}
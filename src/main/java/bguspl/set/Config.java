@@ -52,10 +52,26 @@ public class Config {
     public final int players;
 
     /**
-     * Whether to print out hints to the console or not
+     * Whether to log hints or not
      */
     public final boolean hints;
 
+    /**
+     * Whether to trace the latency of key presses and claims (reported to the log at the end of the game)
+     */
+    public final boolean latencyTracing;
+
+    /**
+     * Whether to account for the CPU time, the allocations and the waits of every thread of the game (reported to the
+     * log at the end of the game)
+     */
+    public final boolean threadAccounting;
+
+    /**
+     * The seed of the random numbers of the game (the deck shuffles and the computer players)
+     */
+    public final long seed;
+
     /**
      * The number of milliseconds until the dealer reshuffles the deck (0 show timer since last action, -1 show nothing)
      */
@@ -86,12 +102,88 @@ public class Config {
      */
     public final long endGamePauseMillies;
 
+    /**
+     * The number of rounds played back to back by the same players (the game is reset in place between two rounds)
+     */
+    public final int rounds;
+
     /**
      * The names of the players to display on the screen
      * Note: if there are more players than names, the remaining players will be called "Player 3", "Player 4", etc.
      */
     public final String[] playerNames;
 
+    /**
+     * The address and port the remote player server listens on (a negative port disables the server)
+     */
+    public final String serverAddress;
+    public final int serverPort;
+
+    /**
+     * The port spectators connect to (a negative port disables spectating)
+     */
+    public final int spectatorPort;
+
+    /**
+     * The number of events a spectator may fall behind before it is resynced from a snapshot
+     */
+    public final int spectatorQueueSize;
+
+    /**
+     * The port of the web dashboard (a negative port disables the dashboard)
+     */
+    public final int dashboardPort;
+
+    /**
+     * The maximal number of browsers that follow the event stream of the dashboard at once (each has a thread)
+     */
+    public final int dashboardMaxViewers;
+
+    /**
+     * The file the results of the games are appended to (empty for no statistics)
+     */
+    public final String statisticsFile;
+
+    /**
+     * The file the game is checkpointed to (empty for no checkpoints), and the time between two checkpoints
+     */
+    public final String checkpointFile;
+    public final long checkpointMillis;
+
+    /**
+     * The file the timeline of the threads of the game is written to (empty for no timeline)
+     */
+    public final String traceFile;
+
+    /**
+     * How long a dealer or a player may be late in its handshake before the watchdog reports it (0 disables the
+     * watchdog), and true iff the watchdog also tries to recover the game
+     */
+    public final long watchdogMillis;
+    public final boolean watchdogRecovery;
+
+    /**
+     * The time all the threads of the game have to terminate when the game is terminated
+     */
+    public final long shutdownMillis;
+
+    /**
+     * True iff the game is shown in the terminal (with ANSI escape codes) instead of a window
+     */
+    public final boolean terminalUi;
+
+    /**
+     * The maximal number of frames per second drawn by the terminal user interface
+     */
+    public final int terminalFps;
+
+    /**
+     * The external engine command of each computer player (null for the built in random presser), and the time an
+     * engine has to answer a board snapshot
+     */
+    private final String[] botCommands;
+    public final long botMoveMillis;
+
     /**
      * The number of rows in the grid of cards on the table (and on the screen)
      */
@@ -204,18 +296,50 @@ public class Config {
         players = humanPlayers + computerPlayers;
 
         hints = Boolean.parseBoolean(properties.getProperty("Hints", "False"));
+        latencyTracing = Boolean.parseBoolean(properties.getProperty("LatencyTracing", "False"));
+        threadAccounting = Boolean.parseBoolean(properties.getProperty("ThreadAccounting", "True"));
+        String seedString = properties.getProperty("Seed", "").trim();
+        seed = seedString.isEmpty() ? System.nanoTime() : Long.parseLong(seedString);
         turnTimeoutMillis = (long) (Double.parseDouble(properties.getProperty("TurnTimeoutSeconds", "60")) * 1000.0);
         turnTimeoutWarningMillis = (long) (Double.parseDouble(properties.getProperty("TurnTimeoutWarningSeconds", "60")) * 1000.0);
         pointFreezeMillis = (long) (Double.parseDouble(properties.getProperty("PointFreezeSeconds", "1")) * 1000.0);
         penaltyFreezeMillis = (long) (Double.parseDouble(properties.getProperty("PenaltyFreezeSeconds", "3")) * 1000.0);
         tableDelayMillis = (long) (Double.parseDouble(properties.getProperty("TableDelaySeconds", "0.1")) * 1000.0);
         endGamePauseMillies = (long) (Double.parseDouble(properties.getProperty("EndGamePauseSeconds", "5")) * 1000.0);
+        rounds = Math.max(1, Integer.parseInt(properties.getProperty("Rounds", "1")));
 
         // ui settings
         String[] names = properties.getProperty("PlayerNames", "Player 1, Player 2").split(",");
         playerNames = new String[players];
         Arrays.setAll(playerNames, i -> i < names.length ? names[i].trim() : "Player " + (i + 1));
 
+        // remote players settings
+        serverAddress = properties.getProperty("ServerAddress", "127.0.0.1");
+        serverPort = Integer.parseInt(properties.getProperty("ServerPort", "-1"));
+        spectatorPort = Integer.parseInt(properties.getProperty("SpectatorPort", "-1"));
+        spectatorQueueSize = Integer.parseInt(properties.getProperty("SpectatorQueueSize", "1024"));
+        dashboardPort = Integer.parseInt(properties.getProperty("DashboardPort", "-1"));
+        dashboardMaxViewers = Integer.parseInt(properties.getProperty("DashboardMaxViewers", "16"));
+
+        statisticsFile = properties.getProperty("StatisticsFile", "").trim();
+        checkpointFile = properties.getProperty("CheckpointFile", "").trim();
+        traceFile = properties.getProperty("TraceFile", "").trim();
+        watchdogMillis = (long) (Double.parseDouble(properties.getProperty("WatchdogSeconds", "10")) * 1000.0);
+        watchdogRecovery = Boolean.parseBoolean(properties.getProperty("WatchdogRecovery", "False"));
+        shutdownMillis = (long) (Double.parseDouble(properties.getProperty("ShutdownTimeoutSeconds", "2")) * 1000.0);
+        checkpointMillis = Math.max(1, (long) (Double.parseDouble(properties.getProperty("CheckpointSeconds", "1")) * 1000.0));
+
+        terminalUi = Boolean.parseBoolean(properties.getProperty("TerminalUi", "False"));
+        terminalFps = Math.max(1, Integer.parseInt(properties.getProperty("TerminalFps", "10")));
+
+        // bot engine settings
+        botCommands = new String[players];
+        for (int i = humanPlayers; i < players; i++) {
+            String command = properties.getProperty("BotCommand" + (i + 1), "").trim();
+            botCommands[i] = command.isEmpty() ? null : command;
+        }
+        botMoveMillis = (long) (Double.parseDouble(properties.getProperty("BotMoveSeconds", "0.1")) * 1000.0);
+
         rows = Integer.parseInt(properties.getProperty("Rows", "3"));
         columns = Integer.parseInt(properties.getProperty("Columns", "4"));
         tableSize = rows * columns;
@@ -244,4 +368,8 @@ public class Config {
     public int[] playerKeys(int player) {
         return playerKeys[player];
     }
+
+    public String botCommand(int player) {
+        return botCommands[player];
+    }
 }
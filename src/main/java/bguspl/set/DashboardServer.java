@@ -0,0 +1,563 @@
+package bguspl.set;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * A UserInterface decorator that serves a live view of the game to web browsers (JDK HTTP server, no dependencies).
+ * <ul>
+ * <li>/ - the dashboard page.</li>
+ * <li>/state - the current state as JSON.</li>
+ * <li>/events - server-sent events: a "state" event with the current state, then a "diff" event per frame.</li>
+ * <li>/cards/{id} - the card images.</li>
+ * </ul>
+ * The game threads only update the state and mark what changed. The frame thread turns the changes of a frame into a
+ * single diff, encodes it once and offers it to a bounded queue per browser, which is written by the browser's own
+ * connection thread. A browser that falls behind loses its backlog and gets the full state again instead.
+ * <p>
+ * Every event stream holds a connection thread for as long as the browser follows it, so the number of event streams
+ * is limited (Config.dashboardMaxViewers): a browser beyond the limit gets 503 and may retry later.
+ */
+public class DashboardServer implements UserInterface, Runnable {
+
+    /**
+     * The minimal time between two diffs.
+     */
+    private static final long FRAME_MILLIS = 50;
+
+    /**
+     * The number of diffs a browser may fall behind before it is resynced.
+     */
+    private static final int CLIENT_QUEUE_SIZE = 64;
+
+    /**
+     * The time after which an idle event stream gets a keep alive comment.
+     */
+    private static final long KEEP_ALIVE_MILLIS = 1000;
+
+    private static final byte[] KEEP_ALIVE = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final Logger logger;
+    private final Config config;
+    private final UserInterface ui;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The event streams that may still be opened.
+     */
+    private final Semaphore viewers;
+
+    /**
+     * The state of the game and what changed since the last diff (guarded by this).
+     */
+    private final int[] slotToCard;
+    private final long[] tokenMask;
+    private final int[] scores;
+    private final long[] freezes;
+    private final boolean[] dirtySlots;
+    private final boolean[] dirtyPlayers;
+    private String timer = "{\"countdown\":0,\"warn\":false}";
+    private long deadlineNanos;
+    private long warnMillies = -1;
+    private String winner;
+    private boolean dirtyTimer;
+    private boolean dirty;
+
+    private volatile boolean terminate;
+    private ThreadLogger frameThread;
+
+    private static final class Client {
+        private final ArrayBlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(CLIENT_QUEUE_SIZE);
+        private volatile boolean resync;
+    }
+
+    /**
+     * @param logger  - the logger.
+     * @param config  - the game configuration.
+     * @param ui      - the user interface to forward to (may be null).
+     * @param address - the address to listen on (port 0 picks a free port).
+     * @throws IOException - if the server socket cannot be opened.
+     */
+    public DashboardServer(Logger logger, Config config, UserInterface ui, InetSocketAddress address) throws IOException {
+        if (config.players > Long.SIZE)
+            throw new IllegalArgumentException("the dashboard can show the tokens of up to " + Long.SIZE + " players");
+        this.logger = logger;
+        this.config = config;
+        this.ui = ui;
+        slotToCard = new int[config.tableSize];
+        Arrays.fill(slotToCard, -1);
+        tokenMask = new long[config.tableSize];
+        dirtySlots = new boolean[config.tableSize];
+        scores = new int[config.players];
+        freezes = new long[config.players];
+        dirtyPlayers = new boolean[config.players];
+        viewers = new Semaphore(Math.max(0, config.dashboardMaxViewers));
+
+        server = HttpServer.create(address, 0);
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "dashboard-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::page);
+        server.createContext("/state", this::state);
+        server.createContext("/events", this::events);
+        server.createContext("/cards/", this::card);
+    }
+
+    /**
+     * @return - the port the dashboard listens on.
+     */
+    public int localPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void start() {
+        server.start();
+        logger.info("dashboard listening on port " + localPort());
+        frameThread = new ThreadLogger(this, "dashboard", logger);
+        frameThread.startWithLog();
+    }
+
+    /**
+     * The frame thread starts here.
+     */
+    @Override
+    public void run() {
+        while (!terminate) {
+            String diff;
+            synchronized (this) {
+                while (!dirty && !terminate) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ignored) {}
+                }
+                diff = diff();
+            }
+            if (diff.length() > 2)
+                publish(event("diff", diff));
+            try {
+                Thread.sleep(FRAME_MILLIS);
+            } catch (InterruptedException ignored) {}
+        }
+        String last;
+        synchronized (this) {
+            last = diff();
+        }
+        if (last.length() > 2)
+            publish(event("diff", last));
+    }
+
+    private void publish(byte[] event) {
+        for (Client client : clients)
+            if (!client.queue.offer(event))
+                client.resync = true;
+    }
+
+    /**
+     * Stops the frame thread and the server, closing all the event streams.
+     */
+    public void terminate() {
+        synchronized (this) {
+            terminate = true;
+            notifyAll();
+        }
+        if (frameThread != null) try {
+            frameThread.interrupt();
+            frameThread.joinWithLog();
+        } catch (InterruptedException ignored) {}
+        // gives the event streams a moment to deliver the last diff
+        server.stop(1);
+        executor.shutdownNow();
+    }
+
+    private static byte[] event(String name, String data) {
+        return ("event: " + name + "\ndata: " + data + "\n\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        try (InputStream is = DashboardServer.class.getClassLoader().getResourceAsStream(name)) {
+            if (is == null)
+                return null;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) > 0)
+                bytes.write(buffer, 0, read);
+            return bytes.toByteArray();
+        }
+    }
+
+    private void page(HttpExchange exchange) throws IOException {
+        byte[] page = "/".equals(exchange.getRequestURI().getPath()) ? readResource("dashboard/index.html") : null;
+        if (page == null)
+            send(exchange, 404, "text/plain", new byte[0]);
+        else
+            send(exchange, 200, "text/html; charset=utf-8", page);
+    }
+
+    private void state(HttpExchange exchange) throws IOException {
+        String state;
+        synchronized (this) {
+            state = state();
+        }
+        send(exchange, 200, "application/json", state.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void card(HttpExchange exchange) throws IOException {
+        byte[] image = null;
+        try {
+            int card = Integer.parseInt(exchange.getRequestURI().getPath().substring("/cards/".length()));
+            if (card >= 0 && card < config.deckSize)
+                image = readResource(CardAtlas.cardResource(card, config));
+        } catch (NumberFormatException ignored) {}
+        if (image == null)
+            send(exchange, 404, "text/plain", new byte[0]);
+        else {
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            exchange.getResponseHeaders().set("Cache-Control", "max-age=86400");
+            exchange.sendResponseHeaders(200, image.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(image);
+            }
+        }
+    }
+
+    /**
+     * Streams the events to a browser (runs on the connection thread of the browser until it disconnects).
+     */
+    private void events(HttpExchange exchange) throws IOException {
+        if (!viewers.tryAcquire()) {
+            exchange.getResponseHeaders().set("Retry-After", "5");
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+        try {
+            stream(exchange);
+        } finally {
+            viewers.release();
+        }
+    }
+
+    private void stream(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        Client client = new Client();
+        byte[] event;
+        synchronized (this) {
+            // the diffs are absolute values, so a diff that is already part of the state does no harm
+            event = event("state", state());
+            clients.add(client);
+        }
+        try (OutputStream os = exchange.getResponseBody()) {
+            while (true) {
+                os.write(event);
+                os.flush();
+                event = client.queue.poll(KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS);
+                if (event == null && terminate)
+                    break;
+                if (client.resync) {
+                    client.resync = false;
+                    client.queue.clear();
+                    synchronized (this) {
+                        event = event("state", state());
+                    }
+                } else if (event == null)
+                    event = KEEP_ALIVE;
+            }
+        } catch (IOException | InterruptedException ignored) {
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    private static StringBuilder quote(StringBuilder sb, String text) {
+        sb.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < 0x20)
+                sb.append(String.format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        return sb.append('"');
+    }
+
+    private StringBuilder tokens(StringBuilder sb, int slot) {
+        sb.append('[');
+        long mask = tokenMask[slot];
+        while (mask != 0) {
+            sb.append(Long.numberOfTrailingZeros(mask));
+            mask &= mask - 1;
+            if (mask != 0)
+                sb.append(',');
+        }
+        return sb.append(']');
+    }
+
+    /**
+     * @return - the timer as JSON, a deadline is sent as the time remaining (the caller holds this).
+     */
+    private String timer() {
+        if (warnMillies < 0)
+            return timer;
+        long remaining = Math.max(0, (deadlineNanos - System.nanoTime()) / 1000000L);
+        return "{\"deadline\":" + remaining + ",\"warnMillis\":" + warnMillies + "}";
+    }
+
+    /**
+     * @return - the whole state as JSON (the caller holds this).
+     */
+    private String state() {
+        StringBuilder sb = new StringBuilder("{\"rows\":").append(config.rows)
+                .append(",\"columns\":").append(config.columns).append(",\"names\":[");
+        for (int player = 0; player < config.players; player++) {
+            if (player > 0) sb.append(',');
+            quote(sb, config.playerNames[player]);
+        }
+        sb.append("],\"cards\":[");
+        for (int slot = 0; slot < slotToCard.length; slot++) {
+            if (slot > 0) sb.append(',');
+            sb.append(slotToCard[slot]);
+        }
+        sb.append("],\"tokens\":[");
+        for (int slot = 0; slot < tokenMask.length; slot++) {
+            if (slot > 0) sb.append(',');
+            tokens(sb, slot);
+        }
+        sb.append("],\"scores\":[");
+        for (int player = 0; player < scores.length; player++) {
+            if (player > 0) sb.append(',');
+            sb.append(scores[player]);
+        }
+        sb.append("],\"freezes\":[");
+        for (int player = 0; player < freezes.length; player++) {
+            if (player > 0) sb.append(',');
+            sb.append(freezes[player]);
+        }
+        sb.append("],\"timer\":").append(timer());
+        if (winner != null)
+            quote(sb.append(",\"winner\":"), winner);
+        return sb.append('}').toString();
+    }
+
+    /**
+     * @return - everything that changed since the last diff as JSON, and clears the changes (the caller holds this).
+     */
+    private String diff() {
+        StringBuilder sb = new StringBuilder("{");
+        boolean first = true;
+        for (int slot = 0; slot < dirtySlots.length; slot++) {
+            if (!dirtySlots[slot])
+                continue;
+            sb.append(first ? "\"slots\":{\"" : ",\"").append(slot).append("\":{\"card\":").append(slotToCard[slot]);
+            tokens(sb.append(",\"tokens\":"), slot).append('}');
+            dirtySlots[slot] = false;
+            first = false;
+        }
+        if (!first)
+            sb.append('}');
+        boolean firstPlayer = true;
+        for (int player = 0; player < dirtyPlayers.length; player++) {
+            if (!dirtyPlayers[player])
+                continue;
+            sb.append(first ? "" : ",").append(firstPlayer ? "\"players\":{\"" : "\"").append(player)
+                    .append("\":{\"score\":").append(scores[player]).append(",\"freeze\":").append(freezes[player])
+                    .append('}');
+            dirtyPlayers[player] = false;
+            first = firstPlayer = false;
+        }
+        if (!firstPlayer)
+            sb.append('}');
+        if (dirtyTimer) {
+            sb.append(first ? "" : ",").append("\"timer\":").append(timer());
+            if (winner != null)
+                quote(sb.append(",\"winner\":"), winner);
+            dirtyTimer = false;
+        }
+        dirty = false;
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Marks the state as changed and wakes the frame thread up (the caller holds this).
+     */
+    private void changed() {
+        if (!dirty) {
+            dirty = true;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void placeCard(int card, int slot) {
+        if (ui != null) ui.placeCard(card, slot);
+        synchronized (this) {
+            slotToCard[slot] = card;
+            dirtySlots[slot] = true;
+            changed();
+        }
+    }
+
+    @Override
+    public void removeCard(int slot) {
+        if (ui != null) ui.removeCard(slot);
+        synchronized (this) {
+            slotToCard[slot] = -1;
+            dirtySlots[slot] = true;
+            changed();
+        }
+    }
+
+    @Override
+    public void placeToken(int player, int slot) {
+        if (ui != null) ui.placeToken(player, slot);
+        synchronized (this) {
+            tokenMask[slot] |= 1L << player;
+            dirtySlots[slot] = true;
+            changed();
+        }
+    }
+
+    @Override
+    public void removeTokens() {
+        if (ui != null) ui.removeTokens();
+        synchronized (this) {
+            for (int slot = 0; slot < tokenMask.length; slot++)
+                if (tokenMask[slot] != 0) {
+                    tokenMask[slot] = 0;
+                    dirtySlots[slot] = true;
+                }
+            changed();
+        }
+    }
+
+    @Override
+    public void removeTokens(int slot) {
+        if (ui != null) ui.removeTokens(slot);
+        synchronized (this) {
+            tokenMask[slot] = 0;
+            dirtySlots[slot] = true;
+            changed();
+        }
+    }
+
+    @Override
+    public void removeToken(int player, int slot) {
+        if (ui != null) ui.removeToken(player, slot);
+        synchronized (this) {
+            tokenMask[slot] &= ~(1L << player);
+            dirtySlots[slot] = true;
+            changed();
+        }
+    }
+
+    @Override
+    public void setCountdown(long millies, boolean warn) {
+        if (ui != null) ui.setCountdown(millies, warn);
+        synchronized (this) {
+            warnMillies = -1;
+            timer = "{\"countdown\":" + millies + ",\"warn\":" + warn + "}";
+            dirtyTimer = true;
+            changed();
+        }
+    }
+
+    @Override
+    public void setCountdownDeadline(long deadlineNanos, long warnMillies) {
+        if (ui != null) ui.setCountdownDeadline(deadlineNanos, warnMillies);
+        synchronized (this) {
+            // a countdown after the winners were announced starts a new round
+            winner = null;
+            this.deadlineNanos = deadlineNanos;
+            this.warnMillies = warnMillies;
+            dirtyTimer = true;
+            changed();
+        }
+    }
+
+    @Override
+    public void setElapsed(long millies) {
+        if (ui != null) ui.setElapsed(millies);
+        synchronized (this) {
+            warnMillies = -1;
+            timer = "{\"elapsed\":" + millies + "}";
+            dirtyTimer = true;
+            changed();
+        }
+    }
+
+    @Override
+    public void setFreeze(int player, long millies) {
+        if (ui != null) ui.setFreeze(player, millies);
+        synchronized (this) {
+            freezes[player] = millies;
+            dirtyPlayers[player] = true;
+            changed();
+        }
+    }
+
+    @Override
+    public void setScore(int player, int score) {
+        if (ui != null) ui.setScore(player, score);
+        synchronized (this) {
+            scores[player] = score;
+            dirtyPlayers[player] = true;
+            changed();
+        }
+    }
+
+    @Override
+    public void announceWinner(int[] players) {
+        if (ui != null) ui.announceWinner(players);
+        StringBuilder text = new StringBuilder(players.length == 1 ? "THE WINNER IS: " : "IT IS A DRAW: ");
+        for (int i = 0; i < players.length; i++)
+            text.append(i > 0 ? " AND " : "").append(config.playerNames[players[i]]);
+        synchronized (this) {
+            winner = text.append(players.length == 1 ? "!!!" : " WON!!!").toString();
+            warnMillies = -1;
+            dirtyTimer = true;
+            changed();
+        }
+    }
+
+    @Override
+    public void dispose() {
+        terminate();
+        if (ui != null) ui.dispose();
+    }
+}
@@ -8,11 +8,36 @@ public class Env {
     public final Config config;
     public final UserInterface ui;
     public final Util util;
+    public final LatencyTracer tracer;
+    public final TraceFile trace;
+    public final Watchdog watchdog;
+
+    /**
+     * Accounts for the resources of the threads of the game.
+     */
+    public final ThreadLogger.Accounting accounting;
 
     public Env(Logger logger, Config config, UserInterface ui, Util util) {
+        this(logger, config, ui, util, new LatencyTracer(config.latencyTracing));
+    }
+
+    public Env(Logger logger, Config config, UserInterface ui, Util util, LatencyTracer tracer) {
+        this(logger, config, ui, util, tracer, new TraceFile(null));
+    }
+
+    public Env(Logger logger, Config config, UserInterface ui, Util util, LatencyTracer tracer, TraceFile trace) {
+        this(logger, config, ui, util, tracer, trace, new Watchdog(logger, 0, false));
+    }
+
+    public Env(Logger logger, Config config, UserInterface ui, Util util, LatencyTracer tracer, TraceFile trace,
+               Watchdog watchdog) {
         this.logger = logger;
         this.config = config;
         this.ui = ui;
         this.util = util;
+        this.tracer = tracer;
+        this.trace = trace;
+        this.watchdog = watchdog;
+        this.accounting = new ThreadLogger.Accounting(config.threadAccounting);
     }
 }
@@ -0,0 +1,88 @@
+package bguspl.set;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The outcome of a single game.
+ */
+public class GameResult {
+
+    /**
+     * The number of the game (e.g. in a tournament) and the seed it was played with.
+     */
+    public final int game;
+    public final long seed;
+
+    /**
+     * The names of the players, by player id.
+     */
+    public final String[] players;
+
+    /**
+     * The final scores, by player id.
+     */
+    public final int[] scores;
+
+    /**
+     * The number of sets every player claimed, and the total time its claims waited for the dealer's verdict.
+     */
+    public final int[] claims;
+    public final long[] claimNanos;
+
+    /**
+     * The ids of the players with the highest score (more than one in a draw).
+     */
+    public final int[] winners;
+
+    /**
+     * The number of sets found in the game.
+     */
+    public final int sets;
+
+    /**
+     * The wall clock time the game took.
+     */
+    public final long durationNanos;
+
+    public GameResult(int game, long seed, String[] players, int[] scores, int sets, long durationNanos) {
+        this(game, seed, players, scores, new int[players.length], new long[players.length], sets, durationNanos);
+    }
+
+    public GameResult(int game, long seed, String[] players, int[] scores, int[] claims, long[] claimNanos, int sets,
+                      long durationNanos) {
+        this.game = game;
+        this.seed = seed;
+        this.players = players.clone();
+        this.scores = scores.clone();
+        this.claims = claims.clone();
+        this.claimNanos = claimNanos.clone();
+        this.sets = sets;
+        this.durationNanos = durationNanos;
+        int maxScore = Arrays.stream(scores).max().orElse(0);
+        this.winners = IntStream.range(0, scores.length).filter(i -> scores[i] == maxScore).toArray();
+    }
+
+    /**
+     * @return - the share of the win of a player: 1 for a sole winner, 1/k in a draw of k players, 0 otherwise.
+     */
+    public double winShare(int player) {
+        for (int winner : winners)
+            if (winner == player)
+                return 1.0 / winners.length;
+        return 0;
+    }
+
+    /**
+     * @return - the mean time a claim of a player waited for the dealer's verdict (0 if the player claimed nothing).
+     */
+    public double meanClaimNanos(int player) {
+        return claims[player] == 0 ? 0 : (double) claimNanos[player] / claims[player];
+    }
+
+    @Override
+    public String toString() {
+        return "game " + game + " (seed " + seed + "): players " + Arrays.toString(players) + ", scores "
+                + Arrays.toString(scores) + ", sets " + sets + ", " + durationNanos / 1000000L + "ms";
+    }
+}
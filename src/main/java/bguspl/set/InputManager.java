@@ -17,10 +17,12 @@ class InputManager extends KeyAdapter {
     int[] keyMap = new int[MAX_KEY_CODE + 1];
     int[] keyToSlot = new int[MAX_KEY_CODE + 1];
     private final Logger logger;
+    private final LatencyTracer tracer;
 
-    public InputManager(Logger logger, Config config, Player[] players) {
+    public InputManager(Logger logger, Config config, Player[] players, LatencyTracer tracer) {
         this.players = players;
         this.logger = logger;
+        this.tracer = tracer;
 
         // initialize the keys
         for (int player = 0; player < config.players; ++player)
@@ -43,6 +45,7 @@ class InputManager extends KeyAdapter {
         int keyCode = e.getKeyCode();
         int player = keyMap[keyCode] - 1;
         if (player >= 0){
+            tracer.recordNanos(LatencyTracer.Stage.DISPATCH, (System.currentTimeMillis() - e.getWhen()) * 1000000L);
             logger.severe("key " + keyCode + " was pressed by player " + (player + 1));
             players[player].keyPressed(keyToSlot[keyCode]);
         }
@@ -0,0 +1,89 @@
+package bguspl.set;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of latencies in nanoseconds.
+ * Values are kept in log-linear buckets (16 sub buckets per power of two), so every value is reported with an error
+ * of at most 1/16 of it, and recording a value is a couple of atomic increments.
+ */
+public class LatencyHistogram {
+
+    /**
+     * The number of sub buckets per power of two (2 ^ SUB_BITS).
+     */
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /**
+     * The counters of the buckets.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray((Long.SIZE - SUB_BITS + 1) * SUB_BUCKETS);
+
+    /**
+     * The number of recorded values, their sum and the largest one.
+     */
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS)
+            return value < 0 ? 0 : (int) value;
+        int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Records a single latency.
+     * @param nanos - the latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        buckets.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        long current;
+        while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) ;
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public long mean() {
+        long n = count.get();
+        return n == 0 ? 0 : total.get() / n;
+    }
+
+    /**
+     * Returns (an upper bound of) the latency below which the given percentage of the recorded values fall.
+     * @param percentile - the percentile, between 0 and 100.
+     * @return - the latency in nanoseconds (0 if nothing was recorded).
+     */
+    public long percentile(double percentile) {
+        long n = count.get();
+        if (n == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank)
+                return Math.min(highestValueOf(i), max.get());
+        }
+        return max.get();
+    }
+}
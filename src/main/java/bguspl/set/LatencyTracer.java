@@ -0,0 +1,104 @@
+package bguspl.set;
+
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+
+/**
+ * Traces the latency of key presses and claims along their way from the keyboard to the dealer's verdict.
+ * Every stage is aggregated into its own histogram. When tracing is disabled stamps are 0 and nothing is recorded.
+ */
+public class LatencyTracer {
+
+    /**
+     * The traced stages.
+     */
+    public enum Stage {
+        DISPATCH("key event to player"),
+        TOKEN("press to token"),
+        CLAIM_QUEUE("claim to dealer"),
+        VERDICT("dealer to verdict"),
+        PRESS_TO_VERDICT("press to verdict");
+
+        private final String description;
+
+        Stage(String description) {
+            this.description = description;
+        }
+    }
+
+    /**
+     * True iff latencies should be recorded.
+     */
+    private final boolean enabled;
+
+    /**
+     * A histogram per stage.
+     */
+    private final LatencyHistogram[] histograms;
+
+    public LatencyTracer(boolean enabled) {
+        this.enabled = enabled;
+        histograms = new LatencyHistogram[Stage.values().length];
+        for (int i = 0; i < histograms.length; i++)
+            histograms[i] = new LatencyHistogram();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return - the current time in nanoseconds, or 0 if tracing is disabled.
+     */
+    public long stamp() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Records the time passed since a stamp.
+     * @param stage - the stage that ended now.
+     * @param stamp - the stamp taken when the stage started (ignored if 0).
+     */
+    public void record(Stage stage, long stamp) {
+        if (enabled && stamp != 0L)
+            histograms[stage.ordinal()].record(System.nanoTime() - stamp);
+    }
+
+    /**
+     * Records a latency that was measured elsewhere.
+     * @param stage - the stage.
+     * @param nanos - the latency in nanoseconds.
+     */
+    public void recordNanos(Stage stage, long nanos) {
+        if (enabled)
+            histograms[stage.ordinal()].record(nanos);
+    }
+
+    public LatencyHistogram histogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    /**
+     * @return - a table of the percentiles of every stage (in milliseconds).
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder("latency report (ms):");
+        sb.append(format("%n%-20s %8s %8s %8s %8s %8s %8s", "stage", "count", "mean", "p50", "p90", "p99", "max"));
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram h = histograms[stage.ordinal()];
+            sb.append(format("%n%-20s %8d %8.3f %8.3f %8.3f %8.3f %8.3f", stage.description, h.count(),
+                    h.mean() / 1e6, h.percentile(50) / 1e6, h.percentile(90) / 1e6, h.percentile(99) / 1e6, h.max() / 1e6));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the report to the log (if tracing is enabled).
+     * @param logger - the logger.
+     */
+    public void dump(Logger logger) {
+        if (enabled)
+            logger.info(report());
+    }
+}
@@ -1,15 +1,21 @@
 package bguspl.set;
 
+import bguspl.set.ex.CheckpointFile;
 import bguspl.set.ex.Dealer;
+import bguspl.set.ex.GameSnapshot;
 import bguspl.set.ex.Player;
 import bguspl.set.ex.Table;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.*;
 
 /**
@@ -22,12 +28,19 @@ public class Main {
 
     private static boolean xButtonPressed = false;
     private static Logger logger;
+    private static Config config;
 
     public static void xButtonPressed() throws InterruptedException {
         if (logger != null) logger.severe("exit button pressed");
         xButtonPressed = true;
         if (dealer != null) dealer.terminate();
-        mainThread.join();
+        // the dealer still shows the winners before the main thread cleans up (join(0) would wait forever)
+        mainThread.join(Math.max(1, config.shutdownMillis + config.endGamePauseMillies));
+        if (mainThread.isAlive()) {
+            logger.severe("the game did not shut down in time, exiting anyway");
+            for (Handler h : logger.getHandlers()) h.flush();
+            System.exit(1);
+        }
     }
 
     /**
@@ -42,44 +55,121 @@ public class Main {
         // create the game environment objects
         logger = initLogger();
         ThreadLogger.logStart(logger, Thread.currentThread().getName());
-        Config config = new Config(logger, "config.properties");
+        config = new Config(logger, "config.properties");
         Util util = new UtilImpl(config);
 
+        LatencyTracer tracer = new LatencyTracer(config.latencyTracing);
+        TraceFile trace = new TraceFile(config.traceFile.isEmpty() ? null : Paths.get(config.traceFile));
+
         Player[] players = new Player[config.players];
         UserInterface ui = null;
-        try {
-            ui = new UserInterfaceSwing(logger, config, players);
+        if (!config.terminalUi) try {
+            ui = new UserInterfaceSwing(logger, config, players, tracer, trace);
         } catch (UnsupportedOperationException | IllegalArgumentException e) {
             logger.severe("error creating swing user interface: " + e.getMessage());
+        }
+        if (ui == null && (config.terminalUi || System.console() != null)) try {
+            UserInterfaceTerminal terminal = new UserInterfaceTerminal(logger, config, util, System.out);
+            terminal.start();
+            ui = terminal;
+        } catch (IllegalArgumentException e) {
+            logger.severe("error creating terminal user interface: " + e.getMessage());
+        }
+        if (ui == null) {
             logger.severe("will try to run without user interface");
             if (config.humanPlayers > 0)
                 logger.severe("warning: running with human players with no user interface");
+        } else if (ui instanceof UserInterfaceTerminal && config.humanPlayers > 0)
+            logger.severe("warning: the terminal user interface has no keyboard input, human players can only join remotely");
+        if (config.serverPort >= 0) try {
+            RemotePlayerServer server = new RemotePlayerServer(logger, config, players, ui);
+            server.start();
+            ui = server;
+        } catch (IOException e) {
+            logger.severe("error starting remote player server: " + e.getMessage());
+        }
+        if (config.spectatorPort >= 0) try {
+            SpectatorBroadcaster spectators = new SpectatorBroadcaster(logger, config, ui, config.spectatorQueueSize);
+            spectators.listen(new InetSocketAddress(config.serverAddress, config.spectatorPort));
+            spectators.start();
+            ui = spectators;
+        } catch (IOException e) {
+            logger.severe("error starting spectator broadcaster: " + e.getMessage());
         }
-        ui = new UserInterfaceDecorator(logger, util, ui);
+        if (config.dashboardPort >= 0) try {
+            DashboardServer dashboard = new DashboardServer(logger, config, ui,
+                    new InetSocketAddress(config.serverAddress, config.dashboardPort));
+            dashboard.start();
+            ui = dashboard;
+        } catch (IOException | IllegalArgumentException e) {
+            logger.severe("error starting dashboard: " + e.getMessage());
+        }
+        ui = new UserInterfaceDecorator(logger, util, ui, trace);
 
-        Env env = new Env(logger, config, ui, util);
+        Watchdog watchdog = new Watchdog(logger, config.watchdogMillis, config.watchdogRecovery);
+        Env env = new Env(logger, config, ui, util, tracer, trace, watchdog);
 
         // create the game entities
         Table table = new Table(env);
         dealer = new Dealer(env, table, players);
         for (int i = 0; i < players.length; i++)
             players[i] = new Player(env, dealer, table, i, i < env.config.humanPlayers);
+        CheckpointFile checkpoint = openCheckpoint(config);
 
         // start the dealer thread
-        ThreadLogger dealerThread = new ThreadLogger(dealer, "dealer", logger);
+        ThreadLogger dealerThread = new ThreadLogger(dealer, "dealer", logger, env.accounting);
         dealerThread.startWithLog();
+        watchdog.start();
 
         try {
             // shutdown stuff
             dealerThread.joinWithLog();
+            if (env.accounting.isEnabled()) logger.info(env.accounting.summary());
+            if (!config.statisticsFile.isEmpty()) saveStatistics(config);
             if (!xButtonPressed && config.endGamePauseMillies > 0) Thread.sleep(config.endGamePauseMillies);
         } catch (InterruptedException ignored) {
         } finally {
             logger.severe("thanks for playing... it was fun!");
-            System.out.println("Thanks for playing... it was fun!");
             ThreadLogger.logStop(logger, Thread.currentThread().getName());
+            watchdog.close();
+            if (checkpoint != null) checkpoint.close();
             if (!xButtonPressed) env.ui.dispose();
+            if (dealer.hasStragglers()) logger.severe("some threads of the game did not terminate, exiting anyway");
+            System.out.println("Thanks for playing... it was fun!");
             for (Handler h : logger.getHandlers()) h.flush();
+            if (dealer.hasStragglers()) System.exit(1);
+        }
+    }
+
+    /**
+     * Opens the checkpoint file (if any), and resumes the game in it if it is unfinished.
+     */
+    private static CheckpointFile openCheckpoint(Config config) {
+        if (config.checkpointFile.isEmpty())
+            return null;
+        try {
+            CheckpointFile checkpoint = new CheckpointFile(Paths.get(config.checkpointFile), logger, config.deckSize,
+                    config.tableSize, config.players);
+            GameSnapshot snapshot = checkpoint.latest();
+            dealer.setCheckpoint(checkpoint, snapshot == null || snapshot.finished ? null : snapshot);
+            return checkpoint;
+        } catch (IOException e) {
+            logger.severe("error opening checkpoint file: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void saveStatistics(Config config) throws InterruptedException {
+        try (StatisticsStore store = new StatisticsStore(Paths.get(config.statisticsFile), logger)) {
+            CompletableFuture<Long> saved = null;
+            for (GameResult result : dealer.results())
+                saved = store.append(result);
+            // the results are written in order
+            if (saved != null) saved.get();
+            for (String name : config.playerNames)
+                logger.info("statistics: " + store.player(name));
+        } catch (IOException | ExecutionException e) {
+            logger.severe("error saving statistics: " + e.getMessage());
         }
     }
 
@@ -0,0 +1,315 @@
+package bguspl.set;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static java.lang.String.format;
+
+/**
+ * Strength ratings of players (strategies or people, by name) from game results.
+ * A game of n players counts as the n(n-1)/2 pairwise matches between them: the player with the higher score wins
+ * the match and equal scores (e.g. the winners of a draw) are a tie. Seats of the same player do not play each other.
+ * <p>
+ * Results can be rated one at a time as they arrive (Elo, and Glicko with every game as its own rating period), or
+ * the whole history can be recomputed with Glicko-1 rating periods. The recompute keeps the history and the ratings
+ * in primitive arrays, and rates the players of a period in parallel (within a period every player's update only
+ * depends on the ratings from before the period).
+ */
+public class RatingEngine {
+
+    public static final double INITIAL_RATING = 1500;
+    public static final double INITIAL_RD = 350;
+
+    /**
+     * The lowest rating deviation (so ratings keep following changes in strength).
+     */
+    public static final double MIN_RD = 30;
+
+    /**
+     * The Elo factor of a game (shared among the matches of the game).
+     */
+    public static final double ELO_K = 32;
+
+    private static final double Q = Math.log(10) / 400;
+
+    /**
+     * The growth of the rating deviation between two rating periods.
+     */
+    private final double c;
+
+    /**
+     * The ids of the players by name, and their ratings by id.
+     */
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private double[] elo = new double[16];
+    private double[] rating = new double[16];
+    private double[] rd = new double[16];
+    private int[] games = new int[16];
+
+    /**
+     * @param c - the growth of the rating deviation between two rating periods of a recompute.
+     */
+    public RatingEngine(double c) {
+        this.c = c;
+    }
+
+    public RatingEngine() {
+        this(35);
+    }
+
+    /**
+     * @return - the id of a player, registering new players with the initial ratings.
+     */
+    public synchronized int id(String name) {
+        Integer id = ids.get(name);
+        if (id != null)
+            return id;
+        id = names.size();
+        if (id == rating.length) {
+            elo = Arrays.copyOf(elo, id * 2);
+            rating = Arrays.copyOf(rating, id * 2);
+            rd = Arrays.copyOf(rd, id * 2);
+            games = Arrays.copyOf(games, id * 2);
+        }
+        elo[id] = INITIAL_RATING;
+        rating[id] = INITIAL_RATING;
+        rd[id] = INITIAL_RD;
+        ids.put(name, id);
+        names.add(name);
+        return id;
+    }
+
+    public synchronized int players() {
+        return names.size();
+    }
+
+    public synchronized double elo(String name) {
+        return elo[id(name)];
+    }
+
+    public synchronized double rating(String name) {
+        return rating[id(name)];
+    }
+
+    public synchronized double deviation(String name) {
+        return rd[id(name)];
+    }
+
+    /**
+     * @return - the outcome of the match of two players with the given scores: 1 - win, 0.5 - tie, 0 - loss.
+     */
+    static double outcome(int score, int opponentScore) {
+        return score > opponentScore ? 1 : score == opponentScore ? 0.5 : 0;
+    }
+
+    private static double g(double rd) {
+        return 1 / Math.sqrt(1 + 3 * Q * Q * rd * rd / (Math.PI * Math.PI));
+    }
+
+    private static double expected(double rating, double opponentRating, double gOpponent) {
+        return 1 / (1 + Math.pow(10, -gOpponent * (rating - opponentRating) / 400));
+    }
+
+    /**
+     * Rates a single game (streaming). The seats of the same player in a game (e.g. a lineup that repeats a strategy
+     * under the same name) are rated as one player: they do not play against each other, and the game counts once.
+     * @param result - the result of the game.
+     */
+    public synchronized void update(GameResult result) {
+        int n = result.players.length;
+        if (n < 2)
+            return;
+        int[] seats = new int[n];
+        for (int i = 0; i < n; i++)
+            seats[i] = id(result.players[i]);
+
+        // elo: the factor of the game is shared among the n - 1 matches of every player
+        double[] eloDelta = new double[n];
+        double k = ELO_K / (n - 1);
+        for (int i = 0; i < n; i++)
+            for (int j = i + 1; j < n; j++) {
+                if (seats[j] == seats[i]) continue;
+                double expected = 1 / (1 + Math.pow(10, (elo[seats[j]] - elo[seats[i]]) / 400));
+                double delta = k * (outcome(result.scores[i], result.scores[j]) - expected);
+                eloDelta[i] += delta;
+                eloDelta[j] -= delta;
+            }
+
+        // glicko: the game is a rating period of its own, the matches of all the seats of a player are summed up
+        // into its first seat
+        int[] first = new int[n];
+        double[] dInverse = new double[n], sum = new double[n];
+        for (int i = 0; i < n; i++) {
+            first[i] = 0;
+            while (seats[first[i]] != seats[i])
+                first[i]++;
+            double r = rating[seats[i]];
+            for (int j = 0; j < n; j++) {
+                if (seats[j] == seats[i]) continue;
+                double gj = g(rd[seats[j]]);
+                double e = expected(r, rating[seats[j]], gj);
+                dInverse[first[i]] += Q * Q * gj * gj * e * (1 - e);
+                sum[first[i]] += gj * (outcome(result.scores[i], result.scores[j]) - e);
+            }
+        }
+        double[] newRating = new double[n], newRd = new double[n];
+        for (int i = 0; i < n; i++) {
+            if (first[i] != i) continue;
+            double deviation = rd[seats[i]];
+            double precision = 1 / (deviation * deviation) + dInverse[i];
+            newRating[i] = rating[seats[i]] + Q / precision * sum[i];
+            newRd[i] = Math.max(MIN_RD, Math.sqrt(1 / precision));
+        }
+
+        for (int i = 0; i < n; i++) {
+            elo[seats[i]] += eloDelta[i];
+            if (first[i] != i) continue;
+            rating[seats[i]] = newRating[i];
+            rd[seats[i]] = newRd[i];
+            games[seats[i]]++;
+        }
+    }
+
+    /**
+     * Recomputes the Glicko ratings from a whole history (replacing the current Glicko ratings).
+     * @param results        - the results, in the order they were played.
+     * @param gamesPerPeriod - the number of games in a rating period.
+     */
+    public synchronized void recompute(List<GameResult> results, int gamesPerPeriod) {
+        int[] gameStart = new int[results.size() + 1];
+        for (int game = 0; game < results.size(); game++)
+            gameStart[game + 1] = gameStart[game] + results.get(game).players.length;
+        int[] seat = new int[gameStart[results.size()]];
+        int[] score = new int[seat.length];
+        for (int game = 0; game < results.size(); game++) {
+            GameResult result = results.get(game);
+            for (int i = 0; i < result.players.length; i++) {
+                seat[gameStart[game] + i] = id(result.players[i]);
+                score[gameStart[game] + i] = result.scores[i];
+            }
+        }
+        double[][] ratings = recompute(players(), gameStart, seat, score, gamesPerPeriod, c);
+        System.arraycopy(ratings[0], 0, rating, 0, players());
+        System.arraycopy(ratings[1], 0, rd, 0, players());
+        Arrays.fill(games, 0);
+        for (int game = 0; game < results.size(); game++)
+            for (int i = gameStart[game]; i < gameStart[game + 1]; i++)
+                if (firstSeat(seat, gameStart[game], i))
+                    games[seat[i]]++;
+    }
+
+    /**
+     * Computes Glicko-1 ratings from a history kept in primitive arrays.
+     * @param players        - the number of players (ids are 0 to players - 1).
+     * @param gameStart      - the index in seat and score of the first player of every game, plus the total length.
+     * @param seat           - the ids of the players of the games.
+     * @param score          - the scores of the players of the games.
+     * @param gamesPerPeriod - the number of games in a rating period.
+     * @param c              - the growth of the rating deviation between two rating periods.
+     * @return - the ratings and the rating deviations, by player id.
+     */
+    public static double[][] recompute(int players, int[] gameStart, int[] seat, int[] score, int gamesPerPeriod,
+                                       double c) {
+        double[] rating = new double[players], rd = new double[players];
+        double[] nextRating = new double[players], nextRd = new double[players];
+        Arrays.fill(rating, INITIAL_RATING);
+        Arrays.fill(rd, INITIAL_RD);
+        boolean[] played = new boolean[players];
+
+        // the matches of a period by player (compressed rows): the opponents and the outcomes
+        int[] start = new int[players + 1];
+        int[] fill = new int[players];
+        int[] opponent = new int[0];
+        float[] outcome = new float[0];
+
+        int games = gameStart.length - 1;
+        for (int first = 0; first < games; first += gamesPerPeriod) {
+            int last = Math.min(games, first + gamesPerPeriod);
+            Arrays.fill(start, 0);
+            for (int game = first; game < last; game++) {
+                for (int i = gameStart[game]; i < gameStart[game + 1]; i++)
+                    for (int j = gameStart[game]; j < gameStart[game + 1]; j++)
+                        if (seat[j] != seat[i])
+                            start[seat[i] + 1]++;
+            }
+            for (int player = 0; player < players; player++)
+                start[player + 1] += start[player];
+            int matches = start[players];
+            if (opponent.length < matches) {
+                opponent = new int[matches];
+                outcome = new float[matches];
+            }
+            System.arraycopy(start, 0, fill, 0, players);
+            for (int game = first; game < last; game++)
+                for (int i = gameStart[game]; i < gameStart[game + 1]; i++)
+                    for (int j = gameStart[game]; j < gameStart[game + 1]; j++)
+                        if (seat[j] != seat[i]) {
+                            int at = fill[seat[i]]++;
+                            opponent[at] = seat[j];
+                            outcome[at] = (float) outcome(score[i], score[j]);
+                        }
+
+            int[] opponents = opponent;
+            float[] outcomes = outcome;
+            double[] r = rating, deviation = rd, newR = nextRating, newDeviation = nextRd;
+            IntStream.range(0, players).parallel().forEach(player -> {
+                // the deviation grows with the time since the last period the player played in
+                double d = played[player] ? Math.min(INITIAL_RD,
+                        Math.sqrt(deviation[player] * deviation[player] + c * c)) : deviation[player];
+                if (start[player] == start[player + 1]) {
+                    newR[player] = r[player];
+                    newDeviation[player] = d;
+                    return;
+                }
+                double dInverse = 0, sum = 0;
+                for (int m = start[player]; m < start[player + 1]; m++) {
+                    int o = opponents[m];
+                    double go = g(deviation[o]);
+                    double e = expected(r[player], r[o], go);
+                    dInverse += Q * Q * go * go * e * (1 - e);
+                    sum += go * (outcomes[m] - e);
+                }
+                double precision = 1 / (d * d) + dInverse;
+                newR[player] = r[player] + Q / precision * sum;
+                newDeviation[player] = Math.max(MIN_RD, Math.sqrt(1 / precision));
+            });
+            for (int player = 0; player < players; player++)
+                played[player] |= start[player] != start[player + 1];
+            nextRating = rating;
+            nextRd = rd;
+            rating = newR;
+            rd = newDeviation;
+        }
+        return new double[][]{rating, rd};
+    }
+
+    /**
+     * @return - true iff seat i is the first seat of its player in the seats [from, i].
+     */
+    private static boolean firstSeat(int[] seat, int from, int i) {
+        for (int j = from; j < i; j++)
+            if (seat[j] == seat[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * @return - the players ordered by their Glicko rating.
+     */
+    public synchronized String leaderboard() {
+        Integer[] order = new Integer[players()];
+        Arrays.setAll(order, i -> i);
+        Arrays.sort(order, (a, b) -> Double.compare(rating[b], rating[a]));
+        StringBuilder sb = new StringBuilder(format("%-40s %8s %8s %8s %8s", "player", "games", "glicko", "rd", "elo"));
+        for (int id : order) {
+            String name = names.get(id).length() > 40 ? names.get(id).substring(0, 37) + "..." : names.get(id);
+            sb.append(format("%n%-40s %8d %8.1f %8.1f %8.1f", name, games[id], rating[id], rd[id], elo[id]));
+        }
+        return sb.toString();
+    }
+}
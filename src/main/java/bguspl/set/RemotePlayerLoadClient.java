@@ -0,0 +1,163 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.lang.String.format;
+
+/**
+ * A load generating client for the remote player server (see RemoteProtocol).
+ * Opens many connections from a single thread, joins them as the human players (round robin) and presses random
+ * keys at a fixed rate per connection, while counting the frames the server pushes back.
+ * <p>
+ * Usage: RemotePlayerLoadClient [host] [port] [connections] [humanPlayers] [tableSize] [pressesPerSecond] [seconds]
+ */
+public class RemotePlayerLoadClient {
+
+    private final InetSocketAddress address;
+    private final int connections;
+    private final int humanPlayers;
+    private final int tableSize;
+    private final long pressIntervalNanos;
+    private final long durationNanos;
+
+    /**
+     * The totals of the run.
+     */
+    private long connected;
+    private long pressesSent;
+    private long framesReceived;
+    private long bytesReceived;
+
+    private static final class Client {
+        private final SocketChannel channel;
+        // any frame fits, otherwise a full buffer would never be read again
+        private final ByteBuffer in = ByteBuffer.allocate(RemoteProtocol.MAX_FRAME_SIZE);
+        private final ByteBuffer out = ByteBuffer.allocate(RemoteProtocol.HEADER_SIZE + 2);
+        private final int player;
+        private boolean ready;
+        private long nextPress;
+
+        private Client(SocketChannel channel, int player) {
+            this.channel = channel;
+            this.player = player;
+        }
+    }
+
+    public RemotePlayerLoadClient(InetSocketAddress address, int connections, int humanPlayers, int tableSize,
+                                  double pressesPerSecond, double seconds) {
+        this.address = address;
+        this.connections = connections;
+        this.humanPlayers = humanPlayers;
+        this.tableSize = tableSize;
+        this.pressIntervalNanos = (long) (1e9 / pressesPerSecond);
+        this.durationNanos = (long) (seconds * 1e9);
+    }
+
+    public static void main(String[] args) throws IOException {
+        String host = args.length > 0 ? args[0] : "127.0.0.1";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 7777;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int humanPlayers = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        int tableSize = args.length > 4 ? Integer.parseInt(args[4]) : 12;
+        double pressesPerSecond = args.length > 5 ? Double.parseDouble(args[5]) : 10;
+        double seconds = args.length > 6 ? Double.parseDouble(args[6]) : 10;
+        RemotePlayerLoadClient client = new RemotePlayerLoadClient(new InetSocketAddress(host, port), connections,
+                humanPlayers, tableSize, pressesPerSecond, seconds);
+        System.out.println(client.run());
+    }
+
+    /**
+     * Runs the load for the configured duration.
+     * @return - a summary of the run.
+     * @throws IOException - if the selector cannot be opened.
+     */
+    public String run() throws IOException {
+        long start = System.nanoTime();
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < connections; i++) {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                channel.connect(address);
+                channel.register(selector, SelectionKey.OP_CONNECT, new Client(channel, i % humanPlayers));
+            }
+            long end = start + durationNanos;
+            while (System.nanoTime() < end) {
+                selector.select(1);
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    Client client = (Client) key.attachment();
+                    try {
+                        if (key.isConnectable() && client.channel.finishConnect()) {
+                            key.interestOps(SelectionKey.OP_READ);
+                            send(RemoteProtocol.putJoin(client.out, client.player), client);
+                            client.ready = true;
+                            client.nextPress = System.nanoTime();
+                            connected++;
+                        } else if (key.isReadable())
+                            receive(client, key);
+                    } catch (IOException e) {
+                        key.cancel();
+                        client.channel.close();
+                    }
+                }
+                long now = System.nanoTime();
+                for (SelectionKey key : selector.keys()) {
+                    Client client = (Client) key.attachment();
+                    if (key.isValid() && client.ready && now >= client.nextPress) {
+                        try {
+                            send(RemoteProtocol.putKey(client.out, ThreadLocalRandom.current().nextInt(tableSize)), client);
+                            pressesSent++;
+                        } catch (IOException e) {
+                            key.cancel();
+                            client.channel.close();
+                        }
+                        client.nextPress += pressIntervalNanos;
+                    }
+                }
+            }
+            for (SelectionKey key : selector.keys())
+                key.channel().close();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        return format("connections: %d/%d, presses sent: %d (%.0f/s), frames received: %d (%.0f/s), bytes received: %d",
+                connected, connections, pressesSent, pressesSent / elapsed, framesReceived, framesReceived / elapsed,
+                bytesReceived);
+    }
+
+    /**
+     * Writes a single small frame (the socket buffer of a connection is never full of 5 byte frames).
+     */
+    private void send(ByteBuffer frame, Client client) throws IOException {
+        RemoteProtocol.flip(frame);
+        client.channel.write(frame);
+        ((Buffer) frame).clear();
+    }
+
+    private void receive(Client client, SelectionKey key) throws IOException {
+        int read = client.channel.read(client.in);
+        if (read < 0) {
+            key.cancel();
+            client.channel.close();
+            return;
+        }
+        bytesReceived += read;
+        ByteBuffer in = RemoteProtocol.flip(client.in);
+        int size;
+        while ((size = RemoteProtocol.frameSize(in)) > 0 && in.remaining() >= size) {
+            RemoteProtocol.position(in, in.position() + size);
+            framesReceived++;
+        }
+        in.compact();
+    }
+}
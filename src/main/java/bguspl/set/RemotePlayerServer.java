@@ -0,0 +1,378 @@
+package bguspl.set;
+
+import bguspl.set.ex.Player;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * A non-blocking TCP server for remote players (see RemoteProtocol).
+ * A client joins as one of the human players and sends key presses, which are dispatched to Player.keyPressed.
+ * The server is also a UserInterface decorator: every user interface call is forwarded to the wrapped user interface
+ * and pushed to all the connected clients.
+ * The game threads only encode the event once and queue it, all the socket work is done by the server thread.
+ */
+public class RemotePlayerServer implements UserInterface, Runnable {
+
+    /**
+     * The number of frames a client may fall behind before it is disconnected.
+     */
+    private static final int MAX_QUEUED_FRAMES = 1 << 14;
+
+    /**
+     * The number of frames written with a single (gathering) write.
+     */
+    private static final int WRITE_BATCH = 64;
+
+    private final Logger logger;
+    private final Config config;
+    private final Player[] players;
+    private final UserInterface ui;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+
+    /**
+     * The connected clients.
+     */
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+    /**
+     * True iff the server thread was already asked to wake up and flush the queued frames.
+     */
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+    /**
+     * True iff the server should be stopped.
+     */
+    private volatile boolean terminate;
+
+    /**
+     * The server thread.
+     */
+    private ThreadLogger serverThread;
+
+    private final class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer in = ByteBuffer.allocate(64);
+        private final ConcurrentLinkedQueue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final ByteBuffer[] batch = new ByteBuffer[WRITE_BATCH];
+        private volatile boolean dropped;
+        private int player = -1;
+
+        private Connection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.key = channel.register(selector, SelectionKey.OP_READ, this);
+        }
+    }
+
+    /**
+     * @param logger  - the logger.
+     * @param config  - the game configuration (ServerAddress and ServerPort are used).
+     * @param players - the players (may be filled after the server is started).
+     * @param ui      - the user interface to forward to (may be null).
+     * @throws IOException - if the server socket cannot be opened.
+     */
+    public RemotePlayerServer(Logger logger, Config config, Player[] players, UserInterface ui) throws IOException {
+        this.logger = logger;
+        this.config = config;
+        this.players = players;
+        this.ui = ui;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(config.serverAddress, config.serverPort));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * @return - the port the server listens on.
+     */
+    public int localPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public void start() {
+        serverThread = new ThreadLogger(this, "remote-server", logger);
+        serverThread.startWithLog();
+    }
+
+    /**
+     * The server thread starts here.
+     */
+    @Override
+    public void run() {
+        logger.info("remote player server listening on port " + localPort());
+        while (!terminate) {
+            try {
+                selector.select();
+                wakeupPending.set(false);
+                for (Connection connection : connections) {
+                    if (connection.dropped) {
+                        logger.severe("remote client is too slow, disconnecting");
+                        close(connection);
+                    } else if (!connection.out.isEmpty())
+                        write(connection);
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable())
+                        accept();
+                    else {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isReadable())
+                            read(connection);
+                        if (key.isValid() && key.isWritable())
+                            write(connection);
+                    }
+                }
+            } catch (IOException e) {
+                logger.severe("remote player server error: " + e.getMessage());
+            }
+        }
+        // best effort to deliver the last frames (e.g. the winner announcement) before closing
+        for (Connection connection : connections) {
+            write(connection);
+            close(connection);
+        }
+        try {
+            serverChannel.close();
+            selector.close();
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Stops the server thread and closes all the connections.
+     */
+    public void terminate() {
+        terminate = true;
+        selector.wakeup();
+        if (serverThread != null) try {
+            serverThread.joinWithLog();
+        } catch (InterruptedException ignored) {}
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            connections.add(new Connection(channel));
+        }
+    }
+
+    private void read(Connection connection) {
+        try {
+            if (connection.channel.read(connection.in) < 0) {
+                close(connection);
+                return;
+            }
+        } catch (IOException e) {
+            close(connection);
+            return;
+        }
+        ByteBuffer in = connection.in;
+        RemoteProtocol.flip(in);
+        int size;
+        while ((size = RemoteProtocol.frameSize(in)) > 0 && in.remaining() >= size) {
+            int next = in.position() + size;
+            RemoteProtocol.position(in, in.position() + 2);
+            if (size != RemoteProtocol.HEADER_SIZE + 2 || !handle(connection, in.get(), in)) {
+                close(connection);
+                return;
+            }
+            RemoteProtocol.position(in, next);
+        }
+        if (size > in.capacity()) {
+            close(connection);
+            return;
+        }
+        in.compact();
+    }
+
+    /**
+     * Handles a frame received from a client (all client frames have a 2 bytes payload).
+     * @return - false iff the frame is illegal.
+     */
+    private boolean handle(Connection connection, byte opcode, ByteBuffer in) {
+        switch (opcode) {
+            case RemoteProtocol.JOIN:
+                int player = RemoteProtocol.getUnsignedShort(in);
+                if (player >= config.humanPlayers)
+                    return false;
+                connection.player = player;
+                logger.info("remote client joined as player " + (player + 1));
+                return true;
+            case RemoteProtocol.KEY:
+                int slot = RemoteProtocol.getUnsignedShort(in);
+                if (connection.player < 0 || slot >= config.tableSize)
+                    return false;
+                Player target = players[connection.player];
+                if (target != null)
+                    target.keyPressed(slot);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void write(Connection connection) {
+        try {
+            while (!connection.out.isEmpty()) {
+                int n = 0;
+                for (ByteBuffer buffer : connection.out) {
+                    connection.batch[n++] = buffer;
+                    if (n == WRITE_BATCH)
+                        break;
+                }
+                connection.channel.write(connection.batch, 0, n);
+                for (int i = 0; i < n && !connection.batch[i].hasRemaining(); i++) {
+                    connection.out.poll();
+                    connection.queued.decrementAndGet();
+                }
+                boolean partial = connection.batch[n - 1].hasRemaining();
+                Arrays.fill(connection.batch, 0, n, null);
+                if (partial) {
+                    connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            connection.key.interestOps(SelectionKey.OP_READ);
+        } catch (IOException e) {
+            close(connection);
+        }
+    }
+
+    private void close(Connection connection) {
+        if (!connections.remove(connection))
+            return;
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException ignored) {}
+        if (connection.player >= 0)
+            logger.info("remote client of player " + (connection.player + 1) + " disconnected");
+    }
+
+    /**
+     * Queues an encoded frame to all the clients and wakes the server thread up.
+     * @param frame - the frame (in read mode), shared by all the clients.
+     */
+    private void broadcast(ByteBuffer frame) {
+        if (connections.isEmpty())
+            return;
+        for (Connection connection : connections) {
+            if (connection.dropped)
+                continue;
+            if (connection.queued.incrementAndGet() > MAX_QUEUED_FRAMES)
+                connection.dropped = true;
+            else
+                connection.out.add(frame.duplicate());
+        }
+        if (wakeupPending.compareAndSet(false, true))
+            selector.wakeup();
+    }
+
+    private static ByteBuffer allocate(int payloadSize) {
+        return ByteBuffer.allocate(RemoteProtocol.HEADER_SIZE + payloadSize);
+    }
+
+    @Override
+    public void placeCard(int card, int slot) {
+        if (ui != null) ui.placeCard(card, slot);
+        broadcast(RemoteProtocol.flip(RemoteProtocol.putPlaceCard(allocate(4), card, slot)));
+    }
+
+    @Override
+    public void removeCard(int slot) {
+        if (ui != null) ui.removeCard(slot);
+        broadcast(RemoteProtocol.flip(RemoteProtocol.putSlot(allocate(2), RemoteProtocol.REMOVE_CARD, slot)));
+    }
+
+    @Override
+    public void placeToken(int player, int slot) {
+        if (ui != null) ui.placeToken(player, slot);
+        broadcast(RemoteProtocol.flip(RemoteProtocol.putPlayerSlot(allocate(4), RemoteProtocol.PLACE_TOKEN, player, slot)));
+    }
+
+    @Override
+    public void removeTokens() {
+        if (ui != null) ui.removeTokens();
+        broadcast(RemoteProtocol.flip(RemoteProtocol.putEmpty(allocate(0), RemoteProtocol.REMOVE_ALL_TOKENS)));
+    }
+
+    @Override
+    public void removeTokens(int slot) {
+        if (ui != null) ui.removeTokens(slot);
+        broadcast(RemoteProtocol.flip(RemoteProtocol.putSlot(allocate(2), RemoteProtocol.REMOVE_TOKENS, slot)));
+    }
+
+    @Override
+    public void removeToken(int player, int slot) {
+        if (ui != null) ui.removeToken(player, slot);
+        broadcast(RemoteProtocol.flip(RemoteProtocol.putPlayerSlot(allocate(4), RemoteProtocol.REMOVE_TOKEN, player, slot)));
+    }
+
+    @Override
+    public void setCountdown(long millies, boolean warn) {
+        if (ui != null) ui.setCountdown(millies, warn);
+        broadcast(RemoteProtocol.flip(RemoteProtocol.putCountdown(allocate(9), millies, warn)));
+    }
+
+    @Override
+    public void setCountdownDeadline(long deadlineNanos, long warnMillies) {
+        if (ui != null) ui.setCountdownDeadline(deadlineNanos, warnMillies);
+        long remaining = (deadlineNanos - System.nanoTime()) / 1000000L;
+        broadcast(RemoteProtocol.flip(RemoteProtocol.putCountdownDeadline(allocate(16), remaining, warnMillies)));
+    }
+
+    @Override
+    public void setElapsed(long millies) {
+        if (ui != null) ui.setElapsed(millies);
+        broadcast(RemoteProtocol.flip(RemoteProtocol.putElapsed(allocate(8), millies)));
+    }
+
+    @Override
+    public void setFreeze(int player, long millies) {
+        if (ui != null) ui.setFreeze(player, millies);
+        broadcast(RemoteProtocol.flip(RemoteProtocol.putFreeze(allocate(10), player, millies)));
+    }
+
+    @Override
+    public void setScore(int player, int score) {
+        if (ui != null) ui.setScore(player, score);
+        broadcast(RemoteProtocol.flip(RemoteProtocol.putScore(allocate(6), player, score)));
+    }
+
+    @Override
+    public void announceWinner(int[] players) {
+        if (ui != null) ui.announceWinner(players);
+        broadcast(RemoteProtocol.flip(RemoteProtocol.putWinner(allocate(2 + 2 * players.length), players)));
+    }
+
+    @Override
+    public void dispose() {
+        broadcast(RemoteProtocol.flip(RemoteProtocol.putEmpty(allocate(0), RemoteProtocol.DISPOSE)));
+        terminate();
+        if (ui != null) ui.dispose();
+    }
+}
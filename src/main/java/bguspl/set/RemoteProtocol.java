@@ -0,0 +1,145 @@
+package bguspl.set;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * The binary protocol spoken between the remote player server and its clients.
+ * Every frame is a 2 bytes (unsigned) length of the rest of the frame, a 1 byte opcode and a fixed payload.
+ * Numbers are big endian. Card ids, slots and player ids are sent as unsigned shorts.
+ */
+public final class RemoteProtocol {
+
+    /**
+     * The size of the length field and the opcode.
+     */
+    public static final int HEADER_SIZE = 3;
+
+    /**
+     * The largest frame (the winner announcement of the maximal number of players).
+     */
+    public static final int MAX_FRAME_SIZE = HEADER_SIZE + 2 + 2 * 0xFFFF;
+
+    /**
+     * Client to server opcodes.
+     */
+    public static final byte JOIN = 1;          // player
+    public static final byte KEY = 2;           // slot
+
+    /**
+     * Server to client opcodes (one per UserInterface method).
+     */
+    public static final byte PLACE_CARD = 10;   // card, slot
+    public static final byte REMOVE_CARD = 11;  // slot
+    public static final byte PLACE_TOKEN = 12;  // player, slot
+    public static final byte REMOVE_ALL_TOKENS = 13;
+    public static final byte REMOVE_TOKENS = 14; // slot
+    public static final byte REMOVE_TOKEN = 15; // player, slot
+    public static final byte COUNTDOWN = 16;    // millies (long), warn (byte)
+    public static final byte ELAPSED = 17;      // millies (long)
+    public static final byte FREEZE = 18;       // player, millies (long)
+    public static final byte SCORE = 19;        // player, score (int)
+    public static final byte WINNER = 20;       // count, players
+    public static final byte DISPOSE = 21;
+    public static final byte SNAPSHOT = 22;     // the frames that follow recreate the whole state
+    public static final byte COUNTDOWN_DEADLINE = 23; // remaining millies (long), warn millies (long)
+
+    private RemoteProtocol() {}
+
+    /**
+     * Writes a frame header.
+     * @param buffer      - the buffer to write to.
+     * @param opcode      - the opcode of the frame.
+     * @param payloadSize - the number of bytes that follow the opcode.
+     * @return - the buffer.
+     */
+    public static ByteBuffer putHeader(ByteBuffer buffer, byte opcode, int payloadSize) {
+        return buffer.putShort((short) (payloadSize + 1)).put(opcode);
+    }
+
+    public static ByteBuffer putJoin(ByteBuffer buffer, int player) {
+        return putHeader(buffer, JOIN, 2).putShort((short) player);
+    }
+
+    public static ByteBuffer putKey(ByteBuffer buffer, int slot) {
+        return putHeader(buffer, KEY, 2).putShort((short) slot);
+    }
+
+    public static ByteBuffer putPlaceCard(ByteBuffer buffer, int card, int slot) {
+        return putHeader(buffer, PLACE_CARD, 4).putShort((short) card).putShort((short) slot);
+    }
+
+    public static ByteBuffer putSlot(ByteBuffer buffer, byte opcode, int slot) {
+        return putHeader(buffer, opcode, 2).putShort((short) slot);
+    }
+
+    public static ByteBuffer putPlayerSlot(ByteBuffer buffer, byte opcode, int player, int slot) {
+        return putHeader(buffer, opcode, 4).putShort((short) player).putShort((short) slot);
+    }
+
+    public static ByteBuffer putCountdown(ByteBuffer buffer, long millies, boolean warn) {
+        return putHeader(buffer, COUNTDOWN, 9).putLong(millies).put((byte) (warn ? 1 : 0));
+    }
+
+    public static ByteBuffer putCountdownDeadline(ByteBuffer buffer, long remainingMillies, long warnMillies) {
+        return putHeader(buffer, COUNTDOWN_DEADLINE, 16).putLong(remainingMillies).putLong(warnMillies);
+    }
+
+    public static ByteBuffer putElapsed(ByteBuffer buffer, long millies) {
+        return putHeader(buffer, ELAPSED, 8).putLong(millies);
+    }
+
+    public static ByteBuffer putFreeze(ByteBuffer buffer, int player, long millies) {
+        return putHeader(buffer, FREEZE, 10).putShort((short) player).putLong(millies);
+    }
+
+    public static ByteBuffer putScore(ByteBuffer buffer, int player, int score) {
+        return putHeader(buffer, SCORE, 6).putShort((short) player).putInt(score);
+    }
+
+    public static ByteBuffer putWinner(ByteBuffer buffer, int[] players) {
+        putHeader(buffer, WINNER, 2 + 2 * players.length).putShort((short) players.length);
+        for (int player : players)
+            buffer.putShort((short) player);
+        return buffer;
+    }
+
+    public static ByteBuffer putEmpty(ByteBuffer buffer, byte opcode) {
+        return putHeader(buffer, opcode, 0);
+    }
+
+    /**
+     * Returns the size of the complete frame at the buffer's position.
+     * @param buffer - a buffer in read mode.
+     * @return - the frame size, or -1 if the length field was not received yet.
+     */
+    public static int frameSize(ByteBuffer buffer) {
+        if (buffer.remaining() < 2)
+            return -1;
+        return 2 + (buffer.getShort(buffer.position()) & 0xFFFF);
+    }
+
+    /**
+     * Flips a buffer from write mode to read mode.
+     * Note: the cast to Buffer keeps the compiled code runnable on java 8 (where flip is not covariant).
+     */
+    public static ByteBuffer flip(ByteBuffer buffer) {
+        ((Buffer) buffer).flip();
+        return buffer;
+    }
+
+    /**
+     * Moves the position of a buffer (see flip).
+     */
+    public static ByteBuffer position(ByteBuffer buffer, int position) {
+        ((Buffer) buffer).position(position);
+        return buffer;
+    }
+
+    /**
+     * Reads an unsigned short (a card id, a slot or a player id).
+     */
+    public static int getUnsignedShort(ByteBuffer buffer) {
+        return buffer.getShort() & 0xFFFF;
+    }
+}
@@ -0,0 +1,87 @@
+package bguspl.set;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Shuts down a group of threads against a single deadline. All the threads are signalled first (in the reverse order
+ * they were added, like the old shutdown), and only then joined, so the shutdown takes as long as the slowest thread
+ * instead of the sum of all of them. A thread that did not terminate by the deadline (e.g. it ignores interrupts) is a
+ * straggler: it is reported with its stack, and returned to the caller to decide what to do with it.
+ */
+public class ShutdownCoordinator {
+
+    private final Logger logger;
+    private final long timeoutMillis;
+
+    /**
+     * The signals that tell the threads to terminate, and the threads to wait for.
+     */
+    private final List<Runnable> signals = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+
+    /**
+     * @param logger        - the logger.
+     * @param timeoutMillis - the time all the threads have to terminate, from the moment they are signalled.
+     */
+    public ShutdownCoordinator(Logger logger, long timeoutMillis) {
+        this.logger = logger;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @param signal  - tells the threads to terminate (e.g. sets a flag and interrupts them), or null.
+     * @param threads - the threads to wait for (null threads, e.g. not started yet, are skipped).
+     * @return - this coordinator.
+     */
+    public ShutdownCoordinator add(Runnable signal, Thread... threads) {
+        if (signal != null)
+            signals.add(signal);
+        for (Thread thread : threads)
+            if (thread != null)
+                this.threads.add(thread);
+        return this;
+    }
+
+    /**
+     * Signals all the threads and waits for them until the deadline.
+     * @return - the threads that did not terminate (empty if the shutdown is complete).
+     */
+    public List<Thread> shutdown() {
+        long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+        for (int i = signals.size() - 1; i >= 0; i--)
+            signals.get(i).run();
+        boolean interrupted = false;
+        List<Thread> stragglers = new ArrayList<>();
+        for (Thread thread : threads) {
+            // a thread that shuts down its own group does not wait for itself
+            if (thread == Thread.currentThread())
+                continue;
+            while (thread.isAlive()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    break;
+                try {
+                    thread.join(Math.max(1, remaining / 1000000L));
+                } catch (InterruptedException e) {
+                    // the deadline still holds, the interrupt is restored at the end
+                    interrupted = true;
+                }
+            }
+            if (thread.isAlive())
+                stragglers.add(thread);
+        }
+        for (Thread straggler : stragglers) {
+            StringBuilder sb = new StringBuilder("shutdown: thread ").append(straggler.getName())
+                    .append(" did not terminate within ").append(timeoutMillis).append(" ms (")
+                    .append(straggler.getState()).append(")");
+            for (StackTraceElement frame : straggler.getStackTrace())
+                sb.append("\n\tat ").append(frame);
+            logger.severe(sb.toString());
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        return stragglers;
+    }
+}
@@ -0,0 +1,437 @@
+package bguspl.set;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * A UserInterface decorator that streams the game to any number of spectators.
+ * Every event is encoded once (in the RemoteProtocol format) into a read only buffer that is shared by all the
+ * subscribers. The calling game thread only offers the buffer to a bounded queue per subscriber, and a single
+ * delivery thread drains the queues. A subscriber whose queue overflows loses its backlog and is resynced from a
+ * snapshot of the current state instead, so a slow spectator never slows the dealer down.
+ */
+public class SpectatorBroadcaster implements UserInterface, Runnable {
+
+    /**
+     * Receives the event frames of the game.
+     */
+    public interface Subscriber {
+
+        /**
+         * Delivers a frame. The buffer is shared, so implementations must not modify it (use duplicate()).
+         * @param frame - one or more complete frames, in read mode.
+         * @return - false iff the subscriber cannot take the frame right now (it will be offered again).
+         * @throws IOException - if the subscriber is gone (it will be unsubscribed).
+         */
+        boolean deliver(ByteBuffer frame) throws IOException;
+    }
+
+    /**
+     * A subscriber that writes the frames to a non-blocking socket.
+     */
+    public static class ChannelSubscriber implements Subscriber, Closeable {
+
+        private final SocketChannel channel;
+
+        /**
+         * The rest of a frame that was only partially written.
+         */
+        private ByteBuffer pending;
+
+        public ChannelSubscriber(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            channel.configureBlocking(false);
+        }
+
+        @Override
+        public boolean deliver(ByteBuffer frame) throws IOException {
+            if (pending != null) {
+                channel.write(pending);
+                if (pending.hasRemaining())
+                    return false;
+                pending = null;
+            }
+            ByteBuffer buffer = frame.duplicate();
+            channel.write(buffer);
+            if (buffer.hasRemaining())
+                pending = buffer;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static final class Subscription {
+        private final Subscriber subscriber;
+        private final ArrayBlockingQueue<ByteBuffer> queue;
+        private volatile boolean resync = true;
+
+        private Subscription(Subscriber subscriber, int capacity) {
+            this.subscriber = subscriber;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+    }
+
+    private final Logger logger;
+    private final UserInterface ui;
+
+    /**
+     * The number of frames a subscriber may fall behind before it is resynced.
+     */
+    private final int queueCapacity;
+
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * A mirror of the displayed state, used to build snapshots (guarded by this).
+     */
+    private final int[] slotToCard;
+    private final boolean[][] tokens;
+    private final int[] scores;
+    private final long[] freezes;
+    private long countdown;
+    private boolean warn;
+    private long deadlineNanos;
+    private long warnMillies = -1;
+
+    /**
+     * True iff the delivery thread has work it did not see yet.
+     */
+    private final AtomicBoolean pending = new AtomicBoolean();
+
+    private volatile boolean terminate;
+    private ThreadLogger deliveryThread;
+    private ThreadLogger acceptThread;
+    private ServerSocketChannel serverChannel;
+
+    /**
+     * @param logger        - the logger.
+     * @param config        - the game configuration.
+     * @param ui            - the user interface to forward to (may be null).
+     * @param queueCapacity - the number of frames a subscriber may fall behind before it is resynced.
+     */
+    public SpectatorBroadcaster(Logger logger, Config config, UserInterface ui, int queueCapacity) {
+        this.logger = logger;
+        this.ui = ui;
+        this.queueCapacity = queueCapacity;
+        slotToCard = new int[config.tableSize];
+        Arrays.fill(slotToCard, -1);
+        tokens = new boolean[config.tableSize][config.players];
+        scores = new int[config.players];
+        freezes = new long[config.players];
+    }
+
+    public void start() {
+        deliveryThread = new ThreadLogger(this, "spectators", logger);
+        deliveryThread.startWithLog();
+    }
+
+    /**
+     * Accepts spectators over TCP (each connection gets a ChannelSubscriber).
+     * @param address - the address to listen on.
+     * @return - the port the broadcaster listens on.
+     * @throws IOException - if the server socket cannot be opened.
+     */
+    public int listen(InetSocketAddress address) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        acceptThread = new ThreadLogger(() -> {
+            while (!terminate) {
+                try {
+                    SocketChannel channel = serverChannel.accept();
+                    channel.socket().setTcpNoDelay(true);
+                    subscribe(new ChannelSubscriber(channel));
+                } catch (IOException e) {
+                    if (!terminate)
+                        logger.severe("spectator accept failed: " + e.getMessage());
+                    return;
+                }
+            }
+        }, "spectator-acceptor", logger);
+        acceptThread.startWithLog();
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Adds a subscriber. It first receives a snapshot of the current state and then the events that follow.
+     */
+    public void subscribe(Subscriber subscriber) {
+        subscriptions.add(new Subscription(subscriber, queueCapacity));
+        signal();
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        subscriptions.removeIf(subscription -> subscription.subscriber == subscriber);
+    }
+
+    public int subscribers() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Stops the delivery thread (and the acceptor, if listening).
+     */
+    public void terminate() {
+        terminate = true;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+                acceptThread.joinWithLog();
+            }
+            if (deliveryThread != null) {
+                LockSupport.unpark(deliveryThread);
+                deliveryThread.joinWithLog();
+            }
+        } catch (IOException | InterruptedException ignored) {}
+    }
+
+    /**
+     * The delivery thread starts here.
+     */
+    @Override
+    public void run() {
+        while (!terminate) {
+            pending.set(false);
+            boolean stuck = false;
+            for (Subscription subscription : subscriptions)
+                stuck |= !drain(subscription);
+            if (pending.get())
+                continue;
+            if (stuck)
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            else
+                LockSupport.park(this);
+        }
+        for (Subscription subscription : subscriptions) {
+            drain(subscription);
+            close(subscription);
+        }
+    }
+
+    /**
+     * Closes the subscriber of a subscription, if it holds a resource (e.g. the socket of a ChannelSubscriber).
+     */
+    private static void close(Subscription subscription) {
+        if (subscription.subscriber instanceof Closeable) try {
+            ((Closeable) subscription.subscriber).close();
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Delivers the queued frames of a subscriber (resyncing it first if needed).
+     * @return - false iff the subscriber did not take all of its frames.
+     */
+    private boolean drain(Subscription subscription) {
+        try {
+            if (subscription.resync) {
+                synchronized (this) {
+                    subscription.queue.clear();
+                    subscription.queue.add(snapshot());
+                    subscription.resync = false;
+                }
+            }
+            ByteBuffer frame;
+            while ((frame = subscription.queue.peek()) != null) {
+                if (!subscription.subscriber.deliver(frame))
+                    return false;
+                subscription.queue.poll();
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.severe("dropping spectator: " + e);
+            subscriptions.remove(subscription);
+            close(subscription);
+        }
+        return true;
+    }
+
+    /**
+     * Encodes the current state as a SNAPSHOT frame followed by the frames that recreate it (the caller holds this).
+     */
+    private ByteBuffer snapshot() {
+        int size = RemoteProtocol.HEADER_SIZE * 2 + RemoteProtocol.HEADER_SIZE + 16;
+        for (int slot = 0; slot < slotToCard.length; slot++) {
+            size += RemoteProtocol.HEADER_SIZE + 4;
+            for (boolean token : tokens[slot])
+                if (token) size += RemoteProtocol.HEADER_SIZE + 4;
+        }
+        size += scores.length * (RemoteProtocol.HEADER_SIZE * 2 + 6 + 10);
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        RemoteProtocol.putEmpty(buffer, RemoteProtocol.SNAPSHOT);
+        RemoteProtocol.putEmpty(buffer, RemoteProtocol.REMOVE_ALL_TOKENS);
+        for (int slot = 0; slot < slotToCard.length; slot++) {
+            if (slotToCard[slot] >= 0)
+                RemoteProtocol.putPlaceCard(buffer, slotToCard[slot], slot);
+            else
+                RemoteProtocol.putSlot(buffer, RemoteProtocol.REMOVE_CARD, slot);
+            for (int player = 0; player < tokens[slot].length; player++)
+                if (tokens[slot][player])
+                    RemoteProtocol.putPlayerSlot(buffer, RemoteProtocol.PLACE_TOKEN, player, slot);
+        }
+        for (int player = 0; player < scores.length; player++) {
+            RemoteProtocol.putScore(buffer, player, scores[player]);
+            RemoteProtocol.putFreeze(buffer, player, freezes[player]);
+        }
+        if (warnMillies >= 0)
+            RemoteProtocol.putCountdownDeadline(buffer, (deadlineNanos - System.nanoTime()) / 1000000L, warnMillies);
+        else
+            RemoteProtocol.putCountdown(buffer, countdown, warn);
+        return RemoteProtocol.flip(buffer).asReadOnlyBuffer();
+    }
+
+    /**
+     * Offers an encoded event to all the subscribers (the caller holds this).
+     */
+    private void publish(ByteBuffer buffer) {
+        if (subscriptions.isEmpty())
+            return;
+        ByteBuffer frame = RemoteProtocol.flip(buffer).asReadOnlyBuffer();
+        for (Subscription subscription : subscriptions)
+            if (!subscription.resync && !subscription.queue.offer(frame))
+                subscription.resync = true;
+        signal();
+    }
+
+    private void signal() {
+        if (pending.compareAndSet(false, true) && deliveryThread != null)
+            LockSupport.unpark(deliveryThread);
+    }
+
+    private static ByteBuffer allocate(int payloadSize) {
+        return ByteBuffer.allocate(RemoteProtocol.HEADER_SIZE + payloadSize);
+    }
+
+    @Override
+    public void placeCard(int card, int slot) {
+        if (ui != null) ui.placeCard(card, slot);
+        synchronized (this) {
+            slotToCard[slot] = card;
+            publish(RemoteProtocol.putPlaceCard(allocate(4), card, slot));
+        }
+    }
+
+    @Override
+    public void removeCard(int slot) {
+        if (ui != null) ui.removeCard(slot);
+        synchronized (this) {
+            slotToCard[slot] = -1;
+            publish(RemoteProtocol.putSlot(allocate(2), RemoteProtocol.REMOVE_CARD, slot));
+        }
+    }
+
+    @Override
+    public void placeToken(int player, int slot) {
+        if (ui != null) ui.placeToken(player, slot);
+        synchronized (this) {
+            tokens[slot][player] = true;
+            publish(RemoteProtocol.putPlayerSlot(allocate(4), RemoteProtocol.PLACE_TOKEN, player, slot));
+        }
+    }
+
+    @Override
+    public void removeTokens() {
+        if (ui != null) ui.removeTokens();
+        synchronized (this) {
+            for (boolean[] slotTokens : tokens)
+                Arrays.fill(slotTokens, false);
+            publish(RemoteProtocol.putEmpty(allocate(0), RemoteProtocol.REMOVE_ALL_TOKENS));
+        }
+    }
+
+    @Override
+    public void removeTokens(int slot) {
+        if (ui != null) ui.removeTokens(slot);
+        synchronized (this) {
+            Arrays.fill(tokens[slot], false);
+            publish(RemoteProtocol.putSlot(allocate(2), RemoteProtocol.REMOVE_TOKENS, slot));
+        }
+    }
+
+    @Override
+    public void removeToken(int player, int slot) {
+        if (ui != null) ui.removeToken(player, slot);
+        synchronized (this) {
+            tokens[slot][player] = false;
+            publish(RemoteProtocol.putPlayerSlot(allocate(4), RemoteProtocol.REMOVE_TOKEN, player, slot));
+        }
+    }
+
+    @Override
+    public void setCountdown(long millies, boolean warn) {
+        if (ui != null) ui.setCountdown(millies, warn);
+        synchronized (this) {
+            this.countdown = millies;
+            this.warn = warn;
+            this.warnMillies = -1;
+            publish(RemoteProtocol.putCountdown(allocate(9), millies, warn));
+        }
+    }
+
+    @Override
+    public void setCountdownDeadline(long deadlineNanos, long warnMillies) {
+        if (ui != null) ui.setCountdownDeadline(deadlineNanos, warnMillies);
+        synchronized (this) {
+            this.deadlineNanos = deadlineNanos;
+            this.warnMillies = warnMillies;
+            long remaining = (deadlineNanos - System.nanoTime()) / 1000000L;
+            publish(RemoteProtocol.putCountdownDeadline(allocate(16), remaining, warnMillies));
+        }
+    }
+
+    @Override
+    public void setElapsed(long millies) {
+        if (ui != null) ui.setElapsed(millies);
+        synchronized (this) {
+            publish(RemoteProtocol.putElapsed(allocate(8), millies));
+        }
+    }
+
+    @Override
+    public void setFreeze(int player, long millies) {
+        if (ui != null) ui.setFreeze(player, millies);
+        synchronized (this) {
+            freezes[player] = millies;
+            publish(RemoteProtocol.putFreeze(allocate(10), player, millies));
+        }
+    }
+
+    @Override
+    public void setScore(int player, int score) {
+        if (ui != null) ui.setScore(player, score);
+        synchronized (this) {
+            scores[player] = score;
+            publish(RemoteProtocol.putScore(allocate(6), player, score));
+        }
+    }
+
+    @Override
+    public void announceWinner(int[] players) {
+        if (ui != null) ui.announceWinner(players);
+        synchronized (this) {
+            publish(RemoteProtocol.putWinner(allocate(2 + 2 * players.length), players));
+        }
+    }
+
+    @Override
+    public void dispose() {
+        synchronized (this) {
+            publish(RemoteProtocol.putEmpty(allocate(0), RemoteProtocol.DISPOSE));
+        }
+        terminate();
+        if (ui != null) ui.dispose();
+    }
+}
@@ -0,0 +1,379 @@
+package bguspl.set;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * An embedded store of game results (see GameResult), kept in an append only log file.
+ * <p>
+ * A record is a 4 bytes payload length, the 4 bytes CRC32 of the payload and the payload (the game, the seed, the
+ * number of sets, the duration and then the name, score, claims and claim time of every player).
+ * <p>
+ * Appending only encodes the record and queues it. A single writer thread takes everything that was queued, writes
+ * it with one gathering write and forces it to the disk once for the whole batch (group commit), so the cost of the
+ * disk sync is shared by all the games that completed meanwhile. The future of an append completes only after its
+ * record is on the disk.
+ * <p>
+ * The index (the totals and the record offsets of every player) is kept in memory and rebuilt by scanning the log
+ * when the store is opened. A torn record at the end of the log (e.g. after a crash) is cut off.
+ */
+public class StatisticsStore implements Closeable {
+
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * The maximal number of records in a group commit.
+     */
+    private static final int MAX_BATCH = 1024;
+
+    /**
+     * The totals of a player over all the stored games.
+     */
+    public static final class PlayerStatistics {
+        public final String name;
+        private int games;
+        private double wins;
+        private long score;
+        private long claims;
+        private long claimNanos;
+        private long[] offsets = new long[4];
+
+        private PlayerStatistics(String name) {
+            this.name = name;
+        }
+
+        private PlayerStatistics(PlayerStatistics other) {
+            name = other.name;
+            games = other.games;
+            wins = other.wins;
+            score = other.score;
+            claims = other.claims;
+            claimNanos = other.claimNanos;
+            offsets = Arrays.copyOf(other.offsets, other.games);
+        }
+
+        public int games() {
+            return games;
+        }
+
+        /**
+         * @return - the number of games won (a draw of k players counts 1/k for each of them).
+         */
+        public double wins() {
+            return wins;
+        }
+
+        public long totalScore() {
+            return score;
+        }
+
+        public long claims() {
+            return claims;
+        }
+
+        public double meanClaimNanos() {
+            return claims == 0 ? 0 : (double) claimNanos / claims;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: games %d, wins %.2f, sets %d, claims %d, mean claim %.3fms", name, games, wins,
+                    score, claims, meanClaimNanos() / 1e6);
+        }
+    }
+
+    private static final class Pending {
+        private final GameResult result;
+        private final ByteBuffer record;
+        private final CompletableFuture<Long> future = new CompletableFuture<>();
+
+        private Pending(GameResult result, ByteBuffer record) {
+            this.result = result;
+            this.record = record;
+        }
+    }
+
+    /**
+     * Queued to stop the writer thread.
+     */
+    private static final Pending CLOSE = new Pending(null, null);
+
+    private final Logger logger;
+    private final FileChannel channel;
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final ThreadLogger writerThread;
+
+    /**
+     * The end of the log (only used by the writer thread after opening).
+     */
+    private long end;
+
+    /**
+     * The index (guarded by this).
+     */
+    private final Map<String, PlayerStatistics> index = new HashMap<>();
+    private long records;
+
+    /**
+     * Set by close (guarded by queue, so nothing is queued after CLOSE).
+     */
+    private boolean closed;
+
+    /**
+     * Opens (or creates) a store and rebuilds its index.
+     * @param file   - the log file.
+     * @param logger - the logger.
+     * @throws IOException - if the file cannot be opened or read.
+     */
+    public StatisticsStore(Path file, Logger logger) throws IOException {
+        this.logger = logger;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        end = recover();
+        writerThread = new ThreadLogger(this::write, "statistics", logger);
+        writerThread.startWithLog();
+    }
+
+    /**
+     * Scans the log, indexes every complete record and cuts off a torn tail.
+     * @return - the end of the last complete record.
+     */
+    private long recover() throws IOException {
+        long size = channel.size(), offset = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        while (offset + HEADER_SIZE <= size) {
+            ((Buffer) header).clear();
+            readFully(header, offset);
+            int length = header.getInt(0);
+            if (length <= 0 || offset + HEADER_SIZE + length > size)
+                break;
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, offset + HEADER_SIZE);
+            crc.reset();
+            crc.update(payload.array(), 0, length);
+            if ((int) crc.getValue() != header.getInt(4))
+                break;
+            index(decode(payload), offset);
+            offset += HEADER_SIZE + length;
+        }
+        if (offset < size) {
+            logger.severe("statistics log: dropping " + (size - offset) + " bytes of a torn record");
+            channel.truncate(offset);
+        }
+        return offset;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("unexpected end of the statistics log");
+    }
+
+    static ByteBuffer encode(GameResult result) {
+        byte[][] names = new byte[result.players.length][];
+        int length = 8 + 4 + 4 + 8 + 2;
+        for (int i = 0; i < names.length; i++) {
+            names[i] = result.players[i].getBytes(StandardCharsets.UTF_8);
+            length += 2 + names[i].length + 4 + 4 + 8;
+        }
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+        record.putInt(length).putInt(0);
+        record.putLong(result.seed).putInt(result.game).putInt(result.sets).putLong(result.durationNanos);
+        record.putShort((short) names.length);
+        for (int i = 0; i < names.length; i++) {
+            record.putShort((short) names[i].length).put(names[i]);
+            record.putInt(result.scores[i]).putInt(result.claims[i]).putLong(result.claimNanos[i]);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_SIZE, length);
+        record.putInt(4, (int) crc.getValue());
+        return RemoteProtocol.flip(record);
+    }
+
+    static GameResult decode(ByteBuffer payload) {
+        long seed = payload.getLong(0);
+        int game = payload.getInt(8);
+        int sets = payload.getInt(12);
+        long duration = payload.getLong(16);
+        int n = payload.getShort(24);
+        String[] players = new String[n];
+        int[] scores = new int[n], claims = new int[n];
+        long[] claimNanos = new long[n];
+        int position = 26;
+        for (int i = 0; i < n; i++) {
+            int length = payload.getShort(position);
+            players[i] = new String(payload.array(), payload.arrayOffset() + position + 2, length, StandardCharsets.UTF_8);
+            position += 2 + length;
+            scores[i] = payload.getInt(position);
+            claims[i] = payload.getInt(position + 4);
+            claimNanos[i] = payload.getLong(position + 8);
+            position += 16;
+        }
+        return new GameResult(game, seed, players, scores, claims, claimNanos, sets, duration);
+    }
+
+    private synchronized void index(GameResult result, long offset) {
+        for (int i = 0; i < result.players.length; i++) {
+            PlayerStatistics player = index.computeIfAbsent(result.players[i], PlayerStatistics::new);
+            if (player.games == player.offsets.length)
+                player.offsets = Arrays.copyOf(player.offsets, player.games * 2);
+            player.offsets[player.games++] = offset;
+            player.wins += result.winShare(i);
+            player.score += result.scores[i];
+            player.claims += result.claims[i];
+            player.claimNanos += result.claimNanos[i];
+        }
+        records++;
+    }
+
+    /**
+     * Queues a game result to the log.
+     * @param result - the result.
+     * @return - a future that completes with the offset of the record once it is on the disk.
+     */
+    public CompletableFuture<Long> append(GameResult result) {
+        Pending pending = new Pending(result, encode(result));
+        synchronized (queue) {
+            if (!closed) {
+                queue.add(pending);
+                return pending.future;
+            }
+        }
+        pending.future.completeExceptionally(new IOException("the statistics store is closed"));
+        return pending.future;
+    }
+
+    /**
+     * The writer thread starts here.
+     */
+    private void write() {
+        List<Pending> batch = new ArrayList<>();
+        boolean close = false;
+        while (!close) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException ignored) {
+                continue;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            if (batch.remove(CLOSE)) {
+                close = true;
+                // the records that were queued before closing are still written
+                queue.drainTo(batch);
+                batch.remove(CLOSE);
+            }
+            if (!batch.isEmpty())
+                commit(batch);
+            batch.clear();
+        }
+    }
+
+    private void commit(List<Pending> batch) {
+        ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+        long[] offsets = new long[batch.size()];
+        long offset = end;
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = batch.get(i).record;
+            offsets[i] = offset;
+            offset += buffers[i].remaining();
+        }
+        try {
+            channel.position(end);
+            while (buffers[buffers.length - 1].hasRemaining())
+                channel.write(buffers);
+            channel.force(false);
+            end = offset;
+        } catch (IOException e) {
+            logger.severe("cannot write to the statistics log: " + e.getMessage());
+            for (Pending pending : batch)
+                pending.future.completeExceptionally(e);
+            return;
+        }
+        for (int i = 0; i < buffers.length; i++) {
+            index(batch.get(i).result, offsets[i]);
+            batch.get(i).future.complete(offsets[i]);
+        }
+    }
+
+    /**
+     * @return - the number of games in the store.
+     */
+    public synchronized long games() {
+        return records;
+    }
+
+    /**
+     * @return - the names of all the players in the store.
+     */
+    public synchronized Set<String> players() {
+        return new TreeSet<>(index.keySet());
+    }
+
+    /**
+     * @return - a copy of the totals of a player, or null if the player has no games in the store.
+     */
+    public synchronized PlayerStatistics player(String name) {
+        PlayerStatistics player = index.get(name);
+        return player == null ? null : new PlayerStatistics(player);
+    }
+
+    /**
+     * Reads all the games of a player from the log.
+     * @param name - the name of the player.
+     * @return - the results, in the order they were stored.
+     * @throws IOException - if the log cannot be read.
+     */
+    public List<GameResult> games(String name) throws IOException {
+        PlayerStatistics player = player(name);
+        List<GameResult> results = new ArrayList<>();
+        if (player == null)
+            return results;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        for (long offset : player.offsets) {
+            ((Buffer) header).clear();
+            readFully(header, offset);
+            ByteBuffer payload = ByteBuffer.allocate(header.getInt(0));
+            readFully(payload, offset + HEADER_SIZE);
+            results.add(decode(payload));
+        }
+        return results;
+    }
+
+    /**
+     * Writes everything that was appended, stops the writer thread and closes the log.
+     */
+    @Override
+    public void close() {
+        synchronized (queue) {
+            if (closed)
+                return;
+            closed = true;
+            queue.add(CLOSE);
+        }
+        try {
+            writerThread.joinWithLog();
+        } catch (InterruptedException ignored) {}
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.severe("cannot close the statistics log: " + e.getMessage());
+        }
+    }
+}
@@ -1,14 +1,39 @@
 package bguspl.set;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
 
 public class ThreadLogger extends Thread {
 
     final Logger logger;
 
+    /**
+     * The target of the thread, and the accounting it is run under (null for none).
+     */
+    private final Runnable target;
+    private final Accounting accounting;
+
     public ThreadLogger(Runnable target, String name, Logger logger) {
+        this(target, name, logger, null);
+    }
+
+    public ThreadLogger(Runnable target, String name, Logger logger, Accounting accounting) {
         super(target, name);
         this.logger = logger;
+        this.target = target;
+        this.accounting = accounting;
+    }
+
+    @Override
+    public void run() {
+        if (accounting != null && target != null)
+            accounting.run(target);
+        else
+            super.run();
     }
 
     public void startWithLog() {
@@ -31,4 +56,211 @@ public class ThreadLogger extends Thread {
     public static void logStop(Logger logger, String name) {
         logger.info("thread " + name + " terminated.");
     }
+
+    /**
+     * The resources a thread used while it ran under an accounting: CPU time, allocated bytes, the number of times it
+     * waited (wait, sleep, park) and was blocked (on a monitor), and its lifetime. The values of a running thread are
+     * live, the values of a finished thread are final.
+     */
+    public static final class Usage {
+
+        private static final int CPU = 0, USER = 1, ALLOCATED = 2, WAITED = 3, BLOCKED = 4, LIFETIME = 5, ALIVE = 6;
+
+        private final String name;
+        private final long id;
+        private final long startNanos;
+        private final long[] baseline;
+
+        /**
+         * The values when the thread finished (null while it runs).
+         */
+        private volatile long[] last;
+        private volatile long lifetimeNanos;
+
+        private Usage(Thread thread) {
+            name = thread.getName();
+            id = thread.getId();
+            startNanos = System.nanoTime();
+            // a pooled thread (e.g. of a tournament) did other things before
+            baseline = sample(id);
+        }
+
+        /**
+         * @return - the current values of a thread (-1 for the values the JVM does not measure).
+         */
+        private static long[] sample(long id) {
+            long[] values = {-1, -1, -1, -1, -1};
+            if (Accounting.THREADS.isThreadCpuTimeSupported() && Accounting.THREADS.isThreadCpuTimeEnabled()) {
+                values[CPU] = Accounting.THREADS.getThreadCpuTime(id);
+                values[USER] = Accounting.THREADS.getThreadUserTime(id);
+            }
+            if (Accounting.THREADS instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) Accounting.THREADS;
+                if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled())
+                    values[ALLOCATED] = threads.getThreadAllocatedBytes(id);
+            }
+            ThreadInfo info = Accounting.THREADS.getThreadInfo(id);
+            if (info != null) {
+                values[WAITED] = info.getWaitedCount();
+                values[BLOCKED] = info.getBlockedCount();
+            }
+            return values;
+        }
+
+        /**
+         * Called by the thread itself when it finishes.
+         */
+        private void stop() {
+            lifetimeNanos = System.nanoTime() - startNanos;
+            last = sample(id);
+        }
+
+        /**
+         * @return - all the values of the thread from a single sample (the lifetime, and 1 at ALIVE while it runs), so
+         * they are consistent with each other.
+         */
+        private long[] measure() {
+            long[] values = last;
+            boolean alive = values == null;
+            long lifetime = alive ? System.nanoTime() - startNanos : lifetimeNanos;
+            if (alive)
+                values = sample(id);
+            long[] measured = new long[ALIVE + 1];
+            for (int i = CPU; i <= BLOCKED; i++)
+                measured[i] = values[i] < 0 || baseline[i] < 0 ? -1 : values[i] - baseline[i];
+            measured[LIFETIME] = lifetime;
+            measured[ALIVE] = alive ? 1 : 0;
+            return measured;
+        }
+
+        private long value(int index) {
+            return measure()[index];
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public boolean isAlive() {
+            return last == null;
+        }
+
+        public long cpuNanos() {
+            return value(CPU);
+        }
+
+        public long userNanos() {
+            return value(USER);
+        }
+
+        public long allocatedBytes() {
+            return value(ALLOCATED);
+        }
+
+        public long waitedCount() {
+            return value(WAITED);
+        }
+
+        public long blockedCount() {
+            return value(BLOCKED);
+        }
+
+        public long lifetimeNanos() {
+            return last != null ? lifetimeNanos : System.nanoTime() - startNanos;
+        }
+
+        @Override
+        public String toString() {
+            return format(measure());
+        }
+
+        private String format(long[] measured) {
+            long cpu = measured[CPU], lifetime = measured[LIFETIME];
+            return String.format("%s: cpu %.1f ms (user %.1f ms, %.1f%% of its lifetime), allocated %.1f MB, "
+                            + "waited %d, blocked %d, lifetime %.1f s%s", name, cpu / 1e6, measured[USER] / 1e6,
+                    lifetime > 0 ? cpu * 100.0 / lifetime : 0.0, measured[ALLOCATED] / 1048576.0, measured[WAITED],
+                    measured[BLOCKED], lifetime / 1e9, measured[ALIVE] != 0 ? " (running)" : "");
+        }
+    }
+
+    /**
+     * Accounts for the resources of the threads of a game (see Usage). A thread is accounted for while it runs a
+     * target through run, e.g. a ThreadLogger that was created with the accounting.
+     */
+    public static final class Accounting {
+
+        private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+        private final boolean enabled;
+
+        /**
+         * The usage of every thread that was accounted for (guarded by itself).
+         */
+        private final List<Usage> threads = new ArrayList<>();
+
+        /**
+         * @param enabled - false to run the threads without accounting for them.
+         */
+        public Accounting(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * Runs a target on the calling thread and accounts for it.
+         */
+        public void run(Runnable target) {
+            if (!enabled) {
+                target.run();
+                return;
+            }
+            Usage usage = new Usage(Thread.currentThread());
+            synchronized (threads) {
+                threads.add(usage);
+            }
+            try {
+                target.run();
+            } finally {
+                usage.stop();
+            }
+        }
+
+        /**
+         * @return - the usage of every thread that was accounted for, in the order they started.
+         */
+        public List<Usage> usage() {
+            synchronized (threads) {
+                return new ArrayList<>(threads);
+            }
+        }
+
+        /**
+         * @return - the usage of the threads, the busiest first, and the total.
+         */
+        public String summary() {
+            List<Usage> usage = usage();
+            // the values of the running threads change, so every thread is measured once for its row and the total
+            List<long[]> measured = new ArrayList<>();
+            List<Integer> byCpu = new ArrayList<>();
+            for (int i = 0; i < usage.size(); i++) {
+                measured.add(usage.get(i).measure());
+                byCpu.add(i);
+            }
+            byCpu.sort((a, b) -> Long.compare(measured.get(b)[Usage.CPU], measured.get(a)[Usage.CPU]));
+            StringBuilder sb = new StringBuilder("threads of the game:");
+            long cpu = 0, allocated = 0;
+            for (int i : byCpu) {
+                long[] thread = measured.get(i);
+                sb.append("\n  ").append(usage.get(i).format(thread));
+                cpu += Math.max(0, thread[Usage.CPU]);
+                allocated += Math.max(0, thread[Usage.ALLOCATED]);
+            }
+            sb.append(String.format("\n  total: %d threads, cpu %.1f ms, allocated %.1f MB", usage.size(), cpu / 1e6,
+                    allocated / 1048576.0));
+            return sb.toString();
+        }
+    }
 }
@@ -0,0 +1,319 @@
+package bguspl.set;
+
+import bguspl.set.ex.Dealer;
+import bguspl.set.ex.Player;
+import bguspl.set.ex.Table;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+
+/**
+ * Plays many headless games of computer players in parallel and reports aggregated statistics.
+ * <p>
+ * The tournament properties are the game configuration (see config.properties) plus:
+ * <ul>
+ * <li>Games - the number of games to play.</li>
+ * <li>Threads - the number of games played at the same time (defaults to the number of cores).</li>
+ * <li>Seed - the seed of the first game (game i is played with Seed + i).</li>
+ * <li>RatingPeriodGames - the number of games in a rating period of the leaderboard (see RatingEngine).</li>
+ * <li>StatisticsFile - the statistics store the results are appended to (see StatisticsStore), empty for none.</li>
+ * <li>Rounds - the number of games played back to back by the same threads and tables (game i is then played with
+ * the seed and the lineup of the first game of its match).</li>
+ * <li>WatchdogSeconds, WatchdogRecovery - the watchdog of all the games (see Watchdog), recovering by default.</li>
+ * <li>LineupN - the players of a game, comma separated: "random" for the random presser or "bot:command" for an
+ * external engine (see BotEngine). Game i is played by lineup i modulo the number of lineups. The players are
+ * named by their strategy, so the seats of a lineup that repeats a strategy are rated and reported as one player.</li>
+ * </ul>
+ * Usage: Tournament [tournament properties file]
+ */
+public class Tournament {
+
+    /**
+     * The z value of a 95% confidence interval.
+     */
+    private static final double Z95 = 1.96;
+
+    private static final String RANDOM = "random";
+    private static final String BOT = "bot:";
+
+    private final Logger logger;
+    private final Properties properties;
+    private final List<String[]> lineups = new ArrayList<>();
+    private final int games;
+    private final int rounds;
+    private final int threads;
+    private final long seed;
+    private final int ratingPeriodGames;
+    private final String statisticsFile;
+
+    /**
+     * The latency tracer that is shared by all the games.
+     */
+    private final LatencyTracer tracer = new LatencyTracer(true);
+
+    /**
+     * The watchdog that is shared by all the games (a wedged game would hold its threads until the end).
+     */
+    private final Watchdog watchdog;
+
+    /**
+     * A user interface that shows nothing.
+     */
+    private static final UserInterface HEADLESS = new UserInterface() {
+        public void placeCard(int card, int slot) {}
+        public void removeCard(int slot) {}
+        public void placeToken(int player, int slot) {}
+        public void removeTokens() {}
+        public void removeTokens(int slot) {}
+        public void removeToken(int player, int slot) {}
+        public void setCountdown(long millies, boolean warn) {}
+        public void setCountdownDeadline(long deadlineNanos, long warnMillies) {}
+        public void setElapsed(long millies) {}
+        public void setFreeze(int player, long millies) {}
+        public void setScore(int player, int score) {}
+        public void announceWinner(int[] players) {}
+        public void dispose() {}
+    };
+
+    /**
+     * @param logger     - the logger of the games.
+     * @param properties - the tournament properties.
+     */
+    public Tournament(Logger logger, Properties properties) {
+        this.logger = logger;
+        this.properties = properties;
+        games = Integer.parseInt(properties.getProperty("Games", "100"));
+        rounds = Math.max(1, Integer.parseInt(properties.getProperty("Rounds", "1")));
+        threads = Integer.parseInt(properties.getProperty("Threads",
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+        seed = Long.parseLong(properties.getProperty("Seed", "1"));
+        ratingPeriodGames = Integer.parseInt(properties.getProperty("RatingPeriodGames", "10"));
+        statisticsFile = properties.getProperty("StatisticsFile", "").trim();
+        watchdog = new Watchdog(logger,
+                (long) (Double.parseDouble(properties.getProperty("WatchdogSeconds", "10")) * 1000.0),
+                Boolean.parseBoolean(properties.getProperty("WatchdogRecovery", "True")));
+        for (int i = 1; properties.getProperty("Lineup" + i) != null; i++) {
+            String[] lineup = properties.getProperty("Lineup" + i).split(",");
+            for (int j = 0; j < lineup.length; j++) {
+                lineup[j] = lineup[j].trim();
+                if (!lineup[j].equals(RANDOM) && !lineup[j].startsWith(BOT))
+                    throw new IllegalArgumentException("unknown player in lineup " + i + ": " + lineup[j]);
+            }
+            lineups.add(lineup);
+        }
+        if (lineups.isEmpty())
+            lineups.add(new String[]{RANDOM, RANDOM});
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        Properties properties = new Properties();
+        String filename = args.length > 0 ? args[0] : "tournament.properties";
+        try (InputStream is = Files.exists(Paths.get(filename)) ? Files.newInputStream(Paths.get(filename))
+                : Tournament.class.getClassLoader().getResourceAsStream(filename)) {
+            if (is == null)
+                throw new IOException("cannot read " + filename);
+            properties.load(is);
+        }
+        Logger logger = Logger.getLogger("SetTournamentLogger");
+        logger.setUseParentHandlers(false);
+        logger.addHandler(new ConsoleHandler());
+
+        Tournament tournament = new Tournament(logger, properties);
+        long start = System.nanoTime();
+        List<GameResult> results = tournament.run();
+        System.out.println(tournament.report(results, System.nanoTime() - start));
+    }
+
+    /**
+     * Plays all the games.
+     * @return - the results, by game number.
+     */
+    public List<GameResult> run() throws InterruptedException, ExecutionException, IOException {
+        StatisticsStore store = statisticsFile.isEmpty() ? null : new StatisticsStore(Paths.get(statisticsFile), logger);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "tournament-" + count.incrementAndGet());
+            }
+        });
+        watchdog.start();
+        try {
+            List<Future<List<GameResult>>> futures = new ArrayList<>();
+            for (int game = 0; game < games; game += rounds) {
+                int first = game, count = Math.min(rounds, games - game);
+                futures.add(executor.submit(() -> {
+                    List<GameResult> results = play(first, count);
+                    // games that finish together share a single disk sync
+                    if (store != null) {
+                        CompletableFuture<Long> saved = null;
+                        for (GameResult result : results)
+                            saved = store.append(result);
+                        saved.get();
+                    }
+                    return results;
+                }));
+            }
+            List<GameResult> results = new ArrayList<>();
+            for (Future<List<GameResult>> future : futures)
+                results.addAll(future.get());
+            return results;
+        } finally {
+            executor.shutdownNow();
+            watchdog.close();
+            if (store != null)
+                store.close();
+        }
+    }
+
+    /**
+     * Plays a match of games back to back on the calling thread (which runs the dealer).
+     * @param game  - the number of the first game.
+     * @param count - the number of games (rounds) in the match.
+     * @return - the results, by game number.
+     */
+    List<GameResult> play(int game, int count) {
+        String[] lineup = lineups.get(game % lineups.size());
+        Properties gameProperties = new Properties();
+        gameProperties.putAll(properties);
+        gameProperties.setProperty("Seed", Long.toString(seed + game));
+        gameProperties.setProperty("HumanPlayers", "0");
+        gameProperties.setProperty("Rounds", Integer.toString(count));
+        gameProperties.setProperty("ComputerPlayers", Integer.toString(lineup.length));
+        gameProperties.setProperty("PlayerNames", String.join(",", lineup));
+        if (gameProperties.getProperty("LogLevel") == null)
+            gameProperties.setProperty("LogLevel", "WARNING");
+        for (int i = 0; i < lineup.length; i++)
+            if (lineup[i].startsWith(BOT))
+                gameProperties.setProperty("BotCommand" + (i + 1), lineup[i].substring(BOT.length()));
+            else
+                gameProperties.remove("BotCommand" + (i + 1));
+
+        Config config = new Config(logger, gameProperties);
+        Env env = new Env(logger, config, HEADLESS, new UtilImpl(config), tracer, new TraceFile(null), watchdog);
+        Table table = new Table(env);
+        Player[] players = new Player[config.players];
+        Dealer dealer = new Dealer(env, table, players);
+        for (int i = 0; i < players.length; i++)
+            players[i] = new Player(env, dealer, table, i, false);
+
+        env.accounting.run(dealer);
+        // the dealer interrupts its own thread when it terminates
+        Thread.interrupted();
+
+        List<GameResult> results = new ArrayList<>();
+        for (GameResult round : dealer.results()) {
+            GameResult result = new GameResult(game + round.game, round.seed, round.players, round.scores,
+                    round.claims, round.claimNanos, round.sets, round.durationNanos);
+            logger.info(result.toString());
+            results.add(result);
+        }
+        if (env.accounting.isEnabled())
+            logger.fine(env.accounting.summary());
+        return results;
+    }
+
+    /**
+     * Streaming mean and variance (Welford).
+     */
+    private static final class Summary {
+        private long n;
+        private double mean;
+        private double m2;
+
+        private void add(double x) {
+            n++;
+            double delta = x - mean;
+            mean += delta / n;
+            m2 += delta * (x - mean);
+        }
+
+        private double halfWidth() {
+            return n < 2 ? 0 : Z95 * Math.sqrt(m2 / (n - 1) / n);
+        }
+
+        private String format(String unit) {
+            return String.format("%.3f%s +/- %.3f", mean, unit, halfWidth());
+        }
+    }
+
+    /**
+     * @return - the Wilson score 95% confidence interval of a proportion.
+     */
+    static double[] wilson(double successes, long n) {
+        if (n == 0)
+            return new double[]{0, 1};
+        double p = successes / n, z2 = Z95 * Z95;
+        double center = (p + z2 / (2 * n)) / (1 + z2 / n);
+        double half = Z95 * Math.sqrt(p * (1 - p) / n + z2 / (4.0 * n * n)) / (1 + z2 / n);
+        return new double[]{Math.max(0, center - half), Math.min(1, center + half)};
+    }
+
+    /**
+     * @param results      - the results of the games.
+     * @param elapsedNanos - the wall clock time of the whole tournament.
+     * @return - the summary report.
+     */
+    public String report(List<GameResult> results, long elapsedNanos) {
+        Map<String, double[]> wins = new LinkedHashMap<>(); // wins, seats
+        Map<String, Summary> scores = new LinkedHashMap<>();
+        Summary sets = new Summary(), duration = new Summary();
+        for (GameResult result : results) {
+            sets.add(result.sets);
+            duration.add(result.durationNanos / 1e6);
+            for (int i = 0; i < result.players.length; i++) {
+                double[] w = wins.computeIfAbsent(result.players[i], k -> new double[2]);
+                w[0] += result.winShare(i);
+                w[1]++;
+                scores.computeIfAbsent(result.players[i], k -> new Summary()).add(result.scores[i]);
+            }
+        }
+
+        double seconds = elapsedNanos / 1e9;
+        int cores = Runtime.getRuntime().availableProcessors();
+        LatencyHistogram claims = tracer.histogram(LatencyTracer.Stage.PRESS_TO_VERDICT);
+        StringBuilder sb = new StringBuilder("tournament report (95% confidence intervals):");
+        sb.append(format("%ngames: %d in %.2fs with %d threads on %d cores", results.size(), seconds, threads, cores));
+        sb.append(format("%nthroughput: %.3f games/s, %.3f games/s/core", results.size() / seconds,
+                results.size() / seconds / cores));
+        sb.append(format("%nsets per game: %s", sets.format("")));
+        sb.append(format("%ngame duration: %s", duration.format("ms")));
+        sb.append(format("%nclaim latency (press to verdict): mean %.3fms, p50 %.3fms, p99 %.3fms over %d claims",
+                claims.mean() / 1e6, claims.percentile(50) / 1e6, claims.percentile(99) / 1e6, claims.count()));
+        sb.append(format("%n%-40s %8s %24s %24s", "player", "seats", "win rate", "score"));
+        for (Map.Entry<String, double[]> entry : wins.entrySet()) {
+            double[] w = entry.getValue();
+            double[] interval = wilson(w[0], (long) w[1]);
+            String name = entry.getKey().length() > 40 ? entry.getKey().substring(0, 37) + "..." : entry.getKey();
+            sb.append(format("%n%-40s %8d %24s %24s", name, (long) w[1],
+                    format("%.3f [%.3f, %.3f]", w[0] / w[1], interval[0], interval[1]),
+                    scores.get(entry.getKey()).format("")));
+        }
+
+        RatingEngine ratings = new RatingEngine();
+        for (GameResult result : results)
+            ratings.update(result);
+        ratings.recompute(results, ratingPeriodGames);
+        sb.append(format("%n%nleaderboard:%n")).append(ratings.leaderboard());
+        return sb.toString();
+    }
+}
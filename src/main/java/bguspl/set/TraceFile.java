@@ -0,0 +1,207 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Records a timeline of the threads of a game (the waits, claims, table delays, freezes and user interface calls) and
+ * writes it as a Chrome trace event file, to be opened in chrome://tracing or https://ui.perfetto.dev.
+ * <p>
+ * Every thread records its spans into a buffer of its own, so recording takes no lock. The buffers are written to the
+ * file when the game ends. When tracing is disabled begin returns 0 and nothing is recorded.
+ */
+public class TraceFile {
+
+    /**
+     * The most spans a thread records (the rest are dropped and counted).
+     */
+    private static final int MAX_SPANS = 1 << 20;
+
+    /**
+     * Shorter spans are not recorded (they would not show in the timeline anyway, e.g. a wait that did not wait).
+     */
+    private static final long MIN_SPAN_NANOS = 1000;
+
+    /**
+     * The spans of a single thread (written only by the thread).
+     */
+    private static final class Spans {
+        private final long tid;
+        private final String thread;
+        private String[] names = new String[256];
+        private String[] categories = new String[256];
+        private long[] starts = new long[256];
+        private long[] durations = new long[256];
+
+        /**
+         * The number of spans, published after the span itself was written.
+         */
+        private volatile int size;
+        private long dropped;
+
+        private Spans(Thread thread) {
+            tid = thread.getId();
+            this.thread = thread.getName();
+        }
+
+        private void add(String category, String name, long start, long duration) {
+            int i = size;
+            if (i == MAX_SPANS) {
+                dropped++;
+                return;
+            }
+            if (i == starts.length) {
+                names = Arrays.copyOf(names, i * 2);
+                categories = Arrays.copyOf(categories, i * 2);
+                starts = Arrays.copyOf(starts, i * 2);
+                durations = Arrays.copyOf(durations, i * 2);
+            }
+            names[i] = name;
+            categories[i] = category;
+            starts[i] = start;
+            durations[i] = duration;
+            size = i + 1;
+        }
+    }
+
+    /**
+     * The file to write to (null iff tracing is disabled).
+     */
+    private final Path file;
+
+    /**
+     * The buffer of every thread that recorded a span (guarded by itself).
+     */
+    private final List<Spans> buffers = new ArrayList<>();
+    private final ThreadLocal<Spans> spans = ThreadLocal.withInitial(() -> {
+        Spans threadSpans = new Spans(Thread.currentThread());
+        synchronized (buffers) {
+            buffers.add(threadSpans);
+        }
+        return threadSpans;
+    });
+
+    /**
+     * The time all the spans are relative to.
+     */
+    private final long originNanos = System.nanoTime();
+
+    /**
+     * @param file - the file to write the trace to, or null to disable tracing.
+     */
+    public TraceFile(Path file) {
+        this.file = file;
+    }
+
+    public boolean isEnabled() {
+        return file != null;
+    }
+
+    /**
+     * @return - the current time in nanoseconds, or 0 if tracing is disabled.
+     */
+    public long begin() {
+        return file != null ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Records a span of the calling thread that started at begin and ends now.
+     * @param category - the category of the span (e.g. "dealer", "player", "ui").
+     * @param name     - the name of the span.
+     * @param begin    - the time returned by begin when the span started (ignored if 0).
+     */
+    public void end(String category, String name, long begin) {
+        if (file == null || begin == 0L)
+            return;
+        long duration = System.nanoTime() - begin;
+        if (duration >= MIN_SPAN_NANOS)
+            spans.get().add(category, name, begin, duration);
+    }
+
+    /**
+     * Records an instant of the calling thread.
+     */
+    public void instant(String category, String name) {
+        if (file != null)
+            spans.get().add(category, name, System.nanoTime(), -1);
+    }
+
+    private static void appendString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < 0x20)
+                sb.append(String.format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        sb.append('"');
+    }
+
+    private static void appendMicros(StringBuilder sb, long nanos) {
+        sb.append(nanos / 1000).append('.');
+        String fraction = Long.toString(nanos % 1000 + 1000);
+        sb.append(fraction, 1, 4);
+    }
+
+    /**
+     * Writes the spans of all the threads to the file (if tracing is enabled).
+     * @param logger - the logger.
+     */
+    public void write(Logger logger) {
+        if (file == null)
+            return;
+        Spans[] threads;
+        synchronized (buffers) {
+            threads = buffers.toArray(new Spans[0]);
+        }
+        long spanCount = 0, dropped = 0;
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            StringBuilder sb = new StringBuilder("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+            boolean first = true;
+            for (Spans thread : threads) {
+                sb.append(first ? "\n" : ",\n").append("{\"ph\":\"M\",\"pid\":1,\"tid\":").append(thread.tid)
+                        .append(",\"name\":\"thread_name\",\"args\":{\"name\":");
+                appendString(sb, thread.thread);
+                sb.append("}}");
+                first = false;
+                int size = thread.size;
+                for (int i = 0; i < size; i++) {
+                    sb.append(",\n{\"ph\":\"").append(thread.durations[i] < 0 ? "i\",\"s\":\"t" : "X")
+                            .append("\",\"pid\":1,\"tid\":").append(thread.tid).append(",\"cat\":");
+                    appendString(sb, thread.categories[i]);
+                    sb.append(",\"name\":");
+                    appendString(sb, thread.names[i]);
+                    sb.append(",\"ts\":");
+                    appendMicros(sb, thread.starts[i] - originNanos);
+                    if (thread.durations[i] >= 0) {
+                        sb.append(",\"dur\":");
+                        appendMicros(sb, thread.durations[i]);
+                    }
+                    sb.append('}');
+                    if (sb.length() > 1 << 16) {
+                        out.append(sb);
+                        sb.setLength(0);
+                    }
+                }
+                spanCount += size;
+                dropped += thread.dropped;
+            }
+            out.append(sb).append("\n]}\n");
+        } catch (IOException e) {
+            logger.severe("cannot write the trace file: " + e.getMessage());
+            return;
+        }
+        logger.info("trace of " + threads.length + " threads and " + spanCount + " spans written to " + file
+                + (dropped > 0 ? " (" + dropped + " spans dropped)" : ""));
+    }
+}
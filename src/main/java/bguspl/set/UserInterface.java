@@ -50,6 +50,13 @@ public interface UserInterface {
      */
     void setCountdown(long millies, boolean warn);
 
+    /**
+     * Start a countdown that the user interface keeps rendering by itself until the deadline.
+     * @param deadlineNanos - the time the countdown ends, in System.nanoTime() terms.
+     * @param warnMillies   - the remaining time from which the timer will be painted in red and will display milliseconds.
+     */
+    void setCountdownDeadline(long deadlineNanos, long warnMillies);
+
     /**
      * Set the elapsed time to the specified number of milliseconds.
      * @param millies - the milliseconds to be shown.
@@ -10,95 +10,133 @@ public class UserInterfaceDecorator implements UserInterface {
     private final Logger logger;
     private final Util util;
     private final UserInterface ui;
+    private final TraceFile trace;
 
     public UserInterfaceDecorator(Logger logger, Util util, UserInterface ui) {
+        this(logger, util, ui, new TraceFile(null));
+    }
+
+    public UserInterfaceDecorator(Logger logger, Util util, UserInterface ui, TraceFile trace) {
         this.ui = ui;
         this.logger = logger;
         this.util = util;
+        this.trace = trace;
 
         if (ui == null) System.out.println("running without a user interface. Check logs.");
     }
 
     @Override
     public void placeCard(int card, int slot) {
+        long begin = trace.begin();
         logger.severe("placing card " + card + " in slot " + slot);
         util.spin();
         if (ui != null) ui.placeCard(card, slot);
+        trace.end("ui", "placeCard", begin);
     }
 
     @Override
     public void removeCard(int slot) {
+        long begin = trace.begin();
         logger.severe("removing card from slot " + slot);
         util.spin();
         if (ui != null) ui.removeCard(slot);
+        trace.end("ui", "removeCard", begin);
     }
 
     @Override
     public void placeToken(int player, int slot) {
+        long begin = trace.begin();
         logger.severe("player " + (player + 1) + " placing token on slot " + slot);
         util.spin();
         if (ui != null) ui.placeToken(player, slot);
+        trace.end("ui", "placeToken", begin);
     }
 
     @Override
     public void removeTokens() {
+        long begin = trace.begin();
         logger.severe("removing all tokens");
         util.spin();
         if (ui != null) ui.removeTokens();
+        trace.end("ui", "removeTokens", begin);
     }
 
     @Override
     public void removeTokens(int slot) {
+        long begin = trace.begin();
         logger.severe("removing tokens from slot " + slot);
         util.spin();
         if (ui != null) ui.removeTokens(slot);
+        trace.end("ui", "removeTokens", begin);
     }
 
     @Override
     public void removeToken(int player, int slot) {
+        long begin = trace.begin();
         logger.severe("removing player " + (player + 1) + " token from slot " + slot);
         util.spin();
         if (ui != null) ui.removeToken(player, slot);
+        trace.end("ui", "removeToken", begin);
     }
 
     @Override
     public void setCountdown(long millies, boolean warn) {
+        long begin = trace.begin();
         if (!warn || millies % 1000L == 0L)
             logger.severe("updating countdown to " + millies);
         if (ui != null) ui.setCountdown(millies, warn);
+        trace.end("ui", "setCountdown", begin);
+    }
+
+    @Override
+    public void setCountdownDeadline(long deadlineNanos, long warnMillies) {
+        long begin = trace.begin();
+        logger.severe("starting countdown of " + (deadlineNanos - System.nanoTime()) / 1000000L + " (warning at " + warnMillies + ")");
+        if (ui != null) ui.setCountdownDeadline(deadlineNanos, warnMillies);
+        trace.end("ui", "setCountdownDeadline", begin);
     }
 
     @Override
     public void setElapsed(long millies) {
+        long begin = trace.begin();
         logger.severe("updating elapsed time to " + millies);
         util.spin();
         if (ui != null) ui.setElapsed(millies);
+        trace.end("ui", "setElapsed", begin);
     }
 
     @Override
     public void setFreeze(int player, long millies) {
+        long begin = trace.begin();
         logger.severe("setting player " + (player + 1) + " freeze to " + millies);
         util.spin();
         if (ui != null) ui.setFreeze(player, millies);
+        trace.end("ui", "setFreeze", begin);
     }
 
     @Override
     public void setScore(int player, int score) {
+        long begin = trace.begin();
         logger.severe("setting player " + (player + 1) + " score to " + score);
         util.spin();
         if (ui != null) ui.setScore(player, score);
+        trace.end("ui", "setScore", begin);
     }
 
     @Override
     public void announceWinner(int[] players) {
+        long begin = trace.begin();
         List<String> winners = Arrays.stream(players).mapToObj(id -> "player " + (id + 1)).collect(Collectors.toList());
         logger.severe("announcing winner(s): " + String.join(", ", winners));
         if (ui != null) ui.announceWinner(players);
+        trace.end("ui", "announceWinner", begin);
     }
 
     @Override
     public void dispose() {
+        long begin = trace.begin();
         logger.severe("disposing of user interface elements");
         if (ui != null) ui.dispose();
+        trace.end("ui", "dispose", begin);
     }
 }
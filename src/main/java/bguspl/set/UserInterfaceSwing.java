@@ -4,10 +4,11 @@ import bguspl.set.ex.Player;
 
 import javax.swing.*;
 import java.awt.*;
-import java.io.FileNotFoundException;
-import java.net.URL;
+import java.awt.image.BufferedImage;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -23,16 +24,21 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
     private final PlayersPanel playersPanel;
     private final WinnerPanel winnerPanel;
     private final Config config;
+    private final TraceFile trace;
 
     static String intInBaseToPaddedString(int n, int padding, int base) {
         return format("%" + padding + "s", Integer.toString(n, base)).replace(' ', '0');
     }
 
-    public UserInterfaceSwing(Logger logger, Config config, Player[] players) {
+    public UserInterfaceSwing(Logger logger, Config config, Player[] players, LatencyTracer tracer, TraceFile trace) {
+
+        if (config.players > Long.SIZE)
+            throw new IllegalArgumentException("the table can show the tokens of up to " + Long.SIZE + " players");
 
         this.config = config;
+        this.trace = trace;
         timerPanel = new TimerPanel();
-        gamePanel = new GamePanel();
+        gamePanel = new GamePanel(logger);
         playersPanel = new PlayersPanel();
         winnerPanel = new WinnerPanel();
 
@@ -63,7 +69,7 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         setLocationRelativeTo(null);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
-        addKeyListener(new InputManager(logger, config, players));
+        addKeyListener(new InputManager(logger, config, players, tracer));
         addWindowListener(new WindowManager());
 
         EventQueue.invokeLater(() -> setVisible(true));
@@ -71,8 +77,20 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
     private class TimerPanel extends JPanel {
 
+        /**
+         * The time between two renderings of a running countdown (about 60 frames per second).
+         */
+        private static final int FRAME_MILLIS = 16;
+
         private final JLabel timerField;
 
+        /**
+         * Renders a running countdown from its deadline on the event dispatch thread.
+         */
+        private final Timer frameTimer;
+        private volatile long deadlineNanos;
+        private volatile long warnMillies;
+
         private String generateTime(long millies, boolean warn) {
             if (warn)
                 return format("Remaining Time: %.2f", (double) millies / 1000.0f);
@@ -88,14 +106,42 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
             timerField.setForeground(Color.BLACK);
 
             add(timerField);
+
+            frameTimer = new Timer(FRAME_MILLIS, e -> {
+                long begin = trace.begin();
+                renderCountdown();
+                trace.end("edt", "render countdown", begin);
+            });
+            frameTimer.setCoalesce(true);
         }
 
         private void setCountdown(long millies, boolean warn) {
+            frameTimer.stop();
             timerField.setText(generateTime(millies, warn));
             timerField.setForeground(warn ? Color.RED : Color.BLACK);
         }
 
+        private void setCountdownDeadline(long deadlineNanos, long warnMillies) {
+            this.deadlineNanos = deadlineNanos;
+            this.warnMillies = warnMillies;
+            frameTimer.start();
+        }
+
+        private void renderCountdown() {
+            long millies = Math.max(0, (deadlineNanos - System.nanoTime()) / 1000000L);
+            boolean warn = millies > 0 && millies < warnMillies;
+            timerField.setText(generateTime(millies, warn));
+            timerField.setForeground(warn ? Color.RED : Color.BLACK);
+            if (millies == 0)
+                frameTimer.stop();
+        }
+
+        private void stop() {
+            frameTimer.stop();
+        }
+
         private void setElapsed(long millies) {
+            frameTimer.stop();
             timerField.setText("Elapsed time: " + millies / 1000);
         }
     }
@@ -105,70 +151,109 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         private final Image emptyCard;
         private final Image[] deck;
         private final Image[][] grid;
-        private final boolean[][][] playerTokens;
-        private final JLabel[][] tokenText;
-
-        private Image loadImageResource(String filename) {
-            URL imageResource = getClass().getClassLoader().getResource(filename);
-            if (imageResource == null)
-                throw new RuntimeException(new FileNotFoundException(filename));
-            return new ImageIcon(imageResource).getImage();
-        }
 
-        private GamePanel() {
+        /**
+         * The players that have a token on each cell (bit i is set iff player i has a token on the cell).
+         */
+        private final long[][] tokenMask;
+
+        /**
+         * The rendered token names by token mask, so a token change is a lookup (masks that actually occur only).
+         */
+        private final Map<Long, BufferedImage> tokenOverlays = new ConcurrentHashMap<>();
+
+        /**
+         * The composited table (cards, token names and borders). A change redraws only its own cell in the buffer and
+         * repaints only the cell's rectangle, and painting copies the dirty region from the buffer.
+         */
+        private final BufferedImage backBuffer;
+        private final Font tokenFont;
+        private final Color background;
+
+        private GamePanel(Logger logger) {
 
             setPreferredSize(new Dimension(config.columns * config.cellWidth, config.rows * config.cellHeight));
+            setOpaque(true);
 
             // init deck and load all pictures from png files
             assert config.featureSize < 10; // otherwise there will be naming conflicts
 
-            // load the image resources
-            deck = new Image[config.deckSize];
-            for (int i = 0; i < config.deckSize; ++i)
-                deck[i] = loadImageResource("cards/" + intInBaseToPaddedString(i, config.featureCount, config.featureSize) + ".png");
-            emptyCard = loadImageResource("cards/empty_card.png");
+            // load the image resources (pre-scaled to the cell size)
+            Image[] images = CardAtlas.load(config, logger);
+            deck = Arrays.copyOf(images, config.deckSize);
+            emptyCard = images[config.deckSize];
+
+            tokenFont = UIManager.getFont("Label.font");
+            background = UIManager.getColor("Panel.background");
+            backBuffer = CardAtlas.createCompatibleImage(config.columns * config.cellWidth,
+                    config.rows * config.cellHeight, Transparency.OPAQUE);
 
             grid = new Image[config.rows][config.columns];
-            tokenText = new JLabel[config.rows][config.columns];
-            playerTokens = new boolean[config.players][config.rows][config.columns];
+            tokenMask = new long[config.rows][config.columns];
             for (int row = 0; row < config.rows; row++) {
                 for (int column = 0; column < config.columns; column++) {
                     // init the cards on the table grid as empty cards
                     grid[row][column] = emptyCard;
-
-                    // init the JLabel selection overlay
-                    tokenText[row][column] = new JLabel("");
-                    tokenText[row][column].setVerticalAlignment(JLabel.TOP);
-                    tokenText[row][column].setHorizontalAlignment(JLabel.CENTER);
-                    tokenText[row][column].setOpaque(false);
-                    tokenText[row][column].setBorder(BorderFactory.createLineBorder(Color.black));
-                    tokenText[row][column].setBounds((column * config.cellWidth), (row * config.cellHeight), config.cellWidth, config.cellHeight);
-                    add(tokenText[row][column]);
+                    drawCell(row, column);
                 }
             }
         }
 
+        /**
+         * Redraws a cell in the back buffer and schedules the repaint of its rectangle.
+         */
+        private void drawCell(int row, int column) {
+            int x = column * config.cellWidth;
+            int y = row * config.cellHeight;
+            synchronized (backBuffer) {
+                Graphics2D g = backBuffer.createGraphics();
+                g.setColor(background);
+                g.fillRect(x, y, config.cellWidth, config.cellHeight);
+                g.drawImage(grid[row][column], x, y, null);
+                if (tokenMask[row][column] != 0)
+                    g.drawImage(tokenOverlays.computeIfAbsent(tokenMask[row][column], this::renderTokens), x, y, null);
+                g.setColor(Color.black);
+                g.drawRect(x, y, config.cellWidth - 1, config.cellHeight - 1);
+                g.dispose();
+            }
+            repaint(x, y, config.cellWidth, config.cellHeight);
+        }
+
+        /**
+         * Renders the names of the players in a token mask.
+         */
+        private BufferedImage renderTokens(long mask) {
+            String text = generatePlayersTokenText(mask);
+            BufferedImage overlay = CardAtlas.createCompatibleImage(config.cellWidth, config.cellHeight, Transparency.TRANSLUCENT);
+            Graphics2D g = overlay.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setFont(tokenFont);
+            g.setColor(Color.black);
+            FontMetrics metrics = g.getFontMetrics();
+            g.drawString(text, (config.cellWidth - metrics.stringWidth(text)) / 2, metrics.getAscent() + 1);
+            g.dispose();
+            return overlay;
+        }
+
         private void placeCard(int slot, int card) {
             int row = slot / config.columns;
             int column = slot % config.columns;
             grid[row][column] = deck[card];
-            validate();
-            repaint();
+            drawCell(row, column);
         }
 
         private void removeCard(int slot) {
             int row = slot / config.columns;
             int column = slot % config.columns;
             grid[row][column] = emptyCard;
-            validate();
-            repaint();
+            drawCell(row, column);
         }
 
         private void placeToken(int player, int slot) {
             int row = slot / config.columns;
             int column = slot % config.columns;
-            playerTokens[player][row][column] = true;
-            tokenText[row][column].setText(generatePlayersTokenText(row, column));
+            tokenMask[row][column] |= 1L << player;
+            drawCell(row, column);
         }
 
         private void removeTokens() {
@@ -179,36 +264,37 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         private void removeTokens(int slot) {
             int row = slot / config.columns;
             int column = slot % config.columns;
-            for (int player = 0; player < playerTokens.length; player++) {
-                playerTokens[player][row][column] = false;
-                tokenText[row][column].setText(generatePlayersTokenText(row, column));
-            }
+            tokenMask[row][column] = 0;
+            drawCell(row, column);
         }
 
         private void removeToken(int player, int slot) {
             int row = slot / config.columns;
             int column = slot % config.columns;
-            playerTokens[player][row][column] = false;
-            tokenText[row][column].setText(generatePlayersTokenText(row, column));
+            tokenMask[row][column] &= ~(1L << player);
+            drawCell(row, column);
         }
 
-        private String generatePlayersTokenText(int row, int column) {
-            String text = "";
+        private String generatePlayersTokenText(long mask) {
+            StringBuilder text = new StringBuilder();
             for (int player = 0; player < config.players; player++) {
-                if (playerTokens[player][row][column])
-                    text = text.concat(config.playerNames[player] + ", ");
+                if ((mask & (1L << player)) != 0) {
+                    if (text.length() > 0)
+                        text.append(", ");
+                    text.append(config.playerNames[player]);
+                }
             }
-            if (text.length() < 2)
-                return "";
-            return text.substring(0, text.length() - 2);
+            return text.toString();
         }
 
         @Override
         public void paintComponent(Graphics g) {
-            // draw card images
-            for (int row = 0; row < config.rows; row++)
-                for (int column = 0; column < config.columns; column++)
-                    g.drawImage(grid[row][column], (column * config.cellWidth), (row * config.cellHeight), this);
+            // copy the composited table (the graphics are clipped to the dirty region)
+            long begin = trace.begin();
+            synchronized (backBuffer) {
+                g.drawImage(backBuffer, 0, 0, null);
+            }
+            trace.end("edt", "paint table", begin);
         }
     }
 
@@ -306,12 +392,25 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
     @Override
     public void setCountdown(long millies, boolean warn) {
-        timerPanel.setCountdown(millies, warn);
+        // the timer and the panels are only touched on the event dispatch thread, in the order of the calls
+        EventQueue.invokeLater(() -> timerPanel.setCountdown(millies, warn));
+    }
+
+    @Override
+    public void setCountdownDeadline(long deadlineNanos, long warnMillies) {
+        EventQueue.invokeLater(() -> {
+            // a countdown after the winners were announced starts a new round
+            if (winnerPanel.isVisible()) {
+                winnerPanel.setVisible(false);
+                playersPanel.setVisible(true);
+            }
+            timerPanel.setCountdownDeadline(deadlineNanos, warnMillies);
+        });
     }
 
     @Override
     public void setElapsed(long millies) {
-        timerPanel.setElapsed(millies);
+        EventQueue.invokeLater(() -> timerPanel.setElapsed(millies));
     }
 
     @Override
@@ -326,13 +425,18 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
     @Override
     public void announceWinner(int[] players) {
-        playersPanel.setVisible(false);
-        winnerPanel.announceWinner(players);
-        winnerPanel.setVisible(true);
+        int[] winners = players.clone();
+        EventQueue.invokeLater(() -> {
+            timerPanel.stop();
+            playersPanel.setVisible(false);
+            winnerPanel.announceWinner(winners);
+            winnerPanel.setVisible(true);
+        });
     }
 
     @Override
     public void dispose() {
+        timerPanel.stop();
         super.dispose();
     }
 }
@@ -0,0 +1,346 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import static java.lang.String.format;
+
+/**
+ * ANSI terminal implementation of the UserInterface interface (for hosts without a display, e.g. over SSH).
+ * The user interface calls only update the state and mark what changed. A render thread wakes up at most once per
+ * frame, redraws only the changed cells, players and timer using cursor movement escape codes and writes the whole
+ * frame with a single write.
+ */
+public class UserInterfaceTerminal implements UserInterface, Runnable {
+
+    private static final String ESC = "\u001b[";
+    private static final String RESET = ESC + "0m";
+    private static final int CELL_WIDTH = 16;
+    private static final int CELL_HEIGHT = 3;
+    private static final int PLAYER_WIDTH = 24;
+    private static final int GRID_TOP = 3;
+
+    /**
+     * The ANSI colors and the symbols used to draw the card features (number, color, shape, shading).
+     */
+    private static final int[] COLORS = {31, 35, 32, 33, 34, 36};
+    private static final char[] SHAPES = {'~', '<', 'O', '*', '#', '+'};
+    private static final String[] SHADINGS = {ESC + "1m", "", ESC + "2m", ESC + "4m", ESC + "7m", ESC + "9m"};
+
+    private final Logger logger;
+    private final Config config;
+    private final Util util;
+    private final OutputStream out;
+
+    /**
+     * The minimal time between two frames.
+     */
+    private final long frameMillis;
+
+    /**
+     * The displayed state and what changed since the last frame (guarded by this).
+     */
+    private final int[] slotToCard;
+    private final long[] tokenMask;
+    private final int[] scores;
+    private final long[] freezes;
+    private final boolean[] dirtySlots;
+    private final boolean[] dirtyPlayers;
+    private String timerText;
+    private boolean warn;
+    private long deadlineNanos;
+    private long warnMillies = -1;
+    private String winnerText;
+    private boolean dirty;
+    private boolean fullRedraw = true;
+
+    /**
+     * The last timer text that was written (only used by the render thread).
+     */
+    private String renderedTimer;
+
+    private volatile boolean terminate;
+    private ThreadLogger renderThread;
+
+    /**
+     * @param logger - the logger.
+     * @param config - the game configuration (TerminalFps is used).
+     * @param util   - the utilities (used to draw the card features).
+     * @param out    - the terminal.
+     */
+    public UserInterfaceTerminal(Logger logger, Config config, Util util, OutputStream out) {
+        if (config.players > Long.SIZE)
+            throw new IllegalArgumentException("the table can show the tokens of up to " + Long.SIZE + " players");
+        this.logger = logger;
+        this.config = config;
+        this.util = util;
+        this.out = out;
+        this.frameMillis = Math.max(1, 1000 / config.terminalFps);
+        slotToCard = new int[config.tableSize];
+        Arrays.fill(slotToCard, -1);
+        tokenMask = new long[config.tableSize];
+        dirtySlots = new boolean[config.tableSize];
+        scores = new int[config.players];
+        freezes = new long[config.players];
+        dirtyPlayers = new boolean[config.players];
+        timerText = config.turnTimeoutMillis < 0 ? "PLAY" : "GET READY...";
+    }
+
+    public void start() {
+        renderThread = new ThreadLogger(this, "terminal", logger);
+        renderThread.startWithLog();
+    }
+
+    /**
+     * The render thread starts here.
+     */
+    @Override
+    public void run() {
+        while (!terminate) {
+            String frame;
+            synchronized (this) {
+                while (!dirty && warnMillies < 0 && !terminate) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ignored) {}
+                }
+                frame = renderFrame();
+            }
+            write(frame);
+            try {
+                Thread.sleep(frameMillis);
+            } catch (InterruptedException ignored) {}
+        }
+        String last;
+        synchronized (this) {
+            last = renderFrame();
+        }
+        write(last + ESC + (GRID_TOP + config.rows * CELL_HEIGHT + 4) + ";1H" + ESC + "?25h");
+    }
+
+    private void write(String frame) {
+        if (frame.isEmpty())
+            return;
+        try {
+            out.write(frame.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException e) {
+            logger.severe("cannot write to the terminal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Draws everything that changed since the last frame (the caller holds this).
+     * @return - the escape sequences and text of the frame (empty if nothing changed).
+     */
+    String renderFrame() {
+        StringBuilder sb = new StringBuilder();
+        if (fullRedraw) {
+            sb.append(ESC).append("?25l").append(ESC).append("2J");
+            Arrays.fill(dirtySlots, true);
+            Arrays.fill(dirtyPlayers, true);
+            renderedTimer = null;
+            fullRedraw = false;
+        }
+        if (warnMillies >= 0) {
+            long millies = Math.max(0, (deadlineNanos - System.nanoTime()) / 1000000L);
+            warn = millies > 0 && millies < warnMillies;
+            timerText = generateTime(millies, warn);
+            if (millies == 0)
+                warnMillies = -1;
+        }
+        String timer = winnerText != null ? winnerText : timerText;
+        if (!timer.equals(renderedTimer)) {
+            moveTo(sb, 1, 1).append(ESC).append("2K");
+            if (warn && winnerText == null)
+                sb.append(ESC).append("31m").append(timer).append(RESET);
+            else
+                sb.append(ESC).append("1m").append(timer).append(RESET);
+            renderedTimer = timer;
+        }
+        for (int slot = 0; slot < dirtySlots.length; slot++)
+            if (dirtySlots[slot]) {
+                renderCell(sb, slot);
+                dirtySlots[slot] = false;
+            }
+        for (int player = 0; player < dirtyPlayers.length; player++)
+            if (dirtyPlayers[player]) {
+                renderPlayer(sb, player);
+                dirtyPlayers[player] = false;
+            }
+        dirty = false;
+        return sb.toString();
+    }
+
+    private static StringBuilder moveTo(StringBuilder sb, int line, int column) {
+        return sb.append(ESC).append(line).append(';').append(column).append('H');
+    }
+
+    private static StringBuilder pad(StringBuilder sb, String text, int width) {
+        if (text.length() > width)
+            return sb.append(text, 0, width);
+        sb.append(text);
+        for (int i = text.length(); i < width; i++)
+            sb.append(' ');
+        return sb;
+    }
+
+    private void renderCell(StringBuilder sb, int slot) {
+        int line = GRID_TOP + (slot / config.columns) * CELL_HEIGHT;
+        int column = 1 + (slot % config.columns) * CELL_WIDTH;
+        int card = slotToCard[slot];
+        moveTo(sb, line, column).append('[');
+        if (card < 0)
+            pad(sb, "", CELL_WIDTH - 3);
+        else if (config.featureCount == 4 && config.featureSize <= COLORS.length) {
+            int[] features = util.cardToFeatures(card);
+            String symbols = pad(new StringBuilder(), "", features[0] + 1).toString().replace(' ', SHAPES[features[2]]);
+            sb.append(ESC).append(COLORS[features[1]]).append('m').append(SHADINGS[features[3]]);
+            pad(sb, symbols, CELL_WIDTH - 3).append(RESET);
+        } else
+            pad(sb, "card " + card, CELL_WIDTH - 3);
+        sb.append(']');
+
+        StringBuilder tokens = new StringBuilder();
+        for (int player = 0; player < config.players; player++)
+            if ((tokenMask[slot] & (1L << player)) != 0)
+                tokens.append(player + 1).append(' ');
+        moveTo(sb, line + 1, column).append(' ');
+        pad(sb, tokens.toString(), CELL_WIDTH - 2);
+    }
+
+    private void renderPlayer(StringBuilder sb, int player) {
+        int line = GRID_TOP + config.rows * CELL_HEIGHT + 1;
+        moveTo(sb, line, 1 + player * PLAYER_WIDTH);
+        String text = (player + 1) + ". " + config.playerNames[player] + ": " + scores[player];
+        if (freezes[player] > 0) {
+            sb.append(ESC).append("31m");
+            pad(sb, text + " (" + freezes[player] / 1000 + ")", PLAYER_WIDTH - 1).append(RESET);
+        } else
+            pad(sb, text, PLAYER_WIDTH - 1);
+    }
+
+    private static String generateTime(long millies, boolean warn) {
+        if (warn)
+            return format("Remaining Time: %.2f", (double) millies / 1000.0f);
+        else
+            return format("Remaining Time: %d", millies / 1000L);
+    }
+
+    /**
+     * Marks the frame as changed and wakes the render thread up (the caller holds this).
+     */
+    private void changed() {
+        if (!dirty) {
+            dirty = true;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public synchronized void placeCard(int card, int slot) {
+        slotToCard[slot] = card;
+        dirtySlots[slot] = true;
+        changed();
+    }
+
+    @Override
+    public synchronized void removeCard(int slot) {
+        slotToCard[slot] = -1;
+        dirtySlots[slot] = true;
+        changed();
+    }
+
+    @Override
+    public synchronized void placeToken(int player, int slot) {
+        tokenMask[slot] |= 1L << player;
+        dirtySlots[slot] = true;
+        changed();
+    }
+
+    @Override
+    public synchronized void removeTokens() {
+        Arrays.fill(tokenMask, 0);
+        Arrays.fill(dirtySlots, true);
+        changed();
+    }
+
+    @Override
+    public synchronized void removeTokens(int slot) {
+        tokenMask[slot] = 0;
+        dirtySlots[slot] = true;
+        changed();
+    }
+
+    @Override
+    public synchronized void removeToken(int player, int slot) {
+        tokenMask[slot] &= ~(1L << player);
+        dirtySlots[slot] = true;
+        changed();
+    }
+
+    @Override
+    public synchronized void setCountdown(long millies, boolean warn) {
+        warnMillies = -1;
+        this.warn = warn;
+        timerText = generateTime(millies, warn);
+        changed();
+    }
+
+    @Override
+    public synchronized void setCountdownDeadline(long deadlineNanos, long warnMillies) {
+        // a countdown after the winners were announced starts a new round
+        winnerText = null;
+        this.deadlineNanos = deadlineNanos;
+        this.warnMillies = warnMillies;
+        changed();
+    }
+
+    @Override
+    public synchronized void setElapsed(long millies) {
+        warnMillies = -1;
+        warn = false;
+        timerText = "Elapsed time: " + millies / 1000;
+        changed();
+    }
+
+    @Override
+    public synchronized void setFreeze(int player, long millies) {
+        freezes[player] = millies;
+        dirtyPlayers[player] = true;
+        changed();
+    }
+
+    @Override
+    public synchronized void setScore(int player, int score) {
+        scores[player] = score;
+        dirtyPlayers[player] = true;
+        changed();
+    }
+
+    @Override
+    public synchronized void announceWinner(int[] players) {
+        List<String> names = Arrays.stream(players).mapToObj(id -> config.playerNames[id]).collect(Collectors.toList());
+        if (players.length == 1) winnerText = "THE WINNER IS: " + names.get(0) + "!!!";
+        else winnerText = "IT IS A DRAW: " + String.join(" AND ", names) + " WON!!!";
+        warnMillies = -1;
+        changed();
+    }
+
+    @Override
+    public void dispose() {
+        synchronized (this) {
+            terminate = true;
+            notifyAll();
+        }
+        if (renderThread != null) try {
+            renderThread.interrupt();
+            renderThread.joinWithLog();
+        } catch (InterruptedException ignored) {}
+    }
+}
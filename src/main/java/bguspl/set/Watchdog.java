@@ -0,0 +1,288 @@
+package bguspl.set;
+
+import java.io.Closeable;
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MonitorInfo;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Detects dealers and players that stopped making progress, e.g. a player that waits forever for the verdict of a
+ * claim that was lost, or for the dealer to enable it again.
+ * <p>
+ * Every monitored thread has a heartbeat. Before a wait that must end (a claim, a reshuffle, a turn of the dealer)
+ * the thread tells its heartbeat what it waits for and for how long, and after the wait it tells it that it is idle
+ * (e.g. a player that waits for a key press). Every wait is published as a new immutable record, so the watchdog
+ * always sees all the fields of the same wait, and a new wait is progress. A thread that waits longer than it should
+ * plus the threshold is stalled: the watchdog logs it together with a dump of all the
+ * threads and the state of the game, and runs the recovery of the wait if recovery is enabled. A stall is reported
+ * once, until the thread makes progress again.
+ */
+public class Watchdog implements Closeable {
+
+    /**
+     * A wait of a monitored thread: what it waits for, since when, until when, how to recover and the thread.
+     */
+    private static final class Wait {
+        final String waitingFor;
+        final long sinceNanos;
+        final long deadlineNanos;
+        final Runnable recovery;
+        final Thread thread;
+
+        Wait(String waitingFor, long millis, Runnable recovery) {
+            this.waitingFor = waitingFor;
+            sinceNanos = System.nanoTime();
+            deadlineNanos = sinceNanos + millis * 1000000L;
+            this.recovery = recovery;
+            thread = Thread.currentThread();
+        }
+    }
+
+    /**
+     * The progress of a single thread (written only by the thread).
+     */
+    public static final class Heartbeat {
+        private final Watchdog watchdog;
+        private final String name;
+        private final Supplier<String> state;
+
+        /**
+         * The current wait of the thread (null when it is idle).
+         */
+        private volatile Wait wait;
+
+        /**
+         * The wait that was reported as stalled (read and written only by the watchdog thread).
+         */
+        private Wait reported;
+
+        private Heartbeat(Watchdog watchdog, String name, Supplier<String> state) {
+            this.watchdog = watchdog;
+            this.name = name;
+            this.state = state;
+        }
+
+        /**
+         * The calling thread starts waiting for something that should happen within millis.
+         */
+        public void expect(String what, long millis) {
+            expect(what, millis, null);
+        }
+
+        /**
+         * @param recovery - what the watchdog runs if the wait stalls and recovery is enabled (null for nothing).
+         */
+        public void expect(String what, long millis, Runnable recovery) {
+            wait = new Wait(what, millis, recovery);
+        }
+
+        /**
+         * The calling thread made progress and waits for nothing that must happen.
+         */
+        public void idle() {
+            wait = null;
+        }
+
+        /**
+         * Stops monitoring the thread (e.g. the game ended).
+         */
+        public void close() {
+            watchdog.unregister(this);
+        }
+
+        public String name() {
+            return name;
+        }
+    }
+
+    private final Logger logger;
+    private final long thresholdNanos;
+    private final boolean recovery;
+
+    /**
+     * The monitored heartbeats (guarded by itself).
+     */
+    private final List<Heartbeat> heartbeats = new ArrayList<>();
+
+    private final AtomicLong stalls = new AtomicLong();
+    private final AtomicLong recoveries = new AtomicLong();
+
+    private ThreadLogger thread;
+    private volatile boolean closed;
+
+    /**
+     * @param logger          - the logger.
+     * @param thresholdMillis - how long a wait may be late before it is a stall (0 or less disables the watchdog).
+     * @param recovery        - true iff the recovery of a stalled wait is run.
+     */
+    public Watchdog(Logger logger, long thresholdMillis, boolean recovery) {
+        this.logger = logger;
+        this.thresholdNanos = thresholdMillis * 1000000L;
+        this.recovery = recovery;
+    }
+
+    public boolean isEnabled() {
+        return thresholdNanos > 0;
+    }
+
+    /**
+     * @param name  - the name of the monitored thread (e.g. "dealer", "player 1").
+     * @param state - describes the state of the game of the thread when it stalls.
+     * @return - the heartbeat of the thread (not monitored if the watchdog is disabled).
+     */
+    public Heartbeat heartbeat(String name, Supplier<String> state) {
+        Heartbeat heartbeat = new Heartbeat(this, name, state);
+        if (isEnabled())
+            synchronized (heartbeats) {
+                heartbeats.add(heartbeat);
+            }
+        return heartbeat;
+    }
+
+    private void unregister(Heartbeat heartbeat) {
+        synchronized (heartbeats) {
+            heartbeats.remove(heartbeat);
+        }
+    }
+
+    /**
+     * Starts the watchdog thread (if the watchdog is enabled).
+     */
+    public synchronized void start() {
+        if (!isEnabled() || thread != null)
+            return;
+        thread = new ThreadLogger(this::run, "watchdog", logger);
+        thread.setDaemon(true);
+        thread.startWithLog();
+    }
+
+    private void run() {
+        long period = Math.max(10, thresholdNanos / 4000000L);
+        while (!closed) {
+            try {
+                Thread.sleep(period);
+            } catch (InterruptedException ignored) {}
+            if (!closed)
+                check();
+        }
+    }
+
+    /**
+     * Reports the heartbeats that stalled since the last check.
+     * @return - the number of new stalls.
+     */
+    int check() {
+        Heartbeat[] monitored;
+        synchronized (heartbeats) {
+            monitored = heartbeats.toArray(new Heartbeat[0]);
+        }
+        List<Heartbeat> stalled = new ArrayList<>();
+        List<Runnable> recoveries = new ArrayList<>();
+        long now = System.nanoTime();
+        for (Heartbeat heartbeat : monitored) {
+            Wait wait = heartbeat.wait;
+            if (wait == null || wait == heartbeat.reported || now - wait.deadlineNanos <= thresholdNanos)
+                continue;
+            heartbeat.reported = wait;
+            stalls.incrementAndGet();
+            stalled.add(heartbeat);
+            logger.severe("watchdog: " + heartbeat.name + " (thread " + wait.thread.getName()
+                    + ") has been waiting for " + wait.waitingFor + " for " + (now - wait.sinceNanos) / 1000000L
+                    + " ms");
+            if (recovery && wait.recovery != null)
+                recoveries.add(wait.recovery);
+        }
+        if (stalled.isEmpty())
+            return 0;
+        StringBuilder report = new StringBuilder("watchdog: state of the stalled games\n");
+        List<Supplier<String>> described = new ArrayList<>();
+        for (Heartbeat heartbeat : stalled)
+            if (heartbeat.state != null && !described.contains(heartbeat.state)) {
+                described.add(heartbeat.state);
+                try {
+                    report.append(heartbeat.name).append(": ").append(heartbeat.state.get()).append('\n');
+                } catch (RuntimeException e) {
+                    report.append(heartbeat.name).append(": cannot describe the game: ").append(e).append('\n');
+                }
+            }
+        report.append("watchdog: thread dump\n");
+        dumpThreads(report);
+        logger.severe(report.toString());
+        for (Runnable recover : recoveries) {
+            this.recoveries.incrementAndGet();
+            // a recovery may block (e.g. joining the threads of a game), the watchdog keeps watching meanwhile
+            ThreadLogger recoveryThread = new ThreadLogger(recover, "watchdog recovery", logger);
+            recoveryThread.setDaemon(true);
+            recoveryThread.startWithLog();
+        }
+        return stalled.size();
+    }
+
+    /**
+     * Appends the stacks of all the threads, with the locks they hold and wait for.
+     */
+    static void dumpThreads(StringBuilder sb) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        ThreadInfo[] infos = threads.dumpAllThreads(threads.isObjectMonitorUsageSupported(),
+                threads.isSynchronizerUsageSupported());
+        for (ThreadInfo info : infos) {
+            sb.append('"').append(info.getThreadName()).append("\" ").append(info.getThreadState());
+            if (info.getLockName() != null)
+                sb.append(" on ").append(info.getLockName());
+            if (info.getLockOwnerName() != null)
+                sb.append(" owned by \"").append(info.getLockOwnerName()).append('"');
+            sb.append('\n');
+            StackTraceElement[] stack = info.getStackTrace();
+            MonitorInfo[] monitors = info.getLockedMonitors();
+            for (int i = 0; i < stack.length; i++) {
+                sb.append("\tat ").append(stack[i]).append('\n');
+                for (MonitorInfo monitor : monitors)
+                    if (monitor.getLockedStackDepth() == i)
+                        sb.append("\t- locked ").append(monitor).append('\n');
+            }
+            for (LockInfo lock : info.getLockedSynchronizers())
+                sb.append("\t- holds ").append(lock).append('\n');
+        }
+    }
+
+    /**
+     * @return - the number of stalls reported so far.
+     */
+    public long stalls() {
+        return stalls.get();
+    }
+
+    /**
+     * @return - the number of recoveries run so far.
+     */
+    public long recoveries() {
+        return recoveries.get();
+    }
+
+    /**
+     * Stops the watchdog thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        ThreadLogger watchdog;
+        synchronized (this) {
+            watchdog = thread;
+        }
+        if (watchdog == null)
+            return;
+        watchdog.interrupt();
+        try {
+            watchdog.joinWithLog();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package bguspl.set.ex;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import bguspl.set.Env;
+import bguspl.set.ThreadLogger;
+
+/**
+ * An external engine that plays a computer player, running as a subprocess.
+ * <p>
+ * The protocol is line based text over the engine's stdin and stdout:
+ * <ul>
+ * <li>once, when the engine starts: {@code SET <featureSize> <featureCount> <tableSize> <player>}</li>
+ * <li>for every move: {@code B <seq> <card of slot 0> ... <card of slot tableSize-1>} (-1 for an empty slot)</li>
+ * <li>the engine answers {@code <seq> <slot> <slot> <slot>} to claim a set, or {@code <seq> pass}</li>
+ * </ul>
+ * The engine's stdin is written by a writer thread of its own, which takes the snapshots from a hand-off queue of one
+ * snapshot: an engine that stops reading blocks only the writer, and a move that cannot hand its snapshot over within
+ * the budget times out. The engine's stdout is read by a reader thread of its own, which blocks on the pipe and queues
+ * every complete line, so waiting for an answer is a timed wait on the queue. A slow engine never holds the calling
+ * thread longer than the move budget, nothing wakes up before an answer arrives, and a late answer is recognized by
+ * its sequence number and dropped.
+ */
+public class BotEngine implements Closeable {
+
+    /**
+     * Queued by the reader thread after the last line, when the engine closed its stdout.
+     */
+    private static final String END = new String("end of the engine's stdout");
+
+    /**
+     * Handed to the writer thread to close the engine's stdin.
+     */
+    private static final byte[] CLOSE = new byte[0];
+
+    private final Process process;
+    private final OutputStream stdin;
+    private final int tableSize;
+    private final int setSize;
+
+    /**
+     * The lines of the engine's stdout that were not taken yet, and the thread that reads them.
+     */
+    private final LinkedBlockingQueue<String> lines = new LinkedBlockingQueue<>();
+    private final Thread reader;
+
+    /**
+     * The snapshots that were not written yet (at most one besides the one being written), the thread that writes
+     * them, and why it stopped (null while it writes).
+     */
+    private final LinkedBlockingQueue<byte[]> outbox = new LinkedBlockingQueue<>(1);
+    private final Thread writer;
+    private volatile IOException writeFailure;
+
+    /**
+     * The snapshot being encoded (reused between moves).
+     */
+    private final StringBuilder snapshot = new StringBuilder();
+
+    /**
+     * The sequence number of the last snapshot.
+     */
+    private long seq;
+
+    /**
+     * The number of moves, and of moves that were passed, timed out or illegal.
+     */
+    public long moves;
+    public long passes;
+    public long timeouts;
+    public long illegal;
+
+    /**
+     * @param command - the command line of the engine (split at white spaces).
+     * @param env     - the environment (the reader and writer threads run under its accounting).
+     * @param player  - the id of the player the engine plays.
+     * @throws IOException - if the engine cannot be started.
+     */
+    public BotEngine(String command, Env env, int player) throws IOException {
+        this(command.trim().split("\\s+"), env, player);
+    }
+
+    public BotEngine(String[] command, Env env, int player) throws IOException {
+        this.tableSize = env.config.tableSize;
+        this.setSize = 3;
+        process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        stdin = process.getOutputStream();
+        BufferedReader stdout = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                StandardCharsets.US_ASCII));
+        reader = new ThreadLogger(() -> readLines(stdout), "engine-" + player, env.logger, env.accounting);
+        reader.setDaemon(true);
+        reader.start();
+        outbox.add(("SET " + env.config.featureSize + " " + env.config.featureCount + " " + tableSize + " " + player + "\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        writer = new ThreadLogger(this::writeSnapshots, "engine-" + player + " stdin", env.logger, env.accounting);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * The main loop of the reader thread: queues the lines of the engine's stdout until it is closed.
+     */
+    private void readLines(BufferedReader stdout) {
+        try {
+            String line;
+            while ((line = stdout.readLine()) != null)
+                lines.add(line);
+        } catch (IOException ignored) {
+            // the engine is gone
+        } finally {
+            lines.add(END);
+        }
+    }
+
+    /**
+     * The main loop of the writer thread: writes the snapshots to the engine's stdin until it is closed.
+     */
+    private void writeSnapshots() {
+        try {
+            while (true) {
+                byte[] text = outbox.take();
+                if (text == CLOSE) {
+                    stdin.close();
+                    return;
+                }
+                stdin.write(text);
+                stdin.flush();
+            }
+        } catch (IOException e) {
+            writeFailure = e;
+        } catch (InterruptedException ignored) {
+            // the engine is closed
+        }
+    }
+
+    /**
+     * Sends a snapshot of the table to the engine and waits for its answer.
+     * @param slotToCard   - the cards on the table (null for an empty slot).
+     * @param budgetMillis - the time the engine has to answer.
+     * @return - the slots of the claimed set, or null if the engine passed, ran out of time or answered illegally.
+     * @throws IOException - if the engine is gone.
+     */
+    public int[] move(Integer[] slotToCard, long budgetMillis) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        moves++;
+        seq++;
+        snapshot.setLength(0);
+        snapshot.append("B ").append(seq);
+        for (int slot = 0; slot < tableSize; slot++) {
+            Integer card = slotToCard[slot];
+            snapshot.append(' ').append(card == null ? -1 : card);
+        }
+        if (writeFailure != null)
+            throw new IOException("cannot write to the engine: " + writeFailure.getMessage(), writeFailure);
+        byte[] text = snapshot.append('\n').toString().getBytes(StandardCharsets.US_ASCII);
+        try {
+            // the writer is still stuck on an older snapshot if the engine does not read its stdin
+            if (!outbox.offer(text, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                timeouts++;
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        while (true) {
+            long remaining = deadline - System.nanoTime();
+            String line;
+            try {
+                line = remaining > 0 ? lines.poll(remaining, TimeUnit.NANOSECONDS) : lines.poll();
+            } catch (InterruptedException e) {
+                // the player is terminating, the interrupt is kept for its loop
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if (line == null) {
+                timeouts++;
+                return null;
+            }
+            if (line == END) {
+                // every later move fails too
+                lines.add(END);
+                throw new IOException("the engine closed its stdout"
+                        + (process.isAlive() ? "" : " and exited with code " + process.exitValue()));
+            }
+            String[] tokens = line.trim().split("\\s+");
+            // an answer to an older snapshot (that timed out) is dropped
+            if (!tokens[0].equals(Long.toString(seq)))
+                continue;
+            return parse(tokens);
+        }
+    }
+
+    private int[] parse(String[] tokens) {
+        if (tokens.length == 2 && tokens[1].equals("pass")) {
+            passes++;
+            return null;
+        }
+        if (tokens.length != setSize + 1) {
+            illegal++;
+            return null;
+        }
+        int[] slots = new int[setSize];
+        try {
+            for (int i = 0; i < setSize; i++) {
+                slots[i] = Integer.parseInt(tokens[i + 1]);
+                if (slots[i] < 0 || slots[i] >= tableSize)
+                    throw new NumberFormatException();
+                for (int j = 0; j < i; j++)
+                    if (slots[j] == slots[i])
+                        throw new NumberFormatException();
+            }
+        } catch (NumberFormatException e) {
+            illegal++;
+            return null;
+        }
+        return slots;
+    }
+
+    /**
+     * Stops the engine (closing its stdin first, so a well behaved engine can exit by itself).
+     */
+    @Override
+    public void close() {
+        // the writer closes the stdin after what it is writing, unless it is stuck on an engine that does not read
+        outbox.clear();
+        outbox.offer(CLOSE);
+        try {
+            if (!process.waitFor(100, TimeUnit.MILLISECONDS))
+                process.destroyForcibly();
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+        }
+        // a destroyed engine fails the write of a stuck writer, and the reader ends at the end of the stdout
+        writer.interrupt();
+    }
+}
@@ -0,0 +1,184 @@
+package bguspl.set.ex;
+
+import bguspl.set.RemoteProtocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A memory mapped file of game snapshots (see GameSnapshot) with a fixed layout.
+ * <p>
+ * The file has a header (the magic number, the version and the dimensions of the game) and two snapshot slots that
+ * are written in turns, so the previous snapshot stays intact while the next one is written. A slot is the sequence
+ * number of the snapshot, the CRC32 of the slot and the snapshot. The latest consistent snapshot is the one with the
+ * highest sequence number whose CRC matches (a slot that was torn by a crash does not match).
+ * <p>
+ * A write encodes the snapshot into a buffer on the heap and copies it into the mapping, so it costs a few
+ * microseconds and no system call: the operating system writes the mapped pages back by itself, so a snapshot
+ * survives the death of the JVM. The file is only forced to the disk when it is closed.
+ */
+public class CheckpointFile implements Closeable {
+
+    private static final int MAGIC = 0x53455443; // "SETC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+
+    /**
+     * The offsets in a slot.
+     */
+    private static final int SEQUENCE = 0;
+    private static final int CRC = 8;
+    private static final int PAYLOAD = 12;
+
+    private final Logger logger;
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final ByteBuffer[] slots = new ByteBuffer[2];
+    private final int slotSize;
+
+    /**
+     * The snapshot is encoded here before it is copied into a slot.
+     */
+    private final ByteBuffer scratch;
+    private final CRC32 crc = new CRC32();
+
+    private final int deckSize;
+    private final int tableSize;
+    private final int players;
+
+    /**
+     * The sequence number of the last snapshot written.
+     */
+    private long sequence;
+
+    /**
+     * Opens (or creates) a checkpoint file for games of the given dimensions.
+     * A file of a game with other dimensions is reformatted (its snapshots cannot be resumed).
+     */
+    public CheckpointFile(Path file, Logger logger, int deckSize, int tableSize, int players) throws IOException {
+        this.logger = logger;
+        this.deckSize = deckSize;
+        this.tableSize = tableSize;
+        this.players = players;
+        slotSize = PAYLOAD + 4 + 8 + 4 + 4 + 4 * (deckSize + tableSize + players + players * GameSnapshot.TOKENS);
+        scratch = ByteBuffer.allocate(slotSize);
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = HEADER_SIZE + 2L * slotSize, existing = channel.size();
+        boolean formatted = existing == size;
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        formatted &= map.getInt(0) == MAGIC && map.getInt(4) == VERSION && map.getInt(8) == deckSize
+                && map.getInt(12) == tableSize && map.getInt(16) == players && map.getInt(20) == slotSize;
+        if (!formatted) {
+            if (existing > 0)
+                logger.severe("checkpoint file " + file + " is of another game, reformatting it");
+            for (int i = 0; i < size; i++)
+                map.put(i, (byte) 0);
+            map.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, deckSize).putInt(12, tableSize).putInt(16, players)
+                    .putInt(20, slotSize);
+        }
+        for (int i = 0; i < slots.length; i++) {
+            RemoteProtocol.position(map, HEADER_SIZE + i * slotSize);
+            slots[i] = map.slice();
+            ((Buffer) slots[i]).limit(slotSize);
+        }
+        for (ByteBuffer slot : slots)
+            if (valid(slot))
+                sequence = Math.max(sequence, slot.getLong(SEQUENCE));
+    }
+
+    private long checksum(byte[] bytes) {
+        crc.reset();
+        crc.update(bytes, SEQUENCE, CRC);
+        crc.update(bytes, PAYLOAD, slotSize - PAYLOAD);
+        return crc.getValue();
+    }
+
+    private boolean valid(ByteBuffer slot) {
+        byte[] bytes = new byte[slotSize];
+        ByteBuffer in = slot.duplicate();
+        ((Buffer) in).clear();
+        in.get(bytes);
+        return slot.getLong(SEQUENCE) != 0 && (int) checksum(bytes) == slot.getInt(CRC);
+    }
+
+    /**
+     * Writes a snapshot into the older slot (and sets its sequence number).
+     * @param snapshot - the snapshot to write.
+     */
+    public synchronized void write(GameSnapshot snapshot) {
+        snapshot.sequence = ++sequence;
+        ((Buffer) scratch).clear();
+        scratch.putLong(sequence).putInt(0);
+        scratch.putInt(snapshot.finished ? 1 : 0).putLong(snapshot.seed).putInt(snapshot.sets);
+        scratch.putInt(snapshot.deckLength);
+        for (int i = 0; i < deckSize; i++)
+            scratch.putInt(i < snapshot.deckLength ? snapshot.deck[i] : -1);
+        for (int card : snapshot.table)
+            scratch.putInt(card);
+        for (int score : snapshot.scores)
+            scratch.putInt(score);
+        for (int slot : snapshot.tokens)
+            scratch.putInt(slot);
+        scratch.putInt(CRC, (int) checksum(scratch.array()));
+
+        // the sequence number and the checksum are copied last, so a torn slot never looks newer than it is
+        ByteBuffer slot = slots[(int) (sequence & 1)];
+        RemoteProtocol.position(slot, PAYLOAD);
+        slot.put(scratch.array(), PAYLOAD, slotSize - PAYLOAD);
+        slot.putInt(CRC, scratch.getInt(CRC));
+        slot.putLong(SEQUENCE, sequence);
+    }
+
+    /**
+     * @return - the latest consistent snapshot, or null if there is none.
+     */
+    public synchronized GameSnapshot latest() {
+        ByteBuffer latest = null;
+        for (ByteBuffer slot : slots)
+            if (valid(slot) && (latest == null || slot.getLong(SEQUENCE) > latest.getLong(SEQUENCE)))
+                latest = slot;
+        if (latest == null)
+            return null;
+
+        GameSnapshot snapshot = new GameSnapshot(deckSize, tableSize, players);
+        ByteBuffer in = latest.duplicate();
+        ((Buffer) in).clear();
+        snapshot.sequence = in.getLong();
+        in.getInt();
+        snapshot.finished = in.getInt() != 0;
+        snapshot.seed = in.getLong();
+        snapshot.sets = in.getInt();
+        snapshot.deckLength = in.getInt();
+        for (int i = 0; i < deckSize; i++)
+            snapshot.deck[i] = in.getInt();
+        for (int i = 0; i < tableSize; i++)
+            snapshot.table[i] = in.getInt();
+        for (int i = 0; i < players; i++)
+            snapshot.scores[i] = in.getInt();
+        for (int i = 0; i < snapshot.tokens.length; i++)
+            snapshot.tokens[i] = in.getInt();
+        return snapshot;
+    }
+
+    /**
+     * Forces the snapshots to the disk and closes the file.
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            map.force();
+            channel.close();
+        } catch (IOException e) {
+            logger.severe("cannot close the checkpoint file: " + e.getMessage());
+        }
+    }
+}
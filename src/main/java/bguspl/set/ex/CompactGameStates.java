@@ -0,0 +1,446 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.Env;
+import bguspl.set.UtilImpl;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.logging.Logger;
+
+/**
+ * The state of many simulated games (tables) in a store indexed by the table id (see GameStateStore), instead of a
+ * graph of objects per game (boxed table arrays, token queues, key press queues and threads). By default the state of
+ * table t is at [t * n, t * n + n) of primitive arrays, where n is the size of that part of a single game (the deck,
+ * the table, the players), so a table costs a few hundred bytes and 10,000 tables fit in a few megabytes (see
+ * footprint). An OffHeapGameStore keeps the same state outside of the Java heap.
+ * <p>
+ * The games are played by a simulator that steps all the tables in simulated milliseconds, with the rules of the
+ * dealer and the random computer players: every player that is not frozen presses a random slot, a third token is a
+ * claim that is checked right away, a set is replaced from the deck and the table is reshuffled when the turn times
+ * out. The simulator takes no locks and shares nothing between tables but the card features, so disjoint ranges of
+ * tables may be stepped by different threads.
+ * <p>
+ * Only sets of 3 cards (FeatureSize=3) are supported, like the game.
+ */
+public final class CompactGameStates {
+
+    /**
+     * An empty slot of the table.
+     */
+    public static final int EMPTY = 0xFF;
+
+    private static final int SET_SIZE = 3;
+
+    /**
+     * The dimensions of a single game.
+     */
+    private final int tables;
+    private final int deckSize;
+    private final int tableSize;
+    private final int players;
+    private final int featureCount;
+    private final int pointFreeze;
+    private final int penaltyFreeze;
+    private final int turnTimeout;
+
+    /**
+     * The features of every card (shared by all the tables).
+     */
+    private final byte[] features;
+
+    /**
+     * The state of every table.
+     */
+    private final GameStateStore store;
+
+    /**
+     * @param config - the configuration of the games (the deck, the table, the players, the freezes and the turn).
+     * @param tables - the number of tables.
+     */
+    public CompactGameStates(Config config, int tables) {
+        this(config, new HeapGameStore(config, tables));
+    }
+
+    /**
+     * @param config - the configuration of the games (the deck, the table, the players, the freezes and the turn).
+     * @param store  - the store of the tables, of the same configuration.
+     */
+    public CompactGameStates(Config config, GameStateStore store) {
+        if (config.featureSize != SET_SIZE)
+            throw new IllegalArgumentException("only sets of " + SET_SIZE + " cards are supported");
+        if (store.deckSize != config.deckSize || store.tableSize != config.tableSize
+                || store.players != config.players)
+            throw new IllegalArgumentException("the store is of another configuration");
+        this.store = store;
+        tables = store.tables;
+        deckSize = config.deckSize;
+        tableSize = config.tableSize;
+        players = config.players;
+        featureCount = config.featureCount;
+        pointFreeze = (int) Math.max(0, config.pointFreezeMillis);
+        penaltyFreeze = (int) Math.max(0, config.penaltyFreezeMillis);
+        // the other timer modes reshuffle only when there is no set on the table, a minute is close enough
+        turnTimeout = config.turnTimeoutMillis > 0 ? (int) config.turnTimeoutMillis : 60000;
+
+        features = new byte[deckSize * featureCount];
+        for (int card = 0; card < deckSize; card++) {
+            int value = card;
+            for (int f = featureCount - 1; f >= 0; f--) {
+                features[card * featureCount + f] = (byte) (value % SET_SIZE);
+                value /= SET_SIZE;
+            }
+        }
+    }
+
+    /**
+     * Starts a new game on every table.
+     * @param seed - the seed of the first table (table t is dealt with seed + t).
+     */
+    public void dealAll(long seed) {
+        for (int table = 0; table < tables; table++)
+            deal(table, seed + table, 0);
+    }
+
+    /**
+     * Starts a new game on a table: a full deck, shuffled, and a full table.
+     * @param seed - the seed of the random numbers of the table.
+     * @param now  - the current simulated time.
+     */
+    public void deal(int table, long seed, int now) {
+        // the random state must not be 0
+        store.setRandom(table, seed * 0x9E3779B97F4A7C15L | 1L);
+        for (int card = 0; card < deckSize; card++)
+            store.setDeck(table, card, card);
+        store.setDeckLength(table, deckSize);
+        for (int slot = 0; slot < tableSize; slot++)
+            store.setBoard(table, slot, EMPTY);
+        for (int player = 0; player < players; player++) {
+            store.setTokens(table, player, 0);
+            store.setScore(table, player, 0);
+            store.setFreezeUntil(table, player, 0);
+        }
+        store.setSets(table, 0);
+        store.setFinished(table, false);
+        shuffleAndDeal(table, now);
+    }
+
+    /**
+     * Steps a range of tables to the simulated time now.
+     * @param from - the first table.
+     * @param to   - the table after the last table.
+     * @param now  - the current simulated time.
+     * @return - the number of tables in the range that are still playing.
+     */
+    public int step(int from, int to, int now) {
+        int playing = 0;
+        for (int table = from; table < to; table++) {
+            if (store.isFinished(table))
+                continue;
+            if (now >= store.reshuffleAt(table))
+                reshuffle(table, now);
+            else
+                for (int player = 0; player < players && !store.isFinished(table); player++)
+                    press(table, player, now);
+            if (!store.isFinished(table))
+                playing++;
+        }
+        return playing;
+    }
+
+    /**
+     * Plays all the tables until they are finished.
+     * @param tickMillis - the simulated time of a step.
+     * @param maxMillis  - the simulated time to give up after.
+     * @return - the simulated time it took.
+     */
+    public int simulate(int tickMillis, int maxMillis) {
+        int now = 0;
+        while (now < maxMillis && step(0, tables, now) > 0)
+            now += tickMillis;
+        return now;
+    }
+
+    private int nextInt(int table, int bound) {
+        long x = store.random(table);
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        store.setRandom(table, x);
+        return (int) ((x >>> 33) % bound);
+    }
+
+    /**
+     * A player that is not frozen presses a random slot (like the random computer player).
+     */
+    private void press(int table, int player, int now) {
+        if (store.freezeUntil(table, player) > now)
+            return;
+        int slot = nextInt(table, tableSize);
+        if (store.board(table, slot) == EMPTY)
+            return;
+        int mask = store.tokens(table, player) ^ (1 << slot);
+        if (Integer.bitCount(mask) > SET_SIZE)
+            return;
+        store.setTokens(table, player, mask);
+        if (Integer.bitCount(mask) == SET_SIZE)
+            claim(table, player, now);
+    }
+
+    /**
+     * Checks the claim of a player (like Dealer.checkSet, without the queue).
+     */
+    private void claim(int table, int player, int now) {
+        int slots = store.tokens(table, player), mask = slots;
+        int a = store.board(table, Integer.numberOfTrailingZeros(mask));
+        mask &= mask - 1;
+        int b = store.board(table, Integer.numberOfTrailingZeros(mask));
+        mask &= mask - 1;
+        int c = store.board(table, Integer.numberOfTrailingZeros(mask));
+        if (!isSet(a, b, c)) {
+            store.setFreezeUntil(table, player, now + penaltyFreeze);
+            return;
+        }
+        store.setScore(table, player, store.score(table, player) + 1);
+        int sets = store.sets(table) + 1;
+        store.setSets(table, sets);
+        store.setFreezeUntil(table, player, now + pointFreeze);
+        // the tokens on the cards of the set are returned to all the players
+        for (int other = 0; other < players; other++)
+            store.setTokens(table, other, store.tokens(table, other) & ~slots);
+        int length = store.deckLength(table);
+        for (; slots != 0; slots &= slots - 1) {
+            int slot = Integer.numberOfTrailingZeros(slots);
+            store.setBoard(table, slot, length > 0 ? store.deck(table, --length) : EMPTY);
+        }
+        store.setDeckLength(table, length);
+        store.setReshuffleAt(table, now + turnTimeout);
+        if (sets >= deckSize / SET_SIZE)
+            store.setFinished(table, true);
+    }
+
+    /**
+     * Returns the table to the deck, and deals again if there is a set left (like Dealer.removeAllCardsFromTable).
+     */
+    private void reshuffle(int table, int now) {
+        int length = store.deckLength(table);
+        for (int slot = 0; slot < tableSize; slot++) {
+            int card = store.board(table, slot);
+            if (card != EMPTY)
+                store.setDeck(table, length++, card);
+            store.setBoard(table, slot, EMPTY);
+        }
+        store.setDeckLength(table, length);
+        for (int player = 0; player < players; player++)
+            store.setTokens(table, player, 0);
+        if (!hasSet(table))
+            store.setFinished(table, true);
+        else
+            shuffleAndDeal(table, now);
+    }
+
+    private void shuffleAndDeal(int table, int now) {
+        int length = store.deckLength(table);
+        for (int i = length - 1; i > 0; i--) {
+            int j = nextInt(table, i + 1);
+            int card = store.deck(table, i);
+            store.setDeck(table, i, store.deck(table, j));
+            store.setDeck(table, j, card);
+        }
+        for (int slot = 0; slot < tableSize && length > 0; slot++)
+            store.setBoard(table, slot, store.deck(table, --length));
+        store.setDeckLength(table, length);
+        store.setReshuffleAt(table, now + turnTimeout);
+    }
+
+    /**
+     * @return - true iff the three cards are a legal set (every feature is the same on all of them or different).
+     */
+    boolean isSet(int a, int b, int c) {
+        for (int f = 0; f < featureCount; f++)
+            if ((features[a * featureCount + f] + features[b * featureCount + f]
+                    + features[c * featureCount + f]) % SET_SIZE != 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * @return - the card that makes a set with a and b.
+     */
+    private int third(int a, int b) {
+        int card = 0;
+        for (int f = 0; f < featureCount; f++)
+            card = card * SET_SIZE + (2 * SET_SIZE - features[a * featureCount + f]
+                    - features[b * featureCount + f]) % SET_SIZE;
+        return card;
+    }
+
+    /**
+     * @return - true iff the deck of a table has a set (the table was returned to it).
+     */
+    private boolean hasSet(int table) {
+        long[] present = new long[(deckSize + 63) / 64];
+        int length = store.deckLength(table);
+        for (int i = 0; i < length; i++) {
+            int card = store.deck(table, i);
+            present[card >>> 6] |= 1L << card;
+        }
+        for (int i = 0; i < length; i++)
+            for (int j = i + 1; j < length; j++) {
+                int third = third(store.deck(table, i), store.deck(table, j));
+                if ((present[third >>> 6] & 1L << third) != 0)
+                    return true;
+            }
+        return false;
+    }
+
+    public int tables() {
+        return tables;
+    }
+
+    public GameStateStore store() {
+        return store;
+    }
+
+    public boolean isFinished(int table) {
+        return store.isFinished(table);
+    }
+
+    /**
+     * @return - the card in a slot of a table, or EMPTY.
+     */
+    public int card(int table, int slot) {
+        return store.board(table, slot);
+    }
+
+    public int deckLength(int table) {
+        return store.deckLength(table);
+    }
+
+    /**
+     * @return - the card at index i of the deck of a table.
+     */
+    public int deckCard(int table, int i) {
+        return store.deck(table, i);
+    }
+
+    /**
+     * @return - the slots of the tokens of a player, as a bit mask.
+     */
+    public int tokens(int table, int player) {
+        return store.tokens(table, player);
+    }
+
+    public int score(int table, int player) {
+        return store.score(table, player);
+    }
+
+    public int sets(int table) {
+        return store.sets(table);
+    }
+
+    /**
+     * @return - the bytes of the state of a single table.
+     */
+    public long bytesPerTable() {
+        return store.bytesPerTable();
+    }
+
+    /**
+     * @return - the bytes of the store and the shared features.
+     */
+    public long bytes() {
+        return store.bytes() + features.length;
+    }
+
+    /**
+     * @return - the footprint of the state.
+     */
+    public String footprint() {
+        return String.format("%d tables of %d cards, %d slots and %d players in %s: %d bytes per table,"
+                        + " %.2f MB in all", tables, deckSize, tableSize, players, store, bytesPerTable(),
+                bytes() / 1048576.0);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * @return - the number of collections and their time (in milliseconds) since the JVM started.
+     */
+    private static long[] collections() {
+        long[] collections = new long[2];
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections[0] += Math.max(0, collector.getCollectionCount());
+            collections[1] += Math.max(0, collector.getCollectionTime());
+        }
+        return collections;
+    }
+
+    /**
+     * Reports the footprint of many tables, measured against the object graph of the same number of real games
+     * (without their threads), and simulates them with the collections of the garbage collector meanwhile.
+     * Usage: CompactGameStates [tables] [heap|direct|mapped]
+     */
+    public static void main(String[] args) throws IOException {
+        int tables = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        String kind = args.length > 1 ? args[1] : "heap";
+        Logger logger = Logger.getLogger("CompactGameStates");
+        Config config = new Config(logger, "config.properties");
+
+        long before = usedHeap();
+        GameStateStore store;
+        if (kind.equals("direct"))
+            store = OffHeapGameStore.direct(config, tables);
+        else if (kind.equals("mapped"))
+            store = OffHeapGameStore.mapped(config, tables, Files.createTempFile("tables", ".bin"));
+        else
+            store = new HeapGameStore(config, tables);
+        try {
+            CompactGameStates states = new CompactGameStates(config, store);
+            states.dealAll(config.seed);
+            long heap = usedHeap() - before;
+            System.out.println(states.footprint());
+            System.out.printf("measured: %d bytes per table on the heap%n", heap / tables);
+
+            // a sample of real games is enough for the bytes per game
+            int games = Math.min(tables, 1000);
+            Env env = new Env(logger, config, null, new UtilImpl(config));
+            Object[] graphs = new Object[games];
+            before = usedHeap();
+            for (int i = 0; i < games; i++) {
+                Table table = new Table(env);
+                Player[] players = new Player[config.players];
+                Dealer dealer = new Dealer(env, table, players);
+                for (int p = 0; p < players.length; p++)
+                    players[p] = new Player(env, dealer, table, p, false);
+                graphs[i] = dealer;
+            }
+            long objects = usedHeap() - before;
+            System.out.printf("object graph of a game (no threads): %d bytes per game%n", objects / games);
+            graphs = null;
+            usedHeap();
+
+            long[] collections = collections();
+            long start = System.nanoTime();
+            int simulated = states.simulate(10, Integer.MAX_VALUE);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long[] after = collections();
+            long sets = 0;
+            for (int table = 0; table < tables; table++)
+                sets += states.sets(table);
+            System.out.printf("simulated %d tables to the end (%.1f s of game time) in %.2f s: %d sets,"
+                            + " %.0f sets/s, %d collections (%d ms)%n", tables, simulated / 1000.0, seconds, sets,
+                    sets / seconds, after[0] - collections[0], after[1] - collections[1]);
+        } finally {
+            if (store instanceof OffHeapGameStore)
+                ((OffHeapGameStore) store).close();
+        }
+    }
+}
@@ -1,11 +1,18 @@
 package bguspl.set.ex;
 
 import bguspl.set.Env;
+import bguspl.set.GameResult;
+import bguspl.set.LatencyTracer;
+import bguspl.set.ShutdownCoordinator;
+import bguspl.set.ThreadLogger;
+import bguspl.set.Watchdog;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Queue;
+import java.util.Random;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Phaser;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -35,15 +42,43 @@ public class Dealer implements Runnable {
      * True iff game should be terminated due to an external event.
      */
     private volatile boolean terminate;
+
+    /**
+     * True iff a player or an AI thread did not terminate in time.
+     */
+    private volatile boolean stragglers;
+
+    /**
+     * The number of rounds to play, the current round (starting from 1), and true iff the current round ended.
+     */
+    private final int rounds;
+    private int round;
+    private boolean roundOver;
+
+    /**
+     * Parks the players between two rounds: the players and the dealer arrive once when the players stopped playing,
+     * and once more when the dealer reset the game for the next round.
+     */
+    final Phaser roundBarrier;
+
+    /**
+     * The result of every round that ended.
+     */
+    private final List<GameResult> results = new ArrayList<>();
     /**
      * current number of sets found
      */
-    private static int numberOfSets = 0;
+    private int numberOfSets;
 
     /**
      * max number of sets in the deck
      */
-    private final static int maxNumberOfSets = 27;
+    private final int maxNumberOfSets;
+
+    /**
+     * shuffles the deck (seeded by the configuration, so a game can be replayed)
+     */
+    private final Random random;
 
     /**
      * keeps the players that sent the dealer set to check
@@ -55,11 +90,6 @@ public class Dealer implements Runnable {
      */
     public Thread dealerThread;
 
-    /**
-     * keep the number 3
-     */
-    private final int setSize;
-
     /**
      * keeps the sleep time for the function sleepUntilWoken.
      */
@@ -80,6 +110,12 @@ public class Dealer implements Runnable {
      */
     private final long turnTimeOutWarningMillis;
 
+    /**
+     * The time the game started and ended (for the game result).
+     */
+    private long startNanos;
+    private long endNanos;
+
     /**
      * The time when the dealer needs to reshuffle the deck due to turn timeout.
      */
@@ -90,6 +126,30 @@ public class Dealer implements Runnable {
      */
     public final ConcurrentLinkedQueue<Integer>[] tokens;
 
+    /**
+     * The sets found by every player (the players add their points by themselves, a bit later).
+     */
+    private final int[] scores;
+
+    /**
+     * The checkpoint file (null for no checkpoints), the snapshot that is filled for every checkpoint and the time of
+     * the last checkpoint.
+     */
+    private CheckpointFile checkpoint;
+    private GameSnapshot snapshot;
+    private long checkpointTime;
+
+    /**
+     * The snapshot the game is resumed from (null for a new game).
+     */
+    private GameSnapshot resume;
+
+    /**
+     * The progress of the dealer thread (for the watchdog), and what the watchdog does when the dealer stalls.
+     */
+    private final Watchdog.Heartbeat heartbeat;
+    private final Runnable gameRecovery = this::terminate;
+
     public Dealer(Env env, Table table, Player[] players) {
         this.env = env;
         this.table = table;
@@ -97,12 +157,28 @@ public class Dealer implements Runnable {
         deck = IntStream.range(0, env.config.deckSize).boxed().collect(Collectors.toList());
         terminate = false;
         playersQueue = new ConcurrentLinkedQueue<>();
-        setSize = 3;
         turnTimeOutMillis = env.config.turnTimeoutMillis;
         turnTimeOutWarningMillis = env.config.turnTimeoutWarningMillis;
+        maxNumberOfSets = env.config.deckSize / 3;
+        random = new Random(env.config.seed);
         tokens = new ConcurrentLinkedQueue [env.config.tableSize];
         for(int i = 0; i < tokens.length; i++)
             tokens[i] = new ConcurrentLinkedQueue<>();
+        scores = new int[players.length];
+        rounds = env.config.rounds;
+        roundBarrier = new Phaser(players.length + 1);
+        heartbeat = env.watchdog.heartbeat("dealer", this::describe);
+    }
+
+    /**
+     * Checkpoints the game to a file (call before the dealer thread starts).
+     * @param checkpoint - the checkpoint file.
+     * @param resume     - the snapshot to resume the game from, or null to play a new game.
+     */
+    public void setCheckpoint(CheckpointFile checkpoint, GameSnapshot resume) {
+        this.checkpoint = checkpoint;
+        this.resume = resume;
+        snapshot = new GameSnapshot(env.config.deckSize, env.config.tableSize, players.length);
     }
 
     /**
@@ -112,30 +188,112 @@ public class Dealer implements Runnable {
     public void run() {
         dealerThread = Thread.currentThread();
         env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + " starting.");
+        startNanos = System.nanoTime();
+        heartbeat.expect("the deal", reshuffleMillis(), gameRecovery);
+        // the players start from the restored tokens (a complete claim is submitted by the player when it starts)
+        if (resume != null)
+            restore(resume);
         for(int i = 0; i<players.length; i++){
-            Thread playerThread = new Thread(players[i], "player"+" "+i);
+            // the player logs its own start
+            Thread playerThread = new ThreadLogger(players[i], "player"+" "+i, env.logger, env.accounting);
             playerThread.start();
         }
-        shuffleDeck();
-        placeCardsOnTable();
-        while (!terminate) {
-            updateTimerDisplay(true);
-            enablePlayers();
-            timerLoop();
-            blockPlayers();
-            removeAllCardsFromTable();
+        if (resume == null) {
+            shuffleDeck();
+            placeCardsOnTable();
         }
+        checkpoint(false);
+        round = 1;
+        playRound();
+        while (!terminate && round < rounds) {
+            endRound();
+            if (terminate)
+                break;
+            round++;
+            resetRound();
+            playRound();
+        }
+        // nobody waits for anything in a finished game (e.g. the players wait for the end of the game pause)
+        heartbeat.close();
+        for (Player player : players)
+            player.heartbeat.close();
         announceWinners();
+        env.tracer.dump(env.logger);
         try {
             Thread.sleep(env.config.endGamePauseMillies);
         } catch (Exception e) {
             // TODO: handle exception
         }
         terminate();
+        results.add(result(round - 1));
+        env.trace.write(env.logger);
         env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + " terminated.");
 
     }
 
+    /**
+     * Plays the current round until there are no sets left (or the game is terminated).
+     */
+    private void playRound() {
+        while (!terminate && !roundOver) {
+            updateTimerDisplay(true);
+            enablePlayers();
+            timerLoop();
+            blockPlayers();
+            removeAllCardsFromTable();
+        }
+        endNanos = System.nanoTime();
+    }
+
+    /**
+     * Stops the players at the round barrier, then announces the winners of the round (the players add their last
+     * points before they arrive) and pauses on them.
+     */
+    private void endRound() {
+        heartbeat.expect("the players to finish the round",
+                reshuffleMillis() + Math.max(env.config.pointFreezeMillis, env.config.penaltyFreezeMillis),
+                gameRecovery);
+        for (Player player : players)
+            player.endRound();
+        roundBarrier.arriveAndAwaitAdvance();
+        heartbeat.idle();
+        if (terminate)
+            return;
+        results.add(result(round - 1));
+        announceWinners();
+        try {
+            Thread.sleep(env.config.endGamePauseMillies);
+        } catch (InterruptedException ignored) {}
+    }
+
+    /**
+     * Resets the game in place for the next round, reusing the player and AI threads, the table and the arrays, and
+     * lets the players go.
+     */
+    private void resetRound() {
+        env.logger.info("round " + round + " of " + rounds);
+        startNanos = System.nanoTime();
+        heartbeat.expect("the deal", reshuffleMillis(), gameRecovery);
+        // all the cards were returned to the deck when the last round ended
+        deck.clear();
+        for (int card = 0; card < env.config.deckSize; card++)
+            deck.add(card);
+        for (ConcurrentLinkedQueue<Integer> slotTokens : tokens)
+            slotTokens.clear();
+        playersQueue.clear();
+        numberOfSets = 0;
+        Arrays.fill(scores, 0);
+        roundOver = false;
+        reset = false;
+        reshuffleTime = Long.MAX_VALUE;
+        for (Player player : players)
+            player.resetRound();
+        shuffleDeck();
+        placeCardsOnTable();
+        checkpoint(false);
+        roundBarrier.arriveAndAwaitAdvance();
+    }
+
     /**
      * The inner loop of the dealer thread that runs as long as the countdown did not time out.
      */
@@ -145,22 +303,36 @@ public class Dealer implements Runnable {
             updateTimerDisplay(reset);
             if(checkSet()){
                 reset = true;
-            }
+                checkpoint(false);
+            } else if (checkpoint != null && System.currentTimeMillis() - checkpointTime >= env.config.checkpointMillis)
+                checkpoint(false);
 
         }
     }
 
     /**
      * Called when the game should be terminated due to an external event.
+     * All the players are signalled at once and then waited for until a single deadline.
      */
     public void terminate() {
-        for (int i = players.length - 1; i >= 0; i--) {
-            players[i].terminate();
-        }
+        // the players that wait for the next round are let go
+        roundBarrier.forceTermination();
+        ShutdownCoordinator shutdown = new ShutdownCoordinator(env.logger, env.config.shutdownMillis);
+        for (Player player : players)
+            shutdown.add(player::signalTerminate, player.playerThread, player.aiThread);
+        if (!shutdown.shutdown().isEmpty())
+            stragglers = true;
         terminate = true;
         dealerThread.interrupt();
     }
 
+    /**
+     * @return - true iff a thread of the game did not terminate in time when the game was terminated.
+     */
+    public boolean hasStragglers() {
+        return stragglers;
+    }
+
     /**
      * Check if the game should be terminated or the game end conditions are met.
      *
@@ -174,15 +346,24 @@ public class Dealer implements Runnable {
      * Returns all the cards from the table to the deck.
      */
     public void removeAllCardsFromTable() {
+            long begin = env.trace.begin();
+            GameEvents.Reshuffle reshuffle = GameEvents.beginReshuffle();
+            int returned = 0;
             Integer[] slotToCard = table.slotToCard;
             int slotToCardLength = slotToCard.length;
             for (int i = 0; i < slotToCardLength; i++) {
-                while (!tokens[i].isEmpty()) {
-                    table.removeToken(tokens[i].remove(), i);
-                }
-                if (slotToCard[i] != null) {
-                    deck.add(slotToCard[i]);
-                    table.removeCard(i);
+                table.lockSlot(i);
+                try {
+                    while (!tokens[i].isEmpty()) {
+                        table.removeToken(tokens[i].remove(), i);
+                    }
+                    if (slotToCard[i] != null) {
+                        deck.add(slotToCard[i]);
+                        table.removeCard(i);
+                        returned++;
+                    }
+                } finally {
+                    table.unlockSlot(i);
                 }
             }
             for (Player player : players) {
@@ -192,43 +373,70 @@ public class Dealer implements Runnable {
             if (!shouldFinish()) {
                 shuffleDeck();
                 placeCardsOnTable();
+                checkpoint(false);
             } else {
-                terminate = true;
+                // a game that was terminated from outside is left to be resumed
+                if (!terminate)
+                    checkpoint(true);
+                roundOver = true;
             }
+            GameEvents.endReshuffle(reshuffle, returned, deck.size(), roundOver || terminate, table.boardEpoch());
+            env.trace.end("dealer", "reshuffle", begin);
 
     }
 
 
     /**
      * Checks cards should be removed from the table and removes them.
+     * Only the slots of the set are frozen, the players keep playing on the rest of the table.
      */
     private void removeCardsFromTable(int [] set) {
-            for (int card : set) {
-                int slot = table.cardToSlot[card];
-                while (!tokens[slot].isEmpty()) {
-                    int id = tokens[slot].remove();
-                    players[id].removeKeyPressTracking(slot);
-                    table.removeToken(id, slot);
+            long begin = env.trace.begin();
+            int [] slots = new int[set.length];
+            for (int i = 0; i < set.length; i++) {
+                slots[i] = table.cardToSlot[set[i]];
+                table.lockSlot(slots[i]);
+            }
+            try {
+                for (int slot : slots) {
+                    while (!tokens[slot].isEmpty()) {
+                        int id = tokens[slot].remove();
+                        players[id].removeKeyPressTracking(slot);
+                        table.removeToken(id, slot);
+                    }
+                    table.removeCard(slot);
                 }
-                table.removeCard(slot);
-
+                for (int slot : slots)
+                    if (!deck.isEmpty())
+                        table.placeCard(deck.remove(0), slot);
+            } finally {
+                for (int slot : slots)
+                    table.unlockSlot(slot);
             }
-            placeCardsOnTable();
+            env.trace.end("dealer", "replace set", begin);
     }
 
     /**
      * Check if any cards can be removed from the deck and placed on the table.
      */
     private void placeCardsOnTable() {
+        long begin = env.trace.begin();
         Integer[] slotToCard = table.slotToCard;
         for (int i = 0; i < slotToCard.length; i++) {
             if (slotToCard[i] == null) {
                 if (!deck.isEmpty()) {
                     Integer card = deck.remove(0);
-                    table.placeCard(card, i);
+                    // a player toggling the slot meanwhile sees either no card or the card with its epoch
+                    table.lockSlot(i);
+                    try {
+                        table.placeCard(card, i);
+                    } finally {
+                        table.unlockSlot(i);
+                    }
                 }
             }
         }
+        env.trace.end("dealer", "deal", begin);
 
     }
 
@@ -236,37 +444,122 @@ public class Dealer implements Runnable {
      * Sleep for a fixed amount of time or until the thread is awakened for some purpose.
      */
     private void sleepUntilWokenOrTimeout() {
+        long begin = env.trace.begin();
+        // the turn includes the work after the wait, up to a whole reshuffle
+        heartbeat.expect("a turn of the dealer", sleepTime + reshuffleMillis(), gameRecovery);
         synchronized(this){
             try {
-                wait(sleepTime);
+                // a claim that was queued before the dealer got here would not wake him up (notifyDealer holds the lock)
+                if (playersQueue.isEmpty())
+                    wait(sleepTime);
             } catch (Exception e) {
                 // TODO: handle exception
             }
         }
+        env.trace.end("dealer", "wait", begin);
     }
 
     /**
      * shuffle the deck of cards
      */
     private void shuffleDeck(){
-        Collections.shuffle(deck);
+        Collections.shuffle(deck, random);
     }
 
     /**
      * Reset and/or update the countdown and the countdown display.
+     * The user interface renders the countdown by itself from the deadline, so the dealer only sleeps until the
+     * reshuffle time (or until a player wakes him up).
      */
     private void updateTimerDisplay(boolean reset){
         if(reset){
-            env.ui.setCountdown(turnTimeOutMillis, false);
-            reshuffleTime = System.currentTimeMillis() + turnTimeOutMillis +999;
+            long timeout = turnTimeOutMillis + 999;
+            reshuffleTime = System.currentTimeMillis() + timeout;
+            env.ui.setCountdownDeadline(System.nanoTime() + timeout * 1000000L, turnTimeOutWarningMillis);
             this.reset = false;
-            sleepTime = 20;
         }
-        else if(reshuffleTime - System.currentTimeMillis() > 0 && reshuffleTime - System.currentTimeMillis() < turnTimeOutWarningMillis){
-            env.ui.setCountdown(reshuffleTime - System.currentTimeMillis() , true);
-            sleepTime = 1;
-        } else{
-            env.ui.setCountdown( reshuffleTime - System.currentTimeMillis() , false);
+        sleepTime = Math.max(1, reshuffleTime - System.currentTimeMillis());
+        if (checkpoint != null)
+            sleepTime = Math.min(sleepTime, env.config.checkpointMillis);
+    }
+
+    /**
+     * Writes the state of the game to the checkpoint file (if any).
+     * Only the dealer thread changes the deck and the table, so they are consistent here. The tokens are placed by
+     * the players meanwhile, so the snapshot has the tokens of a moment close to it.
+     * @param finished - true iff the game ended.
+     */
+    private void checkpoint(boolean finished) {
+        if (checkpoint == null)
+            return;
+        snapshot.finished = finished;
+        snapshot.seed = env.config.seed;
+        snapshot.sets = numberOfSets;
+        snapshot.deckLength = deck.size();
+        for (int i = 0; i < snapshot.deckLength; i++)
+            snapshot.deck[i] = deck.get(i);
+        for (int slot = 0; slot < snapshot.table.length; slot++) {
+            Integer card = table.slotToCard[slot];
+            snapshot.table[slot] = card == null ? -1 : card;
+        }
+        System.arraycopy(scores, 0, snapshot.scores, 0, scores.length);
+        Arrays.fill(snapshot.tokens, -1);
+        for (int slot = 0; slot < tokens.length; slot++)
+            for (int id : tokens[slot]) {
+                int at = id * GameSnapshot.TOKENS, end = at + GameSnapshot.TOKENS;
+                while (at < end && snapshot.tokens[at] >= 0)
+                    at++;
+                if (at < end)
+                    snapshot.tokens[at] = slot;
+            }
+        long begin = env.trace.begin();
+        checkpoint.write(snapshot);
+        env.trace.end("dealer", "checkpoint", begin);
+        checkpointTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @return - the time it takes the dealer to return all the cards to the deck and deal them again (the longest a
+     * player waits for the dealer without a reason).
+     */
+    long reshuffleMillis() {
+        return 2L * env.config.tableSize * env.config.tableDelayMillis;
+    }
+
+    /**
+     * Describes the state of the game (for the watchdog, from another thread, so it may be a bit inconsistent).
+     */
+    String describe() {
+        StringBuilder sb = new StringBuilder("sets ").append(numberOfSets).append(", deck ").append(deck.size())
+                .append(", table ").append(Arrays.toString(table.slotToCard)).append(", claims [");
+        for (Player player : playersQueue)
+            sb.append(sb.charAt(sb.length() - 1) == '[' ? "" : ", ").append(player.id);
+        sb.append("], reshuffle in ").append(reshuffleTime == Long.MAX_VALUE ? "-"
+                : Long.toString(reshuffleTime - System.currentTimeMillis())).append(" ms");
+        for (Player player : players)
+            if (player != null)
+                sb.append(", player ").append(player.id).append(": score ").append(player.score)
+                        .append(player.penalty == -1 ? ", claiming" : player.penalty > 0 ? ", frozen" : "")
+                        .append(player.flagWaitRemoveCards ? ", blocked" : "")
+                        .append(", tokens ").append(player.tokensTracking);
+        return sb.toString();
+    }
+
+    /**
+     * Puts the game back in the state of a snapshot.
+     */
+    private void restore(GameSnapshot snapshot) {
+        env.logger.info("resuming the game from checkpoint " + snapshot.sequence);
+        deck.clear();
+        for (int i = 0; i < snapshot.deckLength; i++)
+            deck.add(snapshot.deck[i]);
+        for (int slot = 0; slot < snapshot.table.length; slot++)
+            if (snapshot.table[slot] >= 0)
+                table.placeCard(snapshot.table[slot], slot);
+        numberOfSets = snapshot.sets;
+        for (Player player : players) {
+            scores[player.id] = snapshot.scores[player.id];
+            player.restore(snapshot.scores[player.id], snapshot.tokens, player.id * GameSnapshot.TOKENS);
         }
     }
 
@@ -279,16 +572,21 @@ public class Dealer implements Runnable {
             return false;
         boolean ans = false;
         Player player = playersQueue.remove();
+        long begin = env.trace.begin();
+        long dequeueStamp = env.tracer.stamp();
+        env.tracer.record(LatencyTracer.Stage.CLAIM_QUEUE, player.claimStamp);
         int [] set = player.set;
-        Queue<Integer> tokensTracking = player.tokensTracking;
-        boolean sameCardsInSlots = sameCardsInSlots(set , tokensTracking);
+        boolean sameCardsInSlots = table.isCurrent(player.setSlots, player.setEpochs);
         boolean isSet = env.util.testSet(set);
         if (isSet && sameCardsInSlots){
             numberOfSets++;
-            blockPlayers();
+            scores[player.id]++;
             removeCardsFromTable(set);
-            if(numberOfSets < maxNumberOfSets)
-                enablePlayers();
+            if(numberOfSets >= maxNumberOfSets) {
+                // all the cards were used, there is nothing left to wait for
+                blockPlayers();
+                reshuffleTime = System.currentTimeMillis();
+            }
             player.penalty = 1;
             ans = true;
         } else if (!isSet && sameCardsInSlots){
@@ -296,6 +594,14 @@ public class Dealer implements Runnable {
         } else{
             player.penalty = 0;
         }
+        env.tracer.record(LatencyTracer.Stage.VERDICT, dequeueStamp);
+        env.tracer.record(LatencyTracer.Stage.PRESS_TO_VERDICT, player.claimPressStamp);
+        long waitNanos = System.nanoTime() - player.claimStartNanos;
+        GameEvents.claimVerdict(player.id, player.setSlots, ans ? "point" : player.penalty == 3 ? "penalty" : "stale",
+                waitNanos, playersQueue.size(), table.boardEpoch());
+        player.claims++;
+        player.claimNanos += waitNanos;
+        env.trace.end("dealer", "check claim", begin);
         player.notifyPlayer();
         return ans;
     }
@@ -391,26 +697,35 @@ public class Dealer implements Runnable {
         playersQueue.add(p);
     }
 
+    public Player[] getPlayers() {
+        return players;
+    }
+
+    public int numberOfSets() {
+        return numberOfSets;
+    }
+
     /**
-     * check if the card of set are still on the table
+     * @return - the results of all the rounds, by round (call after the dealer thread finished).
      */
-    public boolean sameCardsInSlots(int [] set , Queue<Integer>b){
-        boolean ans = true;
-        for(int i = 0; i < setSize && ans; i++){
-            int card = set[i];
-            Iterator<Integer> it = b.iterator();
-            ans = false;
-            while(it.hasNext() && !ans){
-                int slot = it.next();
-                if(table.slotToCard[slot] == card)
-                    ans = true;
-            }
-        }
-        return ans;
+    public List<GameResult> results() {
+        return new ArrayList<>(results);
     }
 
-
-    public Player[] getPlayers() {
-        return players;
+    /**
+     * @param game - the number of the game.
+     * @return - the result of the game (call after the dealer thread finished).
+     */
+    public GameResult result(int game) {
+        int[] scores = new int[players.length];
+        int[] claims = new int[players.length];
+        long[] claimNanos = new long[players.length];
+        for (int i = 0; i < players.length; i++) {
+            scores[i] = players[i].score();
+            claims[i] = players[i].claims;
+            claimNanos[i] = players[i].claimNanos;
+        }
+        return new GameResult(game, env.config.seed, env.config.playerNames, scores, claims, claimNanos, numberOfSets,
+                endNanos - startNanos);
     }
 }
@@ -0,0 +1,229 @@
+package bguspl.set.ex;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events of the game, so a recording shows the deals, the claims and the freezes next to the GC
+ * and the lock contention that delayed them (e.g. java -XX:StartFlightRecording:filename=set.jfr -jar ...).
+ * <p>
+ * The events are created and committed by the methods below only if their type is enabled in a running recording
+ * (shouldCommit), otherwise the JIT removes the allocation and a call costs a branch. The board epoch of an event is
+ * the number of card changes on the whole table so far (see Table.boardEpoch).
+ */
+final class GameEvents {
+
+    private static final String CATEGORY = "SET Game";
+
+    private GameEvents() {}
+
+    @Name("bguspl.set.CardPlaced")
+    @Label("Card Placed")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class CardPlaced extends Event {
+        @Label("Card")
+        int card;
+        @Label("Slot")
+        int slot;
+        @Label("Board Epoch")
+        long epoch;
+    }
+
+    @Name("bguspl.set.CardRemoved")
+    @Label("Card Removed")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class CardRemoved extends Event {
+        @Label("Card")
+        int card;
+        @Label("Slot")
+        int slot;
+        @Label("Board Epoch")
+        long epoch;
+    }
+
+    @Name("bguspl.set.TokenToggled")
+    @Label("Token Toggled")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class TokenToggled extends Event {
+        @Label("Player")
+        int player;
+        @Label("Slot")
+        int slot;
+        @Label("Placed")
+        @Description("True if the token was placed, false if it was removed")
+        boolean placed;
+        @Label("Board Epoch")
+        long epoch;
+    }
+
+    @Name("bguspl.set.ClaimSubmitted")
+    @Label("Claim Submitted")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class ClaimSubmitted extends Event {
+        @Label("Player")
+        int player;
+        @Label("Slots")
+        String slots;
+        @Label("Board Epoch")
+        long epoch;
+    }
+
+    @Name("bguspl.set.ClaimVerdict")
+    @Label("Claim Verdict")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class ClaimVerdict extends Event {
+        @Label("Player")
+        int player;
+        @Label("Slots")
+        String slots;
+        @Label("Verdict")
+        @Description("point, penalty or stale (the cards changed before the dealer checked the claim)")
+        String verdict;
+        @Label("Wait Time")
+        @Description("The time from the claim to the verdict")
+        @Timespan
+        long waitNanos;
+        @Label("Queued Claims")
+        int queued;
+        @Label("Board Epoch")
+        long epoch;
+    }
+
+    @Name("bguspl.set.Reshuffle")
+    @Label("Reshuffle")
+    @Category(CATEGORY)
+    static final class Reshuffle extends Event {
+        @Label("Cards Returned")
+        int returned;
+        @Label("Deck Size")
+        int deck;
+        @Label("Game Over")
+        boolean finished;
+        @Label("Board Epoch")
+        long epoch;
+    }
+
+    @Name("bguspl.set.Freeze")
+    @Label("Player Freeze")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Freeze extends Event {
+        @Label("Player")
+        int player;
+        @Label("Penalty")
+        @Description("True for a penalty freeze, false for a point freeze")
+        boolean penalty;
+        @Label("Freeze Time")
+        @Timespan(Timespan.MILLISECONDS)
+        long millis;
+    }
+
+    private static String slots(int[] slots) {
+        StringBuilder sb = new StringBuilder();
+        for (int slot : slots)
+            sb.append(sb.length() == 0 ? "" : ",").append(slot);
+        return sb.toString();
+    }
+
+    static void cardPlaced(int card, int slot, long epoch) {
+        CardPlaced event = new CardPlaced();
+        if (event.shouldCommit()) {
+            event.card = card;
+            event.slot = slot;
+            event.epoch = epoch;
+            event.commit();
+        }
+    }
+
+    static void cardRemoved(int card, int slot, long epoch) {
+        CardRemoved event = new CardRemoved();
+        if (event.shouldCommit()) {
+            event.card = card;
+            event.slot = slot;
+            event.epoch = epoch;
+            event.commit();
+        }
+    }
+
+    static void tokenToggled(int player, int slot, boolean placed, long epoch) {
+        TokenToggled event = new TokenToggled();
+        if (event.shouldCommit()) {
+            event.player = player;
+            event.slot = slot;
+            event.placed = placed;
+            event.epoch = epoch;
+            event.commit();
+        }
+    }
+
+    static void claimSubmitted(int player, int[] slots, long epoch) {
+        ClaimSubmitted event = new ClaimSubmitted();
+        if (event.shouldCommit()) {
+            event.player = player;
+            event.slots = slots(slots);
+            event.epoch = epoch;
+            event.commit();
+        }
+    }
+
+    static void claimVerdict(int player, int[] slots, String verdict, long waitNanos, int queued, long epoch) {
+        ClaimVerdict event = new ClaimVerdict();
+        if (event.shouldCommit()) {
+            event.player = player;
+            event.slots = slots(slots);
+            event.verdict = verdict;
+            event.waitNanos = waitNanos;
+            event.queued = queued;
+            event.epoch = epoch;
+            event.commit();
+        }
+    }
+
+    /**
+     * Starts a reshuffle (commit it with endReshuffle).
+     */
+    static Reshuffle beginReshuffle() {
+        Reshuffle event = new Reshuffle();
+        event.begin();
+        return event;
+    }
+
+    static void endReshuffle(Reshuffle event, int returned, int deck, boolean finished, long epoch) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.returned = returned;
+            event.deck = deck;
+            event.finished = finished;
+            event.epoch = epoch;
+            event.commit();
+        }
+    }
+
+    /**
+     * Starts a freeze of a player (commit it with endFreeze).
+     */
+    static Freeze beginFreeze(int player, boolean penalty, long millis) {
+        Freeze event = new Freeze();
+        event.player = player;
+        event.penalty = penalty;
+        event.millis = millis;
+        event.begin();
+        return event;
+    }
+
+    static void endFreeze(Freeze event) {
+        event.end();
+        if (event.shouldCommit())
+            event.commit();
+    }
+}
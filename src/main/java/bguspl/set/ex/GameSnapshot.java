@@ -0,0 +1,77 @@
+package bguspl.set.ex;
+
+import java.util.Arrays;
+
+/**
+ * The state that is needed to resume a game: the deck, the cards on the table, the scores and the tokens.
+ * The arrays have a fixed size (by the configuration), so the dealer fills the same snapshot for every checkpoint.
+ */
+public class GameSnapshot {
+
+    /**
+     * The number of tokens a player can have on the table.
+     */
+    public static final int TOKENS = 3;
+
+    /**
+     * The number of the checkpoint (set by CheckpointFile).
+     */
+    public long sequence;
+
+    /**
+     * True iff the game ended (so there is nothing to resume).
+     */
+    public boolean finished;
+
+    public long seed;
+
+    /**
+     * The number of sets found so far.
+     */
+    public int sets;
+
+    /**
+     * The cards in the deck, in order (the first deckLength entries).
+     */
+    public int deckLength;
+    public final int[] deck;
+
+    /**
+     * The card in every slot (-1 for an empty slot).
+     */
+    public final int[] table;
+
+    /**
+     * The scores, by player id.
+     */
+    public final int[] scores;
+
+    /**
+     * The slots of the tokens of every player (TOKENS entries per player, -1 for no token).
+     */
+    public final int[] tokens;
+
+    public GameSnapshot(int deckSize, int tableSize, int players) {
+        deck = new int[deckSize];
+        table = new int[tableSize];
+        scores = new int[players];
+        tokens = new int[players * TOKENS];
+        Arrays.fill(table, -1);
+        Arrays.fill(tokens, -1);
+    }
+
+    /**
+     * Copies another snapshot of a game of the same dimensions into this one.
+     */
+    public void copy(GameSnapshot other) {
+        sequence = other.sequence;
+        finished = other.finished;
+        seed = other.seed;
+        sets = other.sets;
+        deckLength = other.deckLength;
+        System.arraycopy(other.deck, 0, deck, 0, deckLength);
+        System.arraycopy(other.table, 0, table, 0, table.length);
+        System.arraycopy(other.scores, 0, scores, 0, scores.length);
+        System.arraycopy(other.tokens, 0, tokens, 0, tokens.length);
+    }
+}
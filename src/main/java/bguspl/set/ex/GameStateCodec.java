@@ -0,0 +1,337 @@
+package bguspl.set.ex;
+
+import bguspl.set.RemoteProtocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A versioned binary encoding of game snapshots (see GameSnapshot) and game events, for replays, spectators and
+ * remote players.
+ * <p>
+ * Every message starts with the version and the kind of the message:
+ * <ul>
+ * <li>FULL - the whole snapshot.</li>
+ * <li>DELTA - the changes of a snapshot from a base snapshot (usually the previous one): the cards drawn from the
+ * top of the deck (or the whole deck after a reshuffle) and the table slots, scores and tokens that changed, each
+ * marked in a bit mask.</li>
+ * <li>EVENT - a single change (a card, a token, a score or a set).</li>
+ * </ul>
+ * Numbers are big endian. Card ids, slots and player ids are unsigned shorts, and -1 (no card or no token) is sent as
+ * 0xFFFF. Messages are written to and read from the caller's buffers and snapshots, so nothing is allocated.
+ */
+public final class GameStateCodec {
+
+    public static final byte VERSION = 1;
+
+    /**
+     * The kinds of messages.
+     */
+    public static final byte FULL = 1;
+    public static final byte DELTA = 2;
+    public static final byte EVENT = 3;
+
+    /**
+     * The kinds of events.
+     */
+    public static final byte PLACE_CARD = 1;    // card, slot
+    public static final byte REMOVE_CARD = 2;   // slot
+    public static final byte PLACE_TOKEN = 3;   // player, slot
+    public static final byte REMOVE_TOKEN = 4;  // player, slot
+    public static final byte SCORE = 5;         // player, score (int)
+    public static final byte SET = 6;           // player (the cards of the set are removed by REMOVE_CARD events)
+
+    /**
+     * How the deck of a delta is encoded.
+     */
+    private static final byte DECK_DRAWN = 0;   // count of the cards drawn from the top
+    private static final byte DECK_FULL = 1;    // length, cards
+
+    private static final int NONE = 0xFFFF;
+
+    private GameStateCodec() {}
+
+    /**
+     * @return - the largest message of a game of the given dimensions.
+     */
+    public static int maxSize(int deckSize, int tableSize, int players) {
+        int full = 2 + 8 + 1 + 8 + 4 + 4 * 2 + 2 * deckSize + 2 * tableSize + 4 * players
+                + 2 * players * GameSnapshot.TOKENS;
+        int delta = 2 + 8 + 8 + 1 + 4 + 1 + 2 + 2 * deckSize + masks(tableSize) + 2 * tableSize + masks(players)
+                + 4 * players + masks(players) + 2 * players * GameSnapshot.TOKENS;
+        return Math.max(full, delta);
+    }
+
+    private static int masks(int bits) {
+        return (bits + 7) / 8;
+    }
+
+    private static void putId(ByteBuffer buffer, int id) {
+        buffer.putShort((short) (id < 0 ? NONE : id));
+    }
+
+    private static int getId(ByteBuffer buffer) {
+        int id = buffer.getShort() & 0xFFFF;
+        return id == NONE ? -1 : id;
+    }
+
+    private static void header(ByteBuffer buffer, byte kind) {
+        buffer.put(VERSION).put(kind);
+    }
+
+    /**
+     * Reads the header of a message.
+     * @return - the kind of the message.
+     * @throws IllegalArgumentException - if the message is of another version.
+     */
+    public static byte kind(ByteBuffer buffer) {
+        byte version = buffer.get();
+        if (version != VERSION)
+            throw new IllegalArgumentException("unsupported game state version " + version);
+        return buffer.get();
+    }
+
+    /**
+     * Writes a whole snapshot.
+     * @param snapshot - the snapshot.
+     * @param buffer   - the buffer to write to.
+     * @return - the buffer.
+     */
+    public static ByteBuffer putFull(GameSnapshot snapshot, ByteBuffer buffer) {
+        header(buffer, FULL);
+        buffer.putLong(snapshot.sequence).put((byte) (snapshot.finished ? 1 : 0)).putLong(snapshot.seed)
+                .putInt(snapshot.sets);
+        buffer.putShort((short) snapshot.deck.length).putShort((short) snapshot.table.length)
+                .putShort((short) snapshot.scores.length).putShort((short) snapshot.deckLength);
+        for (int i = 0; i < snapshot.deckLength; i++)
+            putId(buffer, snapshot.deck[i]);
+        for (int card : snapshot.table)
+            putId(buffer, card);
+        for (int score : snapshot.scores)
+            buffer.putInt(score);
+        for (int slot : snapshot.tokens)
+            putId(buffer, slot);
+        return buffer;
+    }
+
+    /**
+     * Reads a whole snapshot (after its header, see kind).
+     * @param buffer   - the buffer to read from.
+     * @param snapshot - the snapshot to read into (of a game of the same dimensions).
+     * @return - the snapshot.
+     */
+    public static GameSnapshot getFull(ByteBuffer buffer, GameSnapshot snapshot) {
+        snapshot.sequence = buffer.getLong();
+        snapshot.finished = buffer.get() != 0;
+        snapshot.seed = buffer.getLong();
+        snapshot.sets = buffer.getInt();
+        int deckSize = buffer.getShort() & 0xFFFF, tableSize = buffer.getShort() & 0xFFFF;
+        int players = buffer.getShort() & 0xFFFF;
+        if (deckSize != snapshot.deck.length || tableSize != snapshot.table.length || players != snapshot.scores.length)
+            throw new IllegalArgumentException("a snapshot of a game of " + deckSize + " cards, " + tableSize
+                    + " slots and " + players + " players");
+        snapshot.deckLength = buffer.getShort() & 0xFFFF;
+        for (int i = 0; i < snapshot.deckLength; i++)
+            snapshot.deck[i] = getId(buffer);
+        for (int slot = 0; slot < tableSize; slot++)
+            snapshot.table[slot] = getId(buffer);
+        for (int player = 0; player < players; player++)
+            snapshot.scores[player] = buffer.getInt();
+        for (int i = 0; i < snapshot.tokens.length; i++)
+            snapshot.tokens[i] = getId(buffer);
+        return snapshot;
+    }
+
+    /**
+     * Writes the changes of a snapshot from a base snapshot.
+     * @param base     - the base snapshot (the reader must have it).
+     * @param snapshot - the snapshot.
+     * @param buffer   - the buffer to write to.
+     * @return - the buffer.
+     */
+    public static ByteBuffer putDelta(GameSnapshot base, GameSnapshot snapshot, ByteBuffer buffer) {
+        header(buffer, DELTA);
+        buffer.putLong(base.sequence).putLong(snapshot.sequence).put((byte) (snapshot.finished ? 1 : 0))
+                .putInt(snapshot.sets);
+
+        // the dealer draws from the top of the deck, so the deck is usually the tail of the base deck
+        int drawn = base.deckLength - snapshot.deckLength;
+        boolean tail = drawn >= 0;
+        for (int i = 0; tail && i < snapshot.deckLength; i++)
+            tail = snapshot.deck[i] == base.deck[drawn + i];
+        if (tail)
+            buffer.put(DECK_DRAWN).putShort((short) drawn);
+        else {
+            buffer.put(DECK_FULL).putShort((short) snapshot.deckLength);
+            for (int i = 0; i < snapshot.deckLength; i++)
+                putId(buffer, snapshot.deck[i]);
+        }
+
+        putMask(buffer, base.table, snapshot.table, 1);
+        for (int slot = 0; slot < snapshot.table.length; slot++)
+            if (snapshot.table[slot] != base.table[slot])
+                putId(buffer, snapshot.table[slot]);
+        putMask(buffer, base.scores, snapshot.scores, 1);
+        for (int player = 0; player < snapshot.scores.length; player++)
+            if (snapshot.scores[player] != base.scores[player])
+                buffer.putInt(snapshot.scores[player]);
+        putMask(buffer, base.tokens, snapshot.tokens, GameSnapshot.TOKENS);
+        for (int player = 0; player < snapshot.scores.length; player++)
+            if (changed(base.tokens, snapshot.tokens, player * GameSnapshot.TOKENS, GameSnapshot.TOKENS))
+                for (int i = 0; i < GameSnapshot.TOKENS; i++)
+                    putId(buffer, snapshot.tokens[player * GameSnapshot.TOKENS + i]);
+        return buffer;
+    }
+
+    private static boolean changed(int[] base, int[] values, int from, int length) {
+        for (int i = from; i < from + length; i++)
+            if (base[i] != values[i])
+                return true;
+        return false;
+    }
+
+    /**
+     * Writes a bit mask of the groups of entries that changed (bit i of byte j is group 8 * j + i).
+     */
+    private static void putMask(ByteBuffer buffer, int[] base, int[] values, int group) {
+        int groups = values.length / group;
+        for (int first = 0; first < groups; first += 8) {
+            int mask = 0;
+            for (int i = first; i < Math.min(groups, first + 8); i++)
+                if (changed(base, values, i * group, group))
+                    mask |= 1 << (i - first);
+            buffer.put((byte) mask);
+        }
+    }
+
+    private static boolean isSet(ByteBuffer buffer, int maskStart, int bit) {
+        return (buffer.get(maskStart + bit / 8) & 1 << (bit % 8)) != 0;
+    }
+
+    /**
+     * Reads the changes of a snapshot from a base snapshot (after the header, see kind).
+     * @param buffer   - the buffer to read from.
+     * @param base     - the base snapshot.
+     * @param snapshot - the snapshot to read into (may be the base itself).
+     * @return - the snapshot.
+     * @throws IllegalArgumentException - if the delta is from another base.
+     */
+    public static GameSnapshot getDelta(ByteBuffer buffer, GameSnapshot base, GameSnapshot snapshot) {
+        long baseSequence = buffer.getLong();
+        if (baseSequence != base.sequence)
+            throw new IllegalArgumentException("a delta from snapshot " + baseSequence + " applied to snapshot "
+                    + base.sequence);
+        if (snapshot != base)
+            snapshot.copy(base);
+        snapshot.sequence = buffer.getLong();
+        snapshot.finished = buffer.get() != 0;
+        snapshot.sets = buffer.getInt();
+
+        if (buffer.get() == DECK_DRAWN) {
+            int drawn = buffer.getShort() & 0xFFFF;
+            snapshot.deckLength = base.deckLength - drawn;
+            System.arraycopy(snapshot.deck, drawn, snapshot.deck, 0, snapshot.deckLength);
+        } else {
+            snapshot.deckLength = buffer.getShort() & 0xFFFF;
+            for (int i = 0; i < snapshot.deckLength; i++)
+                snapshot.deck[i] = getId(buffer);
+        }
+
+        int mask = buffer.position();
+        int slots = snapshot.table.length, players = snapshot.scores.length;
+        RemoteProtocol.position(buffer, mask + masks(slots));
+        for (int slot = 0; slot < slots; slot++)
+            if (isSet(buffer, mask, slot))
+                snapshot.table[slot] = getId(buffer);
+        mask = buffer.position();
+        RemoteProtocol.position(buffer, mask + masks(players));
+        for (int player = 0; player < players; player++)
+            if (isSet(buffer, mask, player))
+                snapshot.scores[player] = buffer.getInt();
+        mask = buffer.position();
+        RemoteProtocol.position(buffer, mask + masks(players));
+        for (int player = 0; player < players; player++)
+            if (isSet(buffer, mask, player))
+                for (int i = 0; i < GameSnapshot.TOKENS; i++)
+                    snapshot.tokens[player * GameSnapshot.TOKENS + i] = getId(buffer);
+        return snapshot;
+    }
+
+    public static ByteBuffer putPlaceCard(ByteBuffer buffer, int card, int slot) {
+        header(buffer, EVENT);
+        buffer.put(PLACE_CARD);
+        putId(buffer, card);
+        putId(buffer, slot);
+        return buffer;
+    }
+
+    public static ByteBuffer putRemoveCard(ByteBuffer buffer, int slot) {
+        header(buffer, EVENT);
+        buffer.put(REMOVE_CARD);
+        putId(buffer, slot);
+        return buffer;
+    }
+
+    public static ByteBuffer putToken(ByteBuffer buffer, boolean place, int player, int slot) {
+        header(buffer, EVENT);
+        buffer.put(place ? PLACE_TOKEN : REMOVE_TOKEN);
+        putId(buffer, player);
+        putId(buffer, slot);
+        return buffer;
+    }
+
+    public static ByteBuffer putScore(ByteBuffer buffer, int player, int score) {
+        header(buffer, EVENT);
+        buffer.put(SCORE);
+        putId(buffer, player);
+        return buffer.putInt(score);
+    }
+
+    public static ByteBuffer putSet(ByteBuffer buffer, int player) {
+        header(buffer, EVENT);
+        buffer.put(SET);
+        putId(buffer, player);
+        return buffer;
+    }
+
+    /**
+     * Reads an event (after the header, see kind) and applies it to a snapshot.
+     * Note: the events do not change the deck (the next snapshot or delta has it).
+     * @param buffer   - the buffer to read from.
+     * @param snapshot - the snapshot to apply the event to.
+     * @return - the kind of the event.
+     */
+    public static byte applyEvent(ByteBuffer buffer, GameSnapshot snapshot) {
+        byte event = buffer.get();
+        switch (event) {
+            case PLACE_CARD: {
+                int card = getId(buffer);
+                snapshot.table[getId(buffer)] = card;
+                break;
+            }
+            case REMOVE_CARD:
+                snapshot.table[getId(buffer)] = -1;
+                break;
+            case PLACE_TOKEN:
+            case REMOVE_TOKEN: {
+                int from = getId(buffer) * GameSnapshot.TOKENS, slot = getId(buffer);
+                int find = event == PLACE_TOKEN ? -1 : slot, replace = event == PLACE_TOKEN ? slot : -1;
+                for (int i = from; i < from + GameSnapshot.TOKENS; i++)
+                    if (snapshot.tokens[i] == find) {
+                        snapshot.tokens[i] = replace;
+                        break;
+                    }
+                break;
+            }
+            case SCORE:
+                snapshot.scores[getId(buffer)] = buffer.getInt();
+                break;
+            case SET:
+                getId(buffer);
+                snapshot.sets++;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown game event " + event);
+        }
+        return event;
+    }
+}
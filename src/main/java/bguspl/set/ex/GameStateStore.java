@@ -0,0 +1,102 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+
+/**
+ * Where CompactGameStates keeps the state of its tables: the deck, the table, the tokens, the scores, the freezes and
+ * the timers of every table, by the table id. The accessors do no checks of their own (an index out of the store is
+ * an IndexOutOfBoundsException of the storage), so they cost no more than the storage access itself.
+ * <p>
+ * Cards are unsigned bytes (a deck of up to 255 cards, CompactGameStates.EMPTY is an empty slot) and the tokens of a
+ * player are a bit mask of the slots (a table of up to 32 slots).
+ */
+public abstract class GameStateStore {
+
+    /**
+     * The dimensions of a single game.
+     */
+    public final int tables;
+    public final int deckSize;
+    public final int tableSize;
+    public final int players;
+
+    protected GameStateStore(Config config, int tables) {
+        if (config.deckSize > CompactGameStates.EMPTY || config.tableSize > Integer.SIZE)
+            throw new IllegalArgumentException("a deck of up to " + CompactGameStates.EMPTY
+                    + " cards and a table of up to " + Integer.SIZE + " slots are supported");
+        if (tables < 0)
+            throw new IllegalArgumentException("a negative number of tables: " + tables);
+        this.tables = tables;
+        deckSize = config.deckSize;
+        tableSize = config.tableSize;
+        players = config.players;
+    }
+
+    /**
+     * @return - the card at index i of the deck of a table (the cards are drawn from the end).
+     */
+    public abstract int deck(int table, int i);
+
+    public abstract void setDeck(int table, int i, int card);
+
+    public abstract int deckLength(int table);
+
+    public abstract void setDeckLength(int table, int length);
+
+    /**
+     * @return - the card in a slot of a table, or CompactGameStates.EMPTY.
+     */
+    public abstract int board(int table, int slot);
+
+    public abstract void setBoard(int table, int slot, int card);
+
+    /**
+     * @return - the slots of the tokens of a player, as a bit mask.
+     */
+    public abstract int tokens(int table, int player);
+
+    public abstract void setTokens(int table, int player, int mask);
+
+    public abstract int score(int table, int player);
+
+    public abstract void setScore(int table, int player, int score);
+
+    /**
+     * @return - the end of the freeze of a player, in simulated milliseconds.
+     */
+    public abstract int freezeUntil(int table, int player);
+
+    public abstract void setFreezeUntil(int table, int player, int millis);
+
+    public abstract int sets(int table);
+
+    public abstract void setSets(int table, int sets);
+
+    /**
+     * @return - the time of the next reshuffle of a table, in simulated milliseconds.
+     */
+    public abstract int reshuffleAt(int table);
+
+    public abstract void setReshuffleAt(int table, int millis);
+
+    /**
+     * @return - the state of the random number generator of a table.
+     */
+    public abstract long random(int table);
+
+    public abstract void setRandom(int table, long state);
+
+    public abstract boolean isFinished(int table);
+
+    public abstract void setFinished(int table, boolean finished);
+
+    /**
+     * @return - the bytes of the state of a single table.
+     */
+    public abstract long bytesPerTable();
+
+    /**
+     * @return - the bytes of the whole store.
+     */
+    public abstract long bytes();
+}
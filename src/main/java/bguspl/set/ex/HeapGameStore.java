@@ -0,0 +1,159 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+
+/**
+ * A store of the states of the tables in primitive arrays, a part of the state in every array (struct of arrays): the
+ * state of table t is at [t * n, t * n + n) of an array, where n is the size of that part of a single game.
+ */
+final class HeapGameStore extends GameStateStore {
+
+    private final byte[] deck;
+    private final short[] deckLength;
+    private final byte[] board;
+    private final int[] tokens;
+    private final short[] scores;
+    private final int[] freezeUntil;
+    private final short[] sets;
+    private final int[] reshuffleAt;
+    private final long[] random;
+
+    /**
+     * The finished tables, a bit per table.
+     */
+    private final long[] finished;
+
+    HeapGameStore(Config config, int tables) {
+        super(config, tables);
+        deck = new byte[tables * deckSize];
+        deckLength = new short[tables];
+        board = new byte[tables * tableSize];
+        tokens = new int[tables * players];
+        scores = new short[tables * players];
+        freezeUntil = new int[tables * players];
+        sets = new short[tables];
+        reshuffleAt = new int[tables];
+        random = new long[tables];
+        finished = new long[(tables + 63) / 64];
+    }
+
+    @Override
+    public int deck(int table, int i) {
+        return deck[table * deckSize + i] & 0xFF;
+    }
+
+    @Override
+    public void setDeck(int table, int i, int card) {
+        deck[table * deckSize + i] = (byte) card;
+    }
+
+    @Override
+    public int deckLength(int table) {
+        return deckLength[table];
+    }
+
+    @Override
+    public void setDeckLength(int table, int length) {
+        deckLength[table] = (short) length;
+    }
+
+    @Override
+    public int board(int table, int slot) {
+        return board[table * tableSize + slot] & 0xFF;
+    }
+
+    @Override
+    public void setBoard(int table, int slot, int card) {
+        board[table * tableSize + slot] = (byte) card;
+    }
+
+    @Override
+    public int tokens(int table, int player) {
+        return tokens[table * players + player];
+    }
+
+    @Override
+    public void setTokens(int table, int player, int mask) {
+        tokens[table * players + player] = mask;
+    }
+
+    @Override
+    public int score(int table, int player) {
+        return scores[table * players + player];
+    }
+
+    @Override
+    public void setScore(int table, int player, int score) {
+        scores[table * players + player] = (short) score;
+    }
+
+    @Override
+    public int freezeUntil(int table, int player) {
+        return freezeUntil[table * players + player];
+    }
+
+    @Override
+    public void setFreezeUntil(int table, int player, int millis) {
+        freezeUntil[table * players + player] = millis;
+    }
+
+    @Override
+    public int sets(int table) {
+        return sets[table];
+    }
+
+    @Override
+    public void setSets(int table, int sets) {
+        this.sets[table] = (short) sets;
+    }
+
+    @Override
+    public int reshuffleAt(int table) {
+        return reshuffleAt[table];
+    }
+
+    @Override
+    public void setReshuffleAt(int table, int millis) {
+        reshuffleAt[table] = millis;
+    }
+
+    @Override
+    public long random(int table) {
+        return random[table];
+    }
+
+    @Override
+    public void setRandom(int table, long state) {
+        random[table] = state;
+    }
+
+    @Override
+    public boolean isFinished(int table) {
+        return (finished[table >>> 6] & 1L << table) != 0;
+    }
+
+    @Override
+    public void setFinished(int table, boolean finished) {
+        if (finished)
+            this.finished[table >>> 6] |= 1L << table;
+        else
+            this.finished[table >>> 6] &= ~(1L << table);
+    }
+
+    @Override
+    public long bytesPerTable() {
+        return (long) deckSize + Short.BYTES + tableSize
+                + (long) players * (Integer.BYTES + Short.BYTES + Integer.BYTES)
+                + Short.BYTES + Integer.BYTES + Long.BYTES;
+    }
+
+    @Override
+    public long bytes() {
+        return bytesPerTable() * tables + (long) finished.length * Long.BYTES;
+    }
+
+    @Override
+    public String toString() {
+        return "primitive arrays";
+    }
+}
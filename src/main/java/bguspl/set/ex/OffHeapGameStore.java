@@ -0,0 +1,302 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A store of the states of the tables outside of the Java heap, in a direct buffer or in a file mapped to memory, so
+ * the garbage collector has nothing to scan or copy no matter how many tables are in flight.
+ * <p>
+ * The state of a table is a fixed size record (aligned to 8 bytes): the random number generator state, the reshuffle
+ * time, the tokens and the freezes of the players, the deck length, the sets, the scores of the players, the finished
+ * flag, the table and the deck. Record t is at t * recordSize, and the accessors read and write the buffer in place.
+ * <p>
+ * The memory is released by close (a direct buffer is freed and a mapped file is unmapped and deleted right away where
+ * the JVM allows it, otherwise by the garbage collector). A closed store has no capacity, so every access fails. The
+ * open stores are counted (see openStores and openBytes) to find the stores that were never closed.
+ */
+public final class OffHeapGameStore extends GameStateStore implements Closeable {
+
+    /**
+     * The stores that are not closed yet, and their bytes.
+     */
+    private static final Set<OffHeapGameStore> open = ConcurrentHashMap.newKeySet();
+    private static final AtomicLong openBytes = new AtomicLong();
+
+    /**
+     * The offsets of the parts of a record.
+     */
+    private final int randomOffset;
+    private final int reshuffleOffset;
+    private final int tokensOffset;
+    private final int freezeOffset;
+    private final int deckLengthOffset;
+    private final int setsOffset;
+    private final int scoresOffset;
+    private final int finishedOffset;
+    private final int boardOffset;
+    private final int deckOffset;
+    private final int recordSize;
+
+    /**
+     * The mapped file (null for a direct buffer) and where the store was allocated (for the leak reports).
+     */
+    private final Path file;
+    private final Throwable allocation;
+
+    private ByteBuffer buffer;
+
+    private OffHeapGameStore(Config config, int tables, Path file) throws IOException {
+        super(config, tables);
+        randomOffset = 0;
+        reshuffleOffset = randomOffset + Long.BYTES;
+        tokensOffset = reshuffleOffset + Integer.BYTES;
+        freezeOffset = tokensOffset + players * Integer.BYTES;
+        deckLengthOffset = freezeOffset + players * Integer.BYTES;
+        setsOffset = deckLengthOffset + Short.BYTES;
+        scoresOffset = setsOffset + Short.BYTES;
+        finishedOffset = scoresOffset + players * Short.BYTES;
+        boardOffset = finishedOffset + 1;
+        deckOffset = boardOffset + tableSize;
+        recordSize = (deckOffset + deckSize + 7) & ~7;
+        long size = (long) recordSize * tables;
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(tables + " tables of " + recordSize
+                    + " bytes do not fit in a single store, use several stores");
+
+        this.file = file;
+        if (file == null)
+            buffer = ByteBuffer.allocateDirect((int) size);
+        else
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                // the mapping stays valid after the channel is closed
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        buffer.order(ByteOrder.nativeOrder());
+        allocation = new Throwable("allocated here");
+        open.add(this);
+        openBytes.addAndGet(size);
+    }
+
+    /**
+     * @return - a store of the tables in a direct buffer.
+     */
+    public static OffHeapGameStore direct(Config config, int tables) {
+        try {
+            return new OffHeapGameStore(config, tables, null);
+        } catch (IOException e) {
+            // only a mapped store does I/O
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param file - the file to map (created or truncated, and deleted when the store is closed).
+     * @return - a store of the tables in a file mapped to memory.
+     */
+    public static OffHeapGameStore mapped(Config config, int tables, Path file) throws IOException {
+        return new OffHeapGameStore(config, tables, file);
+    }
+
+    /**
+     * @return - the number of stores that are not closed yet.
+     */
+    public static int openStores() {
+        return open.size();
+    }
+
+    /**
+     * @return - the bytes of the stores that are not closed yet.
+     */
+    public static long openBytes() {
+        return openBytes.get();
+    }
+
+    /**
+     * @return - the stores that are not closed yet, with where they were allocated.
+     */
+    public static List<String> describeOpenStores() {
+        List<String> stores = new ArrayList<>();
+        for (OffHeapGameStore store : open) {
+            StringBuilder sb = new StringBuilder(store.toString());
+            for (StackTraceElement frame : store.allocation.getStackTrace())
+                sb.append("\n\tat ").append(frame);
+            stores.add(sb.toString());
+        }
+        return stores;
+    }
+
+    public boolean isOpen() {
+        return open.contains(this);
+    }
+
+    public int recordSize() {
+        return recordSize;
+    }
+
+    private int record(int table) {
+        return table * recordSize;
+    }
+
+    @Override
+    public int deck(int table, int i) {
+        return buffer.get(record(table) + deckOffset + i) & 0xFF;
+    }
+
+    @Override
+    public void setDeck(int table, int i, int card) {
+        buffer.put(record(table) + deckOffset + i, (byte) card);
+    }
+
+    @Override
+    public int deckLength(int table) {
+        return buffer.getShort(record(table) + deckLengthOffset);
+    }
+
+    @Override
+    public void setDeckLength(int table, int length) {
+        buffer.putShort(record(table) + deckLengthOffset, (short) length);
+    }
+
+    @Override
+    public int board(int table, int slot) {
+        return buffer.get(record(table) + boardOffset + slot) & 0xFF;
+    }
+
+    @Override
+    public void setBoard(int table, int slot, int card) {
+        buffer.put(record(table) + boardOffset + slot, (byte) card);
+    }
+
+    @Override
+    public int tokens(int table, int player) {
+        return buffer.getInt(record(table) + tokensOffset + player * Integer.BYTES);
+    }
+
+    @Override
+    public void setTokens(int table, int player, int mask) {
+        buffer.putInt(record(table) + tokensOffset + player * Integer.BYTES, mask);
+    }
+
+    @Override
+    public int score(int table, int player) {
+        return buffer.getShort(record(table) + scoresOffset + player * Short.BYTES);
+    }
+
+    @Override
+    public void setScore(int table, int player, int score) {
+        buffer.putShort(record(table) + scoresOffset + player * Short.BYTES, (short) score);
+    }
+
+    @Override
+    public int freezeUntil(int table, int player) {
+        return buffer.getInt(record(table) + freezeOffset + player * Integer.BYTES);
+    }
+
+    @Override
+    public void setFreezeUntil(int table, int player, int millis) {
+        buffer.putInt(record(table) + freezeOffset + player * Integer.BYTES, millis);
+    }
+
+    @Override
+    public int sets(int table) {
+        return buffer.getShort(record(table) + setsOffset);
+    }
+
+    @Override
+    public void setSets(int table, int sets) {
+        buffer.putShort(record(table) + setsOffset, (short) sets);
+    }
+
+    @Override
+    public int reshuffleAt(int table) {
+        return buffer.getInt(record(table) + reshuffleOffset);
+    }
+
+    @Override
+    public void setReshuffleAt(int table, int millis) {
+        buffer.putInt(record(table) + reshuffleOffset, millis);
+    }
+
+    @Override
+    public long random(int table) {
+        return buffer.getLong(record(table) + randomOffset);
+    }
+
+    @Override
+    public void setRandom(int table, long state) {
+        buffer.putLong(record(table) + randomOffset, state);
+    }
+
+    @Override
+    public boolean isFinished(int table) {
+        return buffer.get(record(table) + finishedOffset) != 0;
+    }
+
+    @Override
+    public void setFinished(int table, boolean finished) {
+        buffer.put(record(table) + finishedOffset, (byte) (finished ? 1 : 0));
+    }
+
+    @Override
+    public long bytesPerTable() {
+        return recordSize;
+    }
+
+    @Override
+    public long bytes() {
+        return (long) recordSize * tables;
+    }
+
+    /**
+     * Releases the memory of the store (and deletes the mapped file). The store must not be used by any thread after
+     * it is closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!open.remove(this))
+            return;
+        openBytes.addAndGet(-bytes());
+        ByteBuffer released = buffer;
+        buffer = ByteBuffer.allocateDirect(0);
+        free(released);
+        if (file != null)
+            Files.deleteIfExists(file);
+    }
+
+    /**
+     * Frees a direct or mapped buffer right away, where the JVM allows it (sun.misc.Unsafe.invokeCleaner, since Java
+     * 9). Otherwise the memory is freed when the garbage collector finds the buffer unreachable.
+     */
+    private static void free(ByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (ReflectiveOperationException | RuntimeException ignored) {}
+    }
+
+    @Override
+    public String toString() {
+        return (file == null ? "a direct buffer" : "the mapped file " + file) + " (" + tables + " tables of "
+                + recordSize + " bytes)";
+    }
+}
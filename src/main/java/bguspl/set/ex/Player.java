@@ -1,10 +1,15 @@
 package bguspl.set.ex;
 
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.Random;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import bguspl.set.Env;
+import bguspl.set.LatencyTracer;
+import bguspl.set.ShutdownCoordinator;
+import bguspl.set.ThreadLogger;
+import bguspl.set.Watchdog;
 
 /**
  * This class manages the players' threads and data
@@ -35,10 +40,42 @@ public class Player implements Runnable {
      */
     public final LinkedBlockingQueue <Integer> keyPress;
 
+    /**
+     * keeps the time of each key press in keyPress (for latency tracing)
+     */
+    private final long [] pressStamps;
+    private int pressHead;
+    private int pressTail;
+
+    /**
+     * keeps the time the last set was sent to the dealer and the time of the key press that completed it
+     */
+    public long claimStamp;
+    public long claimPressStamp;
+
+    /**
+     * keeps the time the last set was sent to the dealer, the number of sets sent and the total time they waited
+     * for the dealer's verdict (for the game statistics)
+     */
+    public long claimStartNanos;
+    public int claims;
+    public long claimNanos;
+
     /**
      * keeps the last set that the player send to the dealer to check
      */
     public int [] set;
+
+    /**
+     * keeps the slots of the last set and the slot epochs that were observed when the tokens were placed
+     */
+    public final int [] setSlots;
+    public final long [] setEpochs;
+
+    /**
+     * keeps for each slot the epoch it had when the player placed a token on it
+     */
+    private final long [] tokenEpochs;
     private final int setSize;
     private final long pointFreeze;
     private final long penaltyFreeze;
@@ -48,12 +85,17 @@ public class Player implements Runnable {
     /**
      * prevent the players to put tokens when the card are replacing
      */
-    private boolean flagRemoveCards;
+    private volatile boolean flagRemoveCards;
 
     /**
      * put all the players in wait mode when card replacing
      */
-    public boolean flagWaitRemoveCards;
+    public volatile boolean flagWaitRemoveCards;
+
+    /**
+     * True iff the round ended and the player should wait at the round barrier for the next round
+     */
+    private volatile boolean roundOver;
 
     /**
      * The id of the player (starting from 0).
@@ -90,6 +132,12 @@ public class Player implements Runnable {
      */
     public int score;
 
+    /**
+     * The progress of the player thread (for the watchdog), and what the watchdog does when a claim is lost.
+     */
+    final Watchdog.Heartbeat heartbeat;
+    private final Runnable claimRecovery = this::dropClaim;
+
     /**
      * The class constructor.
      *
@@ -105,10 +153,14 @@ public class Player implements Runnable {
         this.dealer = dealer;
         this.tokensTracking = new LinkedBlockingQueue<>();
         this.keyPress = new LinkedBlockingQueue<>();
+        this.pressStamps = new long[8];
         setSize = 3;
         pointFreeze = env.config.pointFreezeMillis;
         penaltyFreeze = env.config.penaltyFreezeMillis;
         set = new int[setSize];
+        setSlots = new int[setSize];
+        setEpochs = new long[setSize];
+        tokenEpochs = new long[env.config.tableSize];
         flagOnlyOnce = false;
         flagRemoveCards = true;
         flagWaitRemoveCards = true;
@@ -117,6 +169,7 @@ public class Player implements Runnable {
         this.human = human;
         terminate = false;
         this.score = 0;
+        heartbeat = env.watchdog.heartbeat("player " + id, () -> dealer.describe());
     }
 
     /**
@@ -128,8 +181,11 @@ public class Player implements Runnable {
         env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + "starting.");
         if (!human) createArtificialIntelligence();
         while (!terminate) {
+            long begin = env.trace.begin();
             synchronized(this) {
-                while (flagWaitRemoveCards && !terminate) {
+                if (flagWaitRemoveCards)
+                    heartbeat.expect("the dealer to enable the players", dealer.reshuffleMillis());
+                while (flagWaitRemoveCards && !terminate && !roundOver) {
                     try
                     {wait();}
                     catch (InterruptedException e) {
@@ -137,29 +193,53 @@ public class Player implements Runnable {
                     }
                 }
             }
+            heartbeat.idle();
+            env.trace.end("player", "wait for dealer", begin);
+            // the interrupt of terminate() may have been consumed by the wait above
+            if (terminate)
+                break;
+            if (roundOver) {
+                awaitNextRound();
+                continue;
+            }
             try {
-                Integer slot = keyPress.take();
-                if (table.slotToCard[slot] != null) {
-                    if (tokensTracking.contains(slot)) {
-                        table.removeToken(id, slot);
-                        tokensTracking.remove(slot);
-                        dealer.deleteToken(id, slot);
-                        flagOnlyOnce = false;
-                    } else if (tokensTracking.size() < setSize) {
-                        table.placeToken(id, slot);
-                        tokensTracking.add(slot);
-                        dealer.addToken(id, slot);
-                        flagOnlyOnce = false;
+                long pressStamp;
+                if (tokensTracking.size() == setSize && !flagOnlyOnce) {
+                    // a complete claim restored from a checkpoint is submitted without waiting for a key press
+                    pressStamp = env.tracer.stamp();
+                } else {
+                    begin = env.trace.begin();
+                    Integer slot = keyPress.take();
+                    env.trace.end("player", "wait for key", begin);
+                    pressStamp = pressStamps[pressHead++ & (pressStamps.length - 1)];
+                    // a press on a slot that the dealer is replacing right now is ignored
+                    if (table.tryLockSlot(slot)) {
+                        try {
+                            toggleToken(slot);
+                        } finally {
+                            table.unlockSlot(slot);
+                        }
                     }
+                    env.tracer.record(LatencyTracer.Stage.TOKEN, pressStamp);
+                    if (keyPress.isEmpty())
+                        notifyPlayer();
                 }
                 if(tokensTracking.size() == setSize && !flagOnlyOnce) {
-                    penalty = -1;
-                    copyKeyPressTrackingToArrayOfCards();
                     flagOnlyOnce = true;
+                    // a token on a slot that the dealer emptied meanwhile is not a claim (the next toggle retries)
+                    if (copyKeyPressTrackingToArrayOfCards() < setSize)
+                        continue;
+                    penalty = -1;
+                    claimPressStamp = pressStamp;
+                    claimStamp = env.tracer.stamp();
+                    claimStartNanos = System.nanoTime();
+                    GameEvents.claimSubmitted(id, setSlots, table.boardEpoch());
                     dealer.addPlayer(this);
+                    begin = env.trace.begin();
+                    heartbeat.expect("the verdict of its claim", dealer.reshuffleMillis(), claimRecovery);
                     synchronized (this) {
                         dealer.notifyDealer();
-                        while (penalty == -1 && !terminate) {
+                        while (penalty == -1 && !terminate && !roundOver) {
                             try {
                                 wait();
                             } catch (InterruptedException e) {
@@ -167,6 +247,8 @@ public class Player implements Runnable {
                             }
                         }
                     }
+                    heartbeat.idle();
+                    env.trace.end("player", "claim", begin);
                 }
 
             } catch (InterruptedException e) {
@@ -175,31 +257,153 @@ public class Player implements Runnable {
             if(penalty == 1){
                 point();
                 penalty = 0;
+                notifyPlayer();
             }
             if(penalty == 3){
                 penalty();
                 penalty = 0;
+                notifyPlayer();
             }
 
         }
         if (!human) try { aiThread.join(); } catch (InterruptedException ignored) {}
+        heartbeat.close();
         env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + " terminated.");
     }
 
+    /**
+     * tells the player that the round ended (called by the dealer), also if it waits for a key press or a verdict
+     */
+    void endRound() {
+        roundOver = true;
+        notifyPlayer();
+        Thread player = playerThread;
+        if (player != null)
+            player.interrupt();
+    }
+
+    /**
+     * waits at the round barrier until the dealer reset the game for the next round
+     */
+    private void awaitNextRound() {
+        heartbeat.idle();
+        dealer.roundBarrier.arriveAndAwaitAdvance();
+        dealer.roundBarrier.arriveAndAwaitAdvance();
+        // the interrupt of endRound() may not have been consumed (terminate is checked by the loop anyway)
+        Thread.interrupted();
+    }
+
+    /**
+     * resets the player for the next round (called by the dealer while the player waits at the round barrier)
+     */
+    void resetRound() {
+        score = 0;
+        claims = 0;
+        claimNanos = 0;
+        penalty = 0;
+        flagOnlyOnce = false;
+        synchronized (this) {
+            keyPress.clear();
+            pressHead = pressTail = 0;
+            // the bot waits in awaitKeyPresses for the queue to empty
+            notifyAll();
+        }
+        tokensTracking.clear();
+        roundOver = false;
+        env.ui.setScore(id, 0);
+        env.ui.setFreeze(id, 0);
+    }
+
+    /**
+     * restore the score and the tokens of the player from a checkpoint (before the player thread starts; if the
+     * tokens are a complete claim, the player submits it when it starts)
+     * @param score  - the score.
+     * @param tokens - the slots of the tokens of all the players (-1 for no token).
+     * @param from   - the index of the first token of the player in tokens.
+     */
+    void restore(int score, int[] tokens, int from) {
+        this.score = score;
+        env.ui.setScore(id, score);
+        for (int i = from; i < from + GameSnapshot.TOKENS; i++) {
+            int slot = tokens[i];
+            if (slot < 0 || slot >= env.config.tableSize || tokensTracking.contains(slot))
+                continue;
+            table.lockSlot(slot);
+            try {
+                toggleToken(slot);
+            } finally {
+                table.unlockSlot(slot);
+            }
+        }
+    }
+
+    /**
+     * gives up a claim that the dealer lost (run by the watchdog), so the player plays on as after a stale claim
+     */
+    void dropClaim() {
+        synchronized (this) {
+            if (penalty != -1)
+                return;
+            dealer.playersQueue.remove(this);
+            penalty = 0;
+            notifyAll();
+        }
+        env.logger.warning("watchdog: dropped the claim of player " + id);
+    }
+
+    /**
+     * place or remove the player's token on a slot (the caller holds the slot)
+     */
+    private void toggleToken(int slot) {
+        // the epoch is read before the card, so a token whose epoch is still current was placed on the current card
+        long epoch = table.epoch(slot);
+        if (table.slotToCard[slot] == null)
+            return;
+        if (tokensTracking.contains(slot)) {
+            table.removeToken(id, slot);
+            tokensTracking.remove(slot);
+            dealer.deleteToken(id, slot);
+            flagOnlyOnce = false;
+            GameEvents.tokenToggled(id, slot, false, table.boardEpoch());
+        } else if (tokensTracking.size() < setSize) {
+            table.placeToken(id, slot);
+            tokenEpochs[slot] = epoch;
+            tokensTracking.add(slot);
+            dealer.addToken(id, slot);
+            flagOnlyOnce = false;
+            GameEvents.tokenToggled(id, slot, true, table.boardEpoch());
+        }
+    }
+
     /**
      * Creates an additional thread for an AI (computer) player. The main loop of this thread repeatedly generates
      * key presses. If the queue of key presses is full, the thread waits until it is not full.
      */
     private void createArtificialIntelligence() {
+        String command = env.config.botCommand(id);
+        if (command != null) {
+            try {
+                BotEngine engine = new BotEngine(command, env, id);
+                aiThread = new ThreadLogger(() -> runBotEngine(engine), "computer-" + id, env.logger, env.accounting);
+                aiThread.start();
+                return;
+            } catch (IOException e) {
+                env.logger.severe("cannot start the engine of player " + (id + 1) + ": " + e.getMessage());
+            }
+        }
         // note: this is a very very smart AI (!)
-        aiThread = new Thread(() -> {
+        aiThread = new ThreadLogger(() -> {
             env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + " starting.");
-            Random rand = new Random();
+            Random rand = new Random(env.config.seed * 31 + id);
             while (!terminate) {
-                int slot = rand.nextInt(12);
+                int slot = rand.nextInt(env.config.tableSize);
                 keyPressed(slot);
+                if (keyPress.size() > setSize)
+                    Thread.yield();
+                   long begin = env.trace.begin();
                    synchronized(this) {
-                      while (flagWaitRemoveCards && !terminate) {
+                      // key presses are ignored while waiting for the dealer or frozen, so do not spin on them
+                      while ((flagWaitRemoveCards || penalty != 0) && !terminate) {
                            try
                            {wait();}
                            catch (InterruptedException e) {
@@ -207,25 +411,86 @@ public class Player implements Runnable {
                            }
                        }
                  }
+                 env.trace.end("computer", "wait", begin);
             }
             env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + " terminated.");
-        }, "computer-" + id);
+        }, "computer-" + id, env.logger, env.accounting);
             aiThread.start();
     }
 
+    /**
+     * The main loop of an AI thread that is played by an external engine: sends the table to the engine and presses
+     * the slots of the set it claims (removing the player's other tokens first).
+     */
+    private void runBotEngine(BotEngine engine) {
+        env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + " starting.");
+        try {
+            while (!terminate) {
+                synchronized (this) {
+                    while ((flagWaitRemoveCards || penalty != 0) && !terminate) {
+                        try {
+                            wait();
+                        } catch (InterruptedException ignored) {}
+                    }
+                }
+                if (terminate)
+                    break;
+                long begin = env.trace.begin();
+                int[] slots = engine.move(table.slotToCard, env.config.botMoveMillis);
+                env.trace.end("computer", "engine move", begin);
+                if (slots == null) {
+                    goToSleep(env.config.botMoveMillis);
+                    continue;
+                }
+                for (Integer slot : tokensTracking)
+                    if (slot != slots[0] && slot != slots[1] && slot != slots[2])
+                        keyPressed(slot);
+                awaitKeyPresses();
+                for (int slot : slots)
+                    if (!tokensTracking.contains(slot))
+                        keyPressed(slot);
+                awaitKeyPresses();
+            }
+        } catch (IOException e) {
+            env.logger.severe("the engine of player " + (id + 1) + " failed: " + e.getMessage());
+        } finally {
+            engine.close();
+            env.logger.info("engine of player " + (id + 1) + ": moves " + engine.moves + ", passes " + engine.passes
+                    + ", timeouts " + engine.timeouts + ", illegal " + engine.illegal);
+        }
+        env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + " terminated.");
+    }
+
+    /**
+     * waits until the player thread handled all the key presses (it notifies the player's monitor when the queue is
+     * empty, and resetRound notifies it after clearing the queue)
+     */
+    private synchronized void awaitKeyPresses() {
+        while (!keyPress.isEmpty() && !terminate) {
+            try {
+                wait();
+            } catch (InterruptedException ignored) {}
+        }
+    }
+
     /**
      * Called when the game should be terminated due to an external event.
      */
     public void terminate() {
+        new ShutdownCoordinator(env.logger, env.config.shutdownMillis)
+                .add(this::signalTerminate, playerThread, aiThread).shutdown();
+    }
+
+    /**
+     * tells the player thread and the AI thread to terminate, without waiting for them
+     */
+    void signalTerminate() {
         terminate = true;
-        playerThread.interrupt();
-        if(!human)
-            aiThread.interrupt();
-        try {
-            playerThread.join();
-        } catch (InterruptedException e) {
-            // TODO: handle exception
-        }
+        Thread player = playerThread, ai = aiThread;
+        if (player != null)
+            player.interrupt();
+        if (ai != null)
+            ai.interrupt();
     }
 
 
@@ -236,8 +501,11 @@ public class Player implements Runnable {
      */
     public void keyPressed(int slot) {
         if(keyPress.size() <= setSize && penalty == 0 && !flagRemoveCards){
-            keyPress.add(slot);
-            synchronized (this){notifyAll();}
+            synchronized (this){
+                pressStamps[pressTail++ & (pressStamps.length - 1)] = env.tracer.stamp();
+                keyPress.add(slot);
+                notifyAll();
+            }
         }
     }
 
@@ -250,6 +518,8 @@ public class Player implements Runnable {
     public void point() {
         this.score++;
         env.ui.setScore(id, score);
+        GameEvents.Freeze freeze = GameEvents.beginFreeze(id, false, pointFreeze);
+        long begin = env.trace.begin();
         //long startTime = System.currentTimeMillis();
         long finishTime = System.currentTimeMillis() + pointFreeze;
         while(System.currentTimeMillis() <= finishTime){
@@ -266,6 +536,8 @@ public class Player implements Runnable {
 
         }
         env.ui.setFreeze(id, 0);
+        GameEvents.endFreeze(freeze);
+        env.trace.end("player", "point freeze", begin);
 
         int ignored = table.countCards(); // this part is just for demonstration in the unit tests
 
@@ -275,6 +547,8 @@ public class Player implements Runnable {
      * Penalize a player and perform other related actions.
      */
     public void penalty() {
+        GameEvents.Freeze freeze = GameEvents.beginFreeze(id, true, penaltyFreeze);
+        long begin = env.trace.begin();
         //long startTime = System.currentTimeMillis();
         long finishTime = System.currentTimeMillis() + penaltyFreeze;
         while(System.currentTimeMillis() <= finishTime){
@@ -290,6 +564,8 @@ public class Player implements Runnable {
                 goToSleep(penaltyFreeze);
         }
         env.ui.setFreeze(id , 0);
+        GameEvents.endFreeze(freeze);
+        env.trace.end("player", "penalty freeze", begin);
     }
 
     /**
@@ -315,22 +591,26 @@ public class Player implements Runnable {
     }
 
     /**
-     * return int[] of the cards that currently in the slots of keyPressTracking
+     * copy the cards that currently in the slots of keyPressTracking to set, together with their slots and epochs
+     * @return - the number of cards copied (an empty slot leaves -1 in set and is not counted)
      */
-    public void copyKeyPressTrackingToArrayOfCards() {
+    public int copyKeyPressTrackingToArrayOfCards() {
             int index = 0;
+            int copied = 0;
             Iterator<Integer> it = tokensTracking.iterator();
-            while (it.hasNext()) {
+            while (it.hasNext() && index < setSize) {
                 int slot = it.next();
-                Object x = table.slotToCard[slot];
-                if (x != null) {
-                    int card = (int) x;
+                setSlots[index] = slot;
+                setEpochs[index] = tokenEpochs[slot];
+                Integer card = table.slotToCard[slot];
+                if (card != null) {
                     set[index] = card;
-                    index++;
-                }
+                    copied++;
+                } else
+                    set[index] = -1;
+                index++;
             }
-
-
+            return copied;
     }
 
 
@@ -4,6 +4,9 @@ import bguspl.set.Env;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 
@@ -29,6 +32,24 @@ public class Table {
      */
     protected final Integer[] cardToSlot; // slot per card (if any)
 
+    /**
+     * The epoch of each slot, increased every time a card is placed in or removed from it (before the slot changes,
+     * and by the dealer holding the slot, so a player holding the slot reads a card and its epoch together).
+     * A claim is stale iff one of the epochs it observed is no longer the current one.
+     */
+    private final AtomicLongArray slotEpochs;
+
+    /**
+     * The number of card changes on the whole table (for the game events, see GameEvents).
+     */
+    private final AtomicLong boardEpoch = new AtomicLong();
+
+    /**
+     * A lock per slot. The dealer holds the locks of the slots it replaces, and a player holds the lock of a slot
+     * while it places or removes a token on it, so only the slots being replaced are frozen.
+     */
+    private final ReentrantLock[] slotLocks;
+
     /**
      * Constructor for testing.
      *
@@ -40,6 +61,10 @@ public class Table {
         this.env = env;
         this.slotToCard = slotToCard;
         this.cardToSlot = cardToSlot;
+        this.slotEpochs = new AtomicLongArray(slotToCard.length);
+        this.slotLocks = new ReentrantLock[slotToCard.length];
+        for (int i = 0; i < slotLocks.length; i++)
+            slotLocks[i] = new ReentrantLock();
     }
 
     /**
@@ -58,7 +83,8 @@ public class Table {
     }
 
     /**
-     * This method prints all possible legal sets of cards that are currently on the table.
+     * This method logs all possible legal sets of cards that are currently on the table (to the log and not to the
+     * console, which the terminal user interface draws on).
      */
     public void hints() {
         List<Integer> deck = Arrays.stream(slotToCard).filter(Objects::nonNull).collect(Collectors.toList());
@@ -66,7 +92,7 @@ public class Table {
             StringBuilder sb = new StringBuilder().append("Hint: Set found: ");
             List<Integer> slots = Arrays.stream(set).mapToObj(card -> cardToSlot[card]).sorted().collect(Collectors.toList());
             int[][] features = env.util.cardsToFeatures(set);
-            System.out.println(sb.append("slots: ").append(slots).append(" features: ").append(Arrays.deepToString(features)));
+            env.logger.info(sb.append("slots: ").append(slots).append(" features: ").append(Arrays.deepToString(features)).toString());
         });
     }
 
@@ -91,12 +117,17 @@ public class Table {
      * @post - the card placed is on the table, in the assigned slot.
      */
     public void placeCard(int card , int slot) {
+        long begin = env.trace.begin();
         try {
             Thread.sleep(env.config.tableDelayMillis);
         } catch (InterruptedException ignored) {}
+        env.trace.end("table", "place card delay", begin);
 
+        // the epoch moves first, so a card is never seen with an epoch older than itself
+        slotEpochs.incrementAndGet(slot);
         cardToSlot[card] = slot;
         slotToCard[slot] = card;
+        GameEvents.cardPlaced(card, slot, boardEpoch.incrementAndGet());
         env.ui.placeCard(card , slot);
     }
 
@@ -107,12 +138,16 @@ public class Table {
     public void removeCard(Integer slot) {
         if(slot == null)
             return;
+        long begin = env.trace.begin();
         try {
             Thread.sleep(env.config.tableDelayMillis);
         } catch (InterruptedException ignored) {}
+        env.trace.end("table", "remove card delay", begin);
         int card = slotToCard[slot];
+        slotEpochs.incrementAndGet(slot);
         cardToSlot[card] = null;
         slotToCard[slot] = null;
+        GameEvents.cardRemoved(card, slot, boardEpoch.incrementAndGet());
         env.ui.removeCard(slot);
     }
 
@@ -135,4 +170,59 @@ public class Table {
         if(slot != null)
             env.ui.removeToken(player, slot);
     }
+
+    /**
+     * Returns the current epoch of a slot.
+     * @param slot - the slot.
+     * @return - the number of card changes that happened in the slot so far.
+     */
+    public long epoch(int slot) {
+        return slotEpochs.get(slot);
+    }
+
+    /**
+     * Returns the epoch of the whole table.
+     * @return - the number of card changes that happened on the table so far.
+     */
+    public long boardEpoch() {
+        return boardEpoch.get();
+    }
+
+    /**
+     * Checks that none of the given slots changed since their epochs were observed.
+     * @param slots  - the slots of the claim.
+     * @param epochs - the epochs observed for the slots (respectively).
+     * @return - true iff every slot is still at the observed epoch.
+     */
+    public boolean isCurrent(int[] slots, long[] epochs) {
+        for (int i = 0; i < slots.length; i++)
+            if (slotEpochs.get(slots[i]) != epochs[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * Freezes a slot, waiting for the player that is currently using it (if any).
+     * @param slot - the slot to freeze.
+     */
+    public void lockSlot(int slot) {
+        slotLocks[slot].lock();
+    }
+
+    /**
+     * Tries to take a slot without waiting.
+     * @param slot - the slot to take.
+     * @return - false iff the slot is frozen or used by someone else.
+     */
+    public boolean tryLockSlot(int slot) {
+        return slotLocks[slot].tryLock();
+    }
+
+    /**
+     * Releases a slot taken by lockSlot or tryLockSlot.
+     * @param slot - the slot to release.
+     */
+    public void unlockSlot(int slot) {
+        slotLocks[slot].unlock();
+    }
 }
@@ -0,0 +1,42 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CardAtlasTest {
+
+    @Test
+    void packAndUnpack() {
+        BufferedImage[] images = new BufferedImage[5];
+        for (int i = 0; i < images.length; i++) {
+            images[i] = new BufferedImage(3, 2, BufferedImage.TYPE_INT_ARGB);
+            images[i].setRGB(1, 1, 0xFF000000 | i);
+        }
+        BufferedImage atlas = CardAtlas.pack(images, 2);
+        assertEquals(6, atlas.getWidth());
+        assertEquals(6, atlas.getHeight());
+        BufferedImage[] unpacked = CardAtlas.unpack(atlas, 5, 2, 3, 2);
+        for (int i = 0; i < images.length; i++)
+            assertEquals(0xFF000000 | i, unpacked[i].getRGB(1, 1));
+    }
+
+    @Test
+    void loadScalesToCellSize() {
+        Properties properties = new Properties();
+        properties.put("CellWidth", "100");
+        properties.put("CellHeight", "60");
+        Logger logger = Logger.getAnonymousLogger();
+        Config config = new Config(logger, properties);
+        BufferedImage[] images = CardAtlas.load(config, logger);
+        assertEquals(config.deckSize + 1, images.length);
+        for (BufferedImage image : images) {
+            assertEquals(100, image.getWidth());
+            assertEquals(60, image.getHeight());
+        }
+    }
+}
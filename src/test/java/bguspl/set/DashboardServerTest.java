@@ -0,0 +1,121 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DashboardServerTest {
+
+    private DashboardServer dashboard;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Logger logger = Logger.getAnonymousLogger();
+        Properties properties = new Properties();
+        properties.setProperty("PlayerNames", "Alice,Bob");
+        properties.setProperty("DashboardMaxViewers", "1");
+        dashboard = new DashboardServer(logger, new Config(logger, properties), null,
+                new InetSocketAddress("127.0.0.1", 0));
+        dashboard.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        dashboard.terminate();
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + dashboard.localPort() + path)
+                .openConnection();
+        connection.setReadTimeout(5000);
+        return connection;
+    }
+
+    private String get(String path) throws IOException {
+        try (InputStream is = open(path).getInputStream()) {
+            StringBuilder sb = new StringBuilder();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null)
+                sb.append(line).append('\n');
+            return sb.toString();
+        }
+    }
+
+    private static String nextData(BufferedReader reader, String event) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null)
+            if (line.equals("event: " + event))
+                return reader.readLine().substring("data: ".length());
+        fail("the stream ended before a " + event + " event");
+        return null;
+    }
+
+    @Test
+    void servesPageStateAndCards() throws IOException {
+        dashboard.placeCard(7, 2);
+        dashboard.placeToken(1, 2);
+        dashboard.setScore(0, 4);
+        assertTrue(get("/").contains("EventSource"));
+        String state = get("/state");
+        assertTrue(state.contains("\"cards\":[-1,-1,7,-1"));
+        assertTrue(state.contains("\"tokens\":[[],[],[1],[]"));
+        assertTrue(state.contains("\"scores\":[4,0]"));
+        assertTrue(state.contains("\"names\":[\"Alice\",\"Bob\"]"));
+        assertEquals(200, open("/cards/7").getResponseCode());
+        assertEquals(404, open("/cards/81").getResponseCode());
+    }
+
+    @Test
+    void eventStreamSendsStateThenCoalescedDiffs() throws IOException {
+        dashboard.placeCard(3, 0);
+        HttpURLConnection connection = open("/events");
+        BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+        assertTrue(nextData(reader, "state").contains("\"cards\":[3,"));
+
+        dashboard.placeToken(0, 4);
+        dashboard.placeToken(1, 4);
+        dashboard.setScore(1, 2);
+        String diff = nextData(reader, "diff");
+        while (!diff.contains("\"score\":2"))
+            diff = nextData(reader, "diff");
+        assertTrue(diff.contains("\"1\":{\"score\":2,\"freeze\":0}"));
+        connection.disconnect();
+    }
+
+    @Test
+    void viewersBeyondTheLimitAreTurnedAway() throws IOException, InterruptedException {
+        HttpURLConnection first = open("/events");
+        BufferedReader reader = new BufferedReader(new InputStreamReader(first.getInputStream(), StandardCharsets.UTF_8));
+        nextData(reader, "state");
+
+        HttpURLConnection second = open("/events");
+        assertEquals(503, second.getResponseCode());
+        second.disconnect();
+
+        // the stream of a browser that left is noticed at the next keep alive at the latest
+        first.disconnect();
+        long deadline = System.currentTimeMillis() + 10000;
+        int code;
+        do {
+            Thread.sleep(100);
+            HttpURLConnection next = open("/events");
+            code = next.getResponseCode();
+            next.disconnect();
+        } while (code != 200 && System.currentTimeMillis() < deadline);
+        assertEquals(200, code);
+    }
+}
@@ -0,0 +1,40 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void bucketBoundsContainValue() {
+        long[] values = {0, 1, 15, 16, 17, 31, 32, 1000, 123456789, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(LatencyHistogram.highestValueOf(bucket) >= value);
+            assertTrue(bucket == 0 || LatencyHistogram.highestValueOf(bucket - 1) < value);
+        }
+    }
+
+    @Test
+    void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(50));
+        for (long i = 1; i <= 1000; i++)
+            histogram.record(i * 1000);
+        assertEquals(1000, histogram.count());
+        assertEquals(1000000, histogram.max());
+        assertEquals(500500, histogram.mean());
+        long p50 = histogram.percentile(50);
+        assertTrue(p50 >= 500000 && p50 <= 500000 + 500000 / 16);
+        assertEquals(1000000, histogram.percentile(100));
+    }
+
+    @Test
+    void disabledTracerRecordsNothing() {
+        LatencyTracer tracer = new LatencyTracer(false);
+        assertEquals(0, tracer.stamp());
+        tracer.recordNanos(LatencyTracer.Stage.VERDICT, 5);
+        assertEquals(0, tracer.histogram(LatencyTracer.Stage.VERDICT).count());
+    }
+}
@@ -0,0 +1,92 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RatingEngineTest {
+
+    private static GameResult game(int number, String[] players, int... scores) {
+        return new GameResult(number, number, players, scores, 0, 0);
+    }
+
+    @Test
+    void winnersGainAndTiesAreEven() {
+        RatingEngine ratings = new RatingEngine();
+        String[] players = {"strong", "weak", "tie 1", "tie 2"};
+        for (int i = 0; i < 50; i++)
+            ratings.update(game(i, players, 5, 1, 3, 3));
+        assertTrue(ratings.elo("strong") > ratings.elo("tie 1"));
+        assertTrue(ratings.elo("tie 1") > ratings.elo("weak"));
+        assertEquals(ratings.elo("tie 1"), ratings.elo("tie 2"), 1e-9);
+        assertTrue(ratings.rating("strong") > ratings.rating("tie 1"));
+        assertEquals(ratings.rating("tie 1"), ratings.rating("tie 2"), 1e-9);
+        assertTrue(ratings.deviation("strong") < RatingEngine.INITIAL_RD);
+    }
+
+    @Test
+    void seatsOfTheSamePlayerDoNotPlayEachOther() {
+        RatingEngine ratings = new RatingEngine();
+        for (int i = 0; i < 50; i++)
+            ratings.update(game(i, new String[]{"random", "random", "random", "bot"}, 1, 2, 3, 4));
+        assertEquals(2, ratings.players());
+        // the bot beats every seat of random
+        assertTrue(ratings.elo("bot") > RatingEngine.INITIAL_RATING);
+        assertEquals(2 * RatingEngine.INITIAL_RATING, ratings.elo("bot") + ratings.elo("random"), 1e-6);
+        assertTrue(ratings.rating("bot") > ratings.rating("random"));
+        assertTrue(ratings.leaderboard().matches("(?s).*random +50 .*"), ratings.leaderboard());
+
+        List<GameResult> results = new ArrayList<>();
+        for (int i = 0; i < 50; i++)
+            results.add(game(i, new String[]{"random", "random", "bot"}, 1, 2, 3));
+        ratings.recompute(results, 10);
+        assertTrue(ratings.rating("bot") > ratings.rating("random"));
+        assertTrue(ratings.leaderboard().matches("(?s).*bot +50 .*"), ratings.leaderboard());
+    }
+
+    @Test
+    void recomputeOrdersPlayersByStrength() {
+        int players = 10, games = 200000, seats = 4;
+        Random random = new Random(1);
+        int[] gameStart = new int[games + 1];
+        int[] seat = new int[games * seats];
+        int[] score = new int[games * seats];
+        for (int game = 0; game < games; game++) {
+            gameStart[game + 1] = gameStart[game] + seats;
+            for (int i = 0; i < seats; i++) {
+                int player;
+                do {
+                    player = random.nextInt(players);
+                } while (contains(seat, gameStart[game], gameStart[game] + i, player));
+                seat[gameStart[game] + i] = player;
+                // player p scores p on average
+                score[gameStart[game] + i] = player + random.nextInt(7);
+            }
+        }
+        double[][] ratings = RatingEngine.recompute(players, gameStart, seat, score, 1000, 35);
+        for (int player = 1; player < players; player++)
+            assertTrue(ratings[0][player] > ratings[0][player - 1], "player " + player);
+    }
+
+    private static boolean contains(int[] array, int from, int to, int value) {
+        for (int i = from; i < to; i++)
+            if (array[i] == value)
+                return true;
+        return false;
+    }
+
+    @Test
+    void recomputeOfResultsMatchesArrays() {
+        List<GameResult> results = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            results.add(game(i, new String[]{"a", "b", "c"}, i % 3, 1, 2));
+        RatingEngine ratings = new RatingEngine();
+        ratings.recompute(results, 10);
+        assertTrue(ratings.rating("c") > ratings.rating("b"));
+        assertTrue(ratings.leaderboard().indexOf("c") < ratings.leaderboard().indexOf("b"));
+    }
+}
@@ -0,0 +1,104 @@
+package bguspl.set;
+
+import bguspl.set.ex.Player;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class RemotePlayerServerTest {
+
+    @Mock
+    private Player player;
+    @Mock
+    private UserInterface ui;
+
+    private RemotePlayerServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Properties properties = new Properties();
+        properties.put("ServerPort", "0");
+        Logger logger = Logger.getAnonymousLogger();
+        Config config = new Config(logger, properties);
+        server = new RemotePlayerServer(logger, config, new Player[]{player, null}, ui);
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.terminate();
+    }
+
+    private SocketChannel connect() throws IOException {
+        return SocketChannel.open(new InetSocketAddress("127.0.0.1", server.localPort()));
+    }
+
+    private static ByteBuffer readFrame(SocketChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(2);
+        while (header.hasRemaining())
+            assertTrue(channel.read(header) >= 0);
+        ByteBuffer frame = ByteBuffer.allocate(header.getShort(0) & 0xFFFF);
+        while (frame.hasRemaining())
+            assertTrue(channel.read(frame) >= 0);
+        return RemoteProtocol.flip(frame);
+    }
+
+    @Test
+    void keyPressesAreDispatchedToTheJoinedPlayer() throws IOException {
+        try (SocketChannel channel = connect()) {
+            ByteBuffer out = ByteBuffer.allocate(10);
+            RemoteProtocol.putJoin(out, 0);
+            RemoteProtocol.putKey(out, 5);
+            channel.write(RemoteProtocol.flip(out));
+            verify(player, timeout(2000)).keyPressed(5);
+        }
+    }
+
+    @Test
+    void userInterfaceCallsArePushedToClients() throws IOException, InterruptedException {
+        try (SocketChannel channel = connect()) {
+            // wait for the server to accept the connection before broadcasting
+            ByteBuffer join = RemoteProtocol.putJoin(ByteBuffer.allocate(5), 1);
+            channel.write(RemoteProtocol.flip(join));
+            Thread.sleep(200);
+
+            server.placeCard(17, 4);
+            server.setScore(1, 3);
+            verify(ui).placeCard(17, 4);
+
+            ByteBuffer frame = readFrame(channel);
+            assertEquals(RemoteProtocol.PLACE_CARD, frame.get());
+            assertEquals(17, RemoteProtocol.getUnsignedShort(frame));
+            assertEquals(4, RemoteProtocol.getUnsignedShort(frame));
+
+            frame = readFrame(channel);
+            assertEquals(RemoteProtocol.SCORE, frame.get());
+            assertEquals(1, RemoteProtocol.getUnsignedShort(frame));
+            assertEquals(3, frame.getInt());
+        }
+    }
+
+    @Test
+    void loadClientConnectsAndPresses() throws IOException {
+        RemotePlayerLoadClient client = new RemotePlayerLoadClient(
+                new InetSocketAddress("127.0.0.1", server.localPort()), 50, 1, 12, 20, 0.5);
+        String report = client.run();
+        assertTrue(report.startsWith("connections: 50/50"), report);
+        verify(player, timeout(2000).atLeast(50)).keyPressed(org.mockito.ArgumentMatchers.anyInt());
+    }
+}
@@ -0,0 +1,92 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShutdownCoordinatorTest {
+
+    private static final Logger logger = Logger.getLogger("ShutdownCoordinatorTest");
+
+    /**
+     * Lets the threads that ignore interrupts go at the end of a test.
+     */
+    private volatile boolean release;
+
+    /**
+     * A thread that needs a while to clean up after it is interrupted.
+     */
+    private Thread slowToStop(String name, long cleanupMillis, CountDownLatch started) {
+        Thread thread = new Thread(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(60000);
+            } catch (InterruptedException e) {
+                long until = System.currentTimeMillis() + cleanupMillis;
+                while (System.currentTimeMillis() < until && !release)
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException ignored) {}
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    void allThreadsStopTogether() throws Exception {
+        int count = 10;
+        CountDownLatch started = new CountDownLatch(count);
+        List<Integer> signalled = Collections.synchronizedList(new ArrayList<>());
+        ShutdownCoordinator shutdown = new ShutdownCoordinator(logger, 5000);
+        for (int i = 0; i < count; i++) {
+            int id = i;
+            Thread thread = slowToStop("player " + i, 100, started);
+            shutdown.add(() -> {
+                signalled.add(id);
+                thread.interrupt();
+            }, thread, null);
+        }
+        started.await();
+        long start = System.nanoTime();
+        assertTrue(shutdown.shutdown().isEmpty());
+        long millis = (System.nanoTime() - start) / 1000000L;
+        // one after the other would take a second
+        assertTrue(millis < 600, "shutdown took " + millis + " ms");
+        assertEquals(count, signalled.size());
+        for (int i = 0; i < count; i++)
+            assertEquals(count - 1 - i, signalled.get(i));
+    }
+
+    @Test
+    void stragglersAreReportedAtTheDeadline() throws Exception {
+        CountDownLatch started = new CountDownLatch(2);
+        Thread stubborn = slowToStop("computer-0", 60000, started);
+        Thread polite = slowToStop("player 0", 0, started);
+        started.await();
+        long start = System.nanoTime();
+        List<Thread> stragglers = new ShutdownCoordinator(logger, 200)
+                .add(() -> {
+                    stubborn.interrupt();
+                    polite.interrupt();
+                }, stubborn, polite).shutdown();
+        long millis = (System.nanoTime() - start) / 1000000L;
+        assertEquals(Collections.singletonList(stubborn), stragglers);
+        assertTrue(millis >= 150 && millis < 2000, "shutdown took " + millis + " ms");
+        assertFalse(polite.isAlive());
+
+        // an interrupt of the waiting thread does not cut the wait short, and is kept
+        Thread.currentThread().interrupt();
+        assertEquals(1, new ShutdownCoordinator(logger, 50).add(null, stubborn).shutdown().size());
+        assertTrue(Thread.interrupted());
+        release = true;
+        stubborn.join();
+    }
+}
@@ -0,0 +1,127 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpectatorBroadcasterTest {
+
+    private SpectatorBroadcaster broadcaster;
+
+    @BeforeEach
+    void setUp() {
+        Logger logger = Logger.getAnonymousLogger();
+        broadcaster = new SpectatorBroadcaster(logger, new Config(logger, new Properties()), null, 4);
+        broadcaster.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        broadcaster.terminate();
+    }
+
+    /**
+     * Splits delivered buffers into frames (opcode first).
+     */
+    private static void split(ByteBuffer buffer, List<ByteBuffer> frames) {
+        ByteBuffer in = buffer.duplicate();
+        int size;
+        while ((size = RemoteProtocol.frameSize(in)) > 0) {
+            ByteBuffer frame = in.duplicate();
+            RemoteProtocol.position(frame, in.position() + 2);
+            frame.limit(in.position() + size);
+            frames.add(frame.slice());
+            RemoteProtocol.position(in, in.position() + size);
+        }
+    }
+
+    private static long count(List<ByteBuffer> frames, byte opcode) {
+        return frames.stream().filter(frame -> frame.get(0) == opcode).count();
+    }
+
+    @Test
+    void subscribersGetSnapshotThenEvents() throws InterruptedException {
+        broadcaster.placeCard(5, 0);
+        List<ByteBuffer> frames = new CopyOnWriteArrayList<>();
+        CountDownLatch score = new CountDownLatch(1);
+        broadcaster.subscribe(frame -> {
+            split(frame, frames);
+            if (frame.get(2) == RemoteProtocol.SCORE) score.countDown();
+            return true;
+        });
+        Thread.sleep(100);
+        broadcaster.setScore(1, 2);
+        assertTrue(score.await(2, TimeUnit.SECONDS));
+
+        assertEquals(RemoteProtocol.SNAPSHOT, frames.get(0).get(0));
+        ByteBuffer card = frames.stream().filter(f -> f.get(0) == RemoteProtocol.PLACE_CARD).findFirst().get();
+        assertEquals(5, card.getShort(1));
+        assertEquals(RemoteProtocol.SCORE, frames.get(frames.size() - 1).get(0));
+    }
+
+    @Test
+    void slowSubscriberIsResyncedWithoutBlocking() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<ByteBuffer> frames = new CopyOnWriteArrayList<>();
+        broadcaster.subscribe(frame -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {}
+            split(frame, frames);
+            return true;
+        });
+        Thread.sleep(100);
+
+        // the subscriber is stuck on its first snapshot, so these overflow its queue of 4
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++)
+            broadcaster.setScore(0, i);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        release.countDown();
+        Thread.sleep(200);
+
+        assertEquals(2, count(frames, RemoteProtocol.SNAPSHOT));
+        assertTrue(count(frames, RemoteProtocol.SCORE) < 100);
+        ByteBuffer last = null;
+        for (ByteBuffer frame : frames)
+            if (frame.get(0) == RemoteProtocol.SCORE && frame.getShort(1) == 0) last = frame;
+        assertEquals(99, last.getInt(3));
+    }
+
+    /**
+     * A subscriber that fails on its first frame, like a spectator that disconnected.
+     */
+    private static class Disconnected implements SpectatorBroadcaster.Subscriber, Closeable {
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public boolean deliver(ByteBuffer frame) throws IOException {
+            throw new IOException("connection reset");
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+
+    @Test
+    void droppedSubscribersAreClosed() throws InterruptedException {
+        Disconnected subscriber = new Disconnected();
+        broadcaster.subscribe(subscriber);
+        assertTrue(subscriber.closed.await(2, TimeUnit.SECONDS));
+        assertEquals(0, broadcaster.subscribers());
+    }
+}
@@ -0,0 +1,153 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatisticsStoreTest {
+
+    private static final Logger logger = Logger.getLogger("StatisticsStoreTest");
+
+    @TempDir
+    Path dir;
+
+    private static GameResult game(int number) {
+        return new GameResult(number, number, new String[]{"alice", "bob", "carol"},
+                new int[]{number % 3, 1, 0}, new int[]{number % 3 + 1, 2, 1}, new long[]{1000, 2000, 3000}, 3, 42);
+    }
+
+    @Test
+    void concurrentAppendsSurviveReopening() throws Exception {
+        Path file = dir.resolve("stats.log");
+        int threads = 8, perThread = 50;
+        try (StatisticsStore store = new StatisticsStore(file, logger)) {
+            List<Thread> writers = new ArrayList<>();
+            List<CompletableFuture<Long>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int first = t * perThread;
+                Thread writer = new Thread(() -> {
+                    for (int i = first; i < first + perThread; i++) {
+                        CompletableFuture<Long> future = store.append(game(i));
+                        synchronized (futures) {
+                            futures.add(future);
+                        }
+                    }
+                });
+                writers.add(writer);
+                writer.start();
+            }
+            for (Thread writer : writers)
+                writer.join();
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+            assertEquals(threads * perThread, store.games());
+        }
+
+        try (StatisticsStore store = new StatisticsStore(file, logger)) {
+            int games = threads * perThread;
+            assertEquals(games, store.games());
+            assertEquals(3, store.players().size());
+            StatisticsStore.PlayerStatistics bob = store.player("bob");
+            assertEquals(games, bob.games());
+            assertEquals(games, bob.totalScore());
+            assertEquals(2 * games, bob.claims());
+            assertEquals(1000, bob.meanClaimNanos(), 1e-9);
+
+            // alice wins a third of the games, draws with bob in a third and loses the rest
+            StatisticsStore.PlayerStatistics alice = store.player("alice");
+            double expectedWins = 0;
+            for (int i = 0; i < games; i++)
+                expectedWins += game(i).winShare(0);
+            assertEquals(expectedWins, alice.wins(), 1e-9);
+
+            List<GameResult> results = store.games("carol");
+            assertEquals(games, results.size());
+            assertEquals(42, results.get(0).durationNanos);
+            assertEquals(3000, results.get(0).claimNanos[2]);
+            assertNull(store.player("dave"));
+        }
+    }
+
+    @Test
+    void appendsRacingCloseAreWrittenOrFailed() throws Exception {
+        Path file = dir.resolve("stats.log");
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        StatisticsStore store = new StatisticsStore(file, logger);
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 2000; i++) {
+                CompletableFuture<Long> future = store.append(game(i));
+                synchronized (futures) {
+                    futures.add(future);
+                }
+            }
+        });
+        writer.start();
+        Thread.sleep(5);
+        store.close();
+        writer.join();
+
+        // no append is left behind the close: every future completes, one way or the other
+        int written = 0;
+        for (CompletableFuture<Long> future : futures) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                written++;
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+        assertEquals(written, store.games());
+    }
+
+    @Test
+    void tornTailIsCutOff() throws IOException {
+        Path file = dir.resolve("stats.log");
+        try (StatisticsStore store = new StatisticsStore(file, logger)) {
+            store.append(game(0)).join();
+            store.append(game(1)).join();
+        }
+        long size = Files.size(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 5);
+        }
+
+        try (StatisticsStore store = new StatisticsStore(file, logger)) {
+            assertEquals(1, store.games());
+            assertEquals(0, store.games("alice").get(0).game);
+            store.append(game(2)).join();
+        }
+        try (StatisticsStore store = new StatisticsStore(file, logger)) {
+            assertEquals(2, store.games());
+            assertEquals(2, store.games("bob").get(1).game);
+        }
+    }
+
+    @Test
+    void corruptRecordIsCutOff() throws IOException {
+        Path file = dir.resolve("stats.log");
+        try (StatisticsStore store = new StatisticsStore(file, logger)) {
+            store.append(game(0)).join();
+            store.append(game(1)).join();
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+
+        try (StatisticsStore store = new StatisticsStore(file, logger)) {
+            assertEquals(1, store.games());
+        }
+        assertTrue(Files.size(file) < bytes.length);
+    }
+}
@@ -0,0 +1,103 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThreadLoggerTest {
+
+    private static final Logger logger = Logger.getLogger("ThreadLoggerTest");
+
+    /**
+     * Keeps the allocations of the busy thread reachable, so they are not optimized away.
+     */
+    private static volatile Object sink;
+
+    @Test
+    void everyThreadIsAccountedFor() throws Exception {
+        ThreadLogger.Accounting accounting = new ThreadLogger.Accounting(true);
+        ThreadLogger busy = new ThreadLogger(() -> {
+            List<byte[]> garbage = new ArrayList<>();
+            // by its own cpu time, so a loaded machine does not starve it below the asserted cpu
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            long until = threads.getCurrentThreadCpuTime() + 50000000L;
+            while (threads.getCurrentThreadCpuTime() < until) {
+                garbage.add(new byte[1024]);
+                if (garbage.size() == 1024) {
+                    sink = garbage;
+                    garbage = new ArrayList<>();
+                }
+            }
+        }, "computer-0", logger, accounting);
+        ThreadLogger sleepy = new ThreadLogger(() -> {
+            for (int i = 0; i < 3; i++)
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException ignored) {}
+        }, "player 0", logger, accounting);
+        busy.startWithLog();
+        sleepy.startWithLog();
+        busy.joinWithLog();
+        sleepy.joinWithLog();
+
+        List<ThreadLogger.Usage> usage = accounting.usage();
+        assertEquals(2, usage.size());
+        for (ThreadLogger.Usage thread : usage) {
+            assertFalse(thread.isAlive());
+            assertTrue(thread.lifetimeNanos() > 0);
+            if (thread.name().equals("computer-0")) {
+                assertTrue(thread.cpuNanos() > 10000000L, thread.toString());
+                assertTrue(thread.allocatedBytes() > 1000000L, thread.toString());
+            } else {
+                assertEquals("player 0", thread.name());
+                assertTrue(thread.waitedCount() >= 3, thread.toString());
+            }
+        }
+        String summary = accounting.summary();
+        // the busiest thread first
+        assertTrue(summary.indexOf("computer-0") < summary.indexOf("player 0"), summary);
+        assertTrue(summary.contains("total: 2 threads"), summary);
+    }
+
+    @Test
+    void runningThreadsHaveLiveValues() throws Exception {
+        ThreadLogger.Accounting accounting = new ThreadLogger.Accounting(true);
+        CountDownLatch started = new CountDownLatch(1), stop = new CountDownLatch(1);
+        ThreadLogger waiting = new ThreadLogger(() -> {
+            started.countDown();
+            try {
+                stop.await();
+            } catch (InterruptedException ignored) {}
+        }, "dealer", logger, accounting);
+        waiting.start();
+        started.await();
+        ThreadLogger.Usage usage = accounting.usage().get(0);
+        assertTrue(usage.isAlive());
+        assertTrue(accounting.summary().contains("dealer: cpu"));
+        long lifetime = usage.lifetimeNanos();
+        Thread.sleep(5);
+        assertTrue(usage.lifetimeNanos() > lifetime);
+        stop.countDown();
+        waiting.join();
+        assertFalse(usage.isAlive());
+        assertEquals(usage.lifetimeNanos(), usage.lifetimeNanos());
+    }
+
+    @Test
+    void aDisabledAccountingOnlyRunsTheThreads() throws Exception {
+        ThreadLogger.Accounting accounting = new ThreadLogger.Accounting(false);
+        boolean[] ran = new boolean[1];
+        ThreadLogger thread = new ThreadLogger(() -> ran[0] = true, "player 1", logger, accounting);
+        thread.start();
+        thread.join();
+        assertTrue(ran[0]);
+        assertTrue(accounting.usage().isEmpty());
+    }
+}
@@ -0,0 +1,85 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TournamentTest {
+
+    @Test
+    void playsAllTheGamesInParallel() throws Exception {
+        Properties properties = new Properties();
+        // a deck of 9 cards, so the games are short
+        properties.setProperty("FeatureCount", "2");
+        properties.setProperty("Games", "6");
+        properties.setProperty("Threads", "3");
+        properties.setProperty("Seed", "100");
+        properties.setProperty("Lineup1", "random,random");
+        properties.setProperty("Lineup2", "random,random,random");
+        properties.setProperty("LogLevel", "OFF");
+        properties.setProperty("TurnTimeoutSeconds", "0.2");
+        properties.setProperty("PointFreezeSeconds", "0");
+        properties.setProperty("PenaltyFreezeSeconds", "0");
+        properties.setProperty("TableDelaySeconds", "0");
+        properties.setProperty("EndGamePauseSeconds", "0");
+        Tournament tournament = new Tournament(Logger.getAnonymousLogger(), properties);
+
+        List<GameResult> results = tournament.run();
+        assertEquals(6, results.size());
+        for (GameResult result : results) {
+            assertEquals(100 + result.game, result.seed);
+            assertEquals(result.game % 2 == 0 ? 2 : 3, result.players.length);
+            // the players are named by their strategy
+            for (String player : result.players)
+                assertEquals("random", player);
+            assertEquals(result.sets, java.util.Arrays.stream(result.scores).sum());
+            assertTrue(result.winners.length > 0);
+        }
+        String report = tournament.report(results, 1000000000L);
+        assertTrue(report.contains("games: 6"));
+        // one row per strategy: 15 seats in 6 games, rated as one player that played 6 games
+        assertTrue(report.matches("(?s).*\nrandom +15 .*"), report);
+        String leaderboard = report.substring(report.indexOf("leaderboard:"));
+        assertTrue(leaderboard.matches("(?s).*\nrandom +6 .*"), leaderboard);
+    }
+
+    @Test
+    void playsMatchesOfRoundsOnTheSameThreads() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("FeatureCount", "2");
+        properties.setProperty("Games", "5");
+        properties.setProperty("Rounds", "2");
+        properties.setProperty("Threads", "2");
+        properties.setProperty("Seed", "100");
+        properties.setProperty("LogLevel", "OFF");
+        properties.setProperty("TurnTimeoutSeconds", "0.2");
+        properties.setProperty("PointFreezeSeconds", "0");
+        properties.setProperty("PenaltyFreezeSeconds", "0");
+        properties.setProperty("TableDelaySeconds", "0");
+        properties.setProperty("EndGamePauseSeconds", "0");
+        Tournament tournament = new Tournament(Logger.getAnonymousLogger(), properties);
+
+        List<GameResult> results = tournament.run();
+        // two matches of two rounds and a match of one round
+        assertEquals(5, results.size());
+        for (int game = 0; game < results.size(); game++) {
+            GameResult result = results.get(game);
+            assertEquals(game, result.game);
+            assertEquals(100 + game - game % 2, result.seed);
+            // every round starts from scratch
+            assertEquals(result.sets, java.util.Arrays.stream(result.scores).sum());
+            assertTrue(result.sets > 0);
+        }
+    }
+
+    @Test
+    void wilsonIntervalContainsTheRate() {
+        double[] interval = Tournament.wilson(30, 100);
+        assertTrue(interval[0] < 0.3 && 0.3 < interval[1]);
+        assertEquals(0, Tournament.wilson(0, 10)[0], 1e-9);
+    }
+}
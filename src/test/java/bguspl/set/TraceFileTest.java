@@ -0,0 +1,76 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TraceFileTest {
+
+    private static final Logger logger = Logger.getLogger("TraceFileTest");
+
+    @TempDir
+    Path dir;
+
+    private static int count(String text, String regex) {
+        Matcher matcher = Pattern.compile(regex).matcher(text);
+        int count = 0;
+        while (matcher.find())
+            count++;
+        return count;
+    }
+
+    @Test
+    void spansOfEveryThreadAreWritten() throws Exception {
+        Path file = dir.resolve("game.json");
+        TraceFile trace = new TraceFile(file);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Thread thread = new Thread(() -> {
+                for (int span = 0; span < 100; span++) {
+                    long begin = trace.begin();
+                    try {
+                        Thread.sleep(0, 100000);
+                    } catch (InterruptedException ignored) {}
+                    trace.end("player", "wait \"quoted\"", begin);
+                }
+                trace.instant("player", "done");
+            }, "player " + i);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        trace.write(logger);
+
+        String json = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        assertTrue(json.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":["));
+        assertTrue(json.trim().endsWith("]}"));
+        assertEquals(3, count(json, "\"name\":\"thread_name\""));
+        for (int i = 0; i < 3; i++)
+            assertTrue(json.contains("\"args\":{\"name\":\"player " + i + "\"}"));
+        assertEquals(300, count(json, "\"ph\":\"X\""));
+        assertEquals(300, count(json, "\"name\":\"wait \\\\\"quoted\\\\\"\""));
+        assertEquals(3, count(json, "\"ph\":\"i\""));
+        assertEquals(300, count(json, "\"dur\":\\d+\\.\\d{3}}"));
+    }
+
+    @Test
+    void nothingIsRecordedWhenDisabled() {
+        TraceFile trace = new TraceFile(null);
+        assertFalse(trace.isEnabled());
+        assertEquals(0, trace.begin());
+        trace.end("dealer", "wait", trace.begin());
+        trace.instant("dealer", "done");
+        trace.write(logger);
+    }
+}
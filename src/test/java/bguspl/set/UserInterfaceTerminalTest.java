@@ -0,0 +1,92 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserInterfaceTerminalTest {
+
+    private Config config;
+    private ByteArrayOutputStream out;
+    private UserInterfaceTerminal terminal;
+
+    @BeforeEach
+    void setUp() {
+        Logger logger = Logger.getAnonymousLogger();
+        Properties properties = new Properties();
+        properties.setProperty("PlayerNames", "Alice,Bob");
+        properties.setProperty("TerminalFps", "100");
+        config = new Config(logger, properties);
+        out = new ByteArrayOutputStream();
+        terminal = new UserInterfaceTerminal(logger, config, new UtilImpl(config), out);
+    }
+
+    @Test
+    void firstFrameDrawsEverythingThenOnlyChanges() {
+        String first;
+        synchronized (terminal) {
+            first = terminal.renderFrame();
+        }
+        assertTrue(first.contains("\u001b[2J"));
+        assertTrue(first.contains("Alice: 0"));
+        assertTrue(first.contains("Bob: 0"));
+
+        terminal.setScore(1, 3);
+        String second;
+        synchronized (terminal) {
+            second = terminal.renderFrame();
+        }
+        assertTrue(second.contains("Bob: 3"));
+        assertFalse(second.contains("Alice"));
+        assertFalse(second.contains("\u001b[2J"));
+
+        synchronized (terminal) {
+            assertEquals("", terminal.renderFrame());
+        }
+    }
+
+    @Test
+    void tokensAreDrawnInTheirCell() {
+        synchronized (terminal) {
+            terminal.renderFrame();
+        }
+        terminal.placeCard(0, 5);
+        terminal.placeToken(0, 5);
+        terminal.placeToken(1, 5);
+        String frame;
+        synchronized (terminal) {
+            frame = terminal.renderFrame();
+        }
+        // slot 5 is the second cell of the second row: line 3 + 3 = 6 (card) and 7 (tokens), column 1 + 16 = 17
+        assertTrue(frame.contains("\u001b[6;17H["));
+        assertTrue(frame.contains("\u001b[7;17H 1 2 "));
+
+        terminal.removeToken(0, 5);
+        synchronized (terminal) {
+            frame = terminal.renderFrame();
+        }
+        assertTrue(frame.contains("\u001b[7;17H 2 "));
+    }
+
+    @Test
+    void renderThreadWritesFramesUntilDisposed() throws InterruptedException {
+        terminal.start();
+        terminal.setCountdown(5000, false);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!new String(out.toByteArray(), StandardCharsets.UTF_8).contains("Remaining Time: 5")
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        terminal.announceWinner(new int[]{0});
+        terminal.dispose();
+        String written = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(written.contains("Remaining Time: 5"));
+        assertTrue(written.contains("THE WINNER IS: Alice!!!"));
+        assertTrue(written.endsWith("\u001b[?25h"));
+    }
+}
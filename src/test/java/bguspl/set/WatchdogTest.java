@@ -0,0 +1,149 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WatchdogTest {
+
+    private final Logger logger = Logger.getLogger("WatchdogTest");
+    private final List<String> messages = new ArrayList<>();
+
+    WatchdogTest() {
+        logger.setUseParentHandlers(false);
+        logger.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                synchronized (messages) {
+                    messages.add(record.getMessage());
+                }
+            }
+
+            @Override
+            public void flush() {}
+
+            @Override
+            public void close() {}
+        });
+    }
+
+    @Test
+    void aLateWaitIsReportedOnceWithTheGameAndTheThreads() throws Exception {
+        Watchdog watchdog = new Watchdog(logger, 20, false);
+        Watchdog.Heartbeat heartbeat = watchdog.heartbeat("player 0", () -> "sets 3, claims [0]");
+        heartbeat.expect("the verdict of its claim", 10);
+        assertEquals(0, watchdog.check());
+
+        Thread.sleep(50);
+        assertEquals(1, watchdog.check());
+        // still the same wait
+        Thread.sleep(50);
+        assertEquals(0, watchdog.check());
+        assertEquals(1, watchdog.stalls());
+        assertEquals(0, watchdog.recoveries());
+        String log = String.join("\n", messages);
+        assertTrue(log.contains("player 0"), log);
+        assertTrue(log.contains("the verdict of its claim"), log);
+        assertTrue(log.contains("sets 3, claims [0]"), log);
+        assertTrue(log.contains("\"" + Thread.currentThread().getName() + "\" RUNNABLE"), log);
+
+        // a new wait can stall again
+        heartbeat.expect("the verdict of its claim", 0);
+        Thread.sleep(50);
+        assertEquals(1, watchdog.check());
+        assertEquals(2, watchdog.stalls());
+    }
+
+    @Test
+    void idleAndClosedHeartbeatsNeverStall() throws Exception {
+        Watchdog watchdog = new Watchdog(logger, 10, false);
+        Watchdog.Heartbeat idle = watchdog.heartbeat("player 0", null);
+        idle.expect("the dealer to enable the players", 0);
+        idle.idle();
+        Watchdog.Heartbeat closed = watchdog.heartbeat("dealer", null);
+        closed.expect("a turn of the dealer", 0);
+        closed.close();
+        Thread.sleep(30);
+        assertEquals(0, watchdog.check());
+        assertEquals(0, watchdog.stalls());
+    }
+
+    @Test
+    void recoveryRunsOnTheWatchdogsOwnThread() throws Exception {
+        CountDownLatch recovered = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Watchdog watchdog = new Watchdog(logger, 20, true);
+        watchdog.start();
+        try {
+            Thread wedged = new Thread(() -> {
+                Watchdog.Heartbeat heartbeat = watchdog.heartbeat("player 1", () -> "wedged");
+                heartbeat.expect("the verdict of its claim", 0, recovered::countDown);
+                try {
+                    recovered.await();
+                } catch (InterruptedException ignored) {}
+                heartbeat.idle();
+                done.countDown();
+            }, "player 1");
+            wedged.start();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            wedged.join();
+            assertEquals(1, watchdog.stalls());
+            assertEquals(1, watchdog.recoveries());
+        } finally {
+            watchdog.close();
+        }
+    }
+
+    @Test
+    void aDisabledWatchdogMonitorsNothing() throws Exception {
+        Watchdog watchdog = new Watchdog(logger, 0, true);
+        assertFalse(watchdog.isEnabled());
+        watchdog.start();
+        watchdog.heartbeat("dealer", null).expect("a turn of the dealer", 0);
+        Thread.sleep(10);
+        assertEquals(0, watchdog.check());
+        watchdog.close();
+    }
+
+    @Test
+    void aWaitIsNeverMixedWithAnotherOne() throws Exception {
+        Watchdog watchdog = new Watchdog(logger, 1, true);
+        Watchdog.Heartbeat heartbeat = watchdog.heartbeat("player 0", null);
+        AtomicInteger wrongRecoveries = new AtomicInteger();
+        Runnable recovery = wrongRecoveries::incrementAndGet;
+        AtomicBoolean done = new AtomicBoolean();
+        // switches between a wait that is long overdue and a wait that is not, as fast as it can
+        Thread waiter = new Thread(() -> {
+            while (!done.get()) {
+                heartbeat.expect("an overdue verdict", -60000);
+                heartbeat.idle();
+                heartbeat.expect("a verdict", 60000, recovery);
+                heartbeat.idle();
+            }
+        });
+        waiter.start();
+        try {
+            for (int i = 0; i < 200; i++)
+                watchdog.check();
+        } finally {
+            done.set(true);
+            waiter.join();
+        }
+        Thread.sleep(50);
+        assertEquals(0, wrongRecoveries.get());
+        synchronized (messages) {
+            for (String message : messages)
+                assertFalse(message.contains("waiting for a verdict"), message);
+        }
+    }
+}
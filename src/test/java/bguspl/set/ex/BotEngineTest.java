@@ -0,0 +1,146 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.Env;
+import bguspl.set.ThreadLogger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BotEngineTest {
+
+    private final Config config = new Config(Logger.getAnonymousLogger(), new Properties());
+    private final Env env = new Env(Logger.getAnonymousLogger(), config, null, null);
+    private BotEngine engine;
+
+    /**
+     * A test engine: claims the first set on the table ("slow" answers late, "pass" always passes, "ahead" also
+     * claims slots 0, 1 and 2 for the next snapshot in the same write, "deaf" never reads its stdin).
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String mode = args.length > 0 ? args[0] : "";
+        if (mode.equals("deaf"))
+            Thread.sleep(60000);
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        String[] header = in.readLine().split(" ");
+        int featureSize = Integer.parseInt(header[1]), featureCount = Integer.parseInt(header[2]);
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] tokens = line.split(" ");
+            String answer = tokens[1] + " pass";
+            int[] cards = new int[tokens.length - 2];
+            for (int i = 0; i < cards.length; i++)
+                cards[i] = Integer.parseInt(tokens[i + 2]);
+            search:
+            for (int a = 0; a < cards.length; a++)
+                for (int b = a + 1; b < cards.length; b++)
+                    for (int c = b + 1; c < cards.length; c++)
+                        if (!mode.equals("pass") && isSet(cards[a], cards[b], cards[c], featureSize, featureCount)) {
+                            answer = tokens[1] + " " + a + " " + b + " " + c;
+                            break search;
+                        }
+            if (mode.equals("slow"))
+                Thread.sleep(300);
+            if (mode.equals("ahead"))
+                answer += "\n" + (Long.parseLong(tokens[1]) + 1) + " 0 1 2";
+            System.out.println(answer);
+            System.out.flush();
+        }
+    }
+
+    private static boolean isSet(int a, int b, int c, int featureSize, int featureCount) {
+        if (a < 0 || b < 0 || c < 0)
+            return false;
+        for (int f = 0; f < featureCount; f++, a /= featureSize, b /= featureSize, c /= featureSize)
+            if ((a % featureSize + b % featureSize + c % featureSize) % 3 != 0)
+                return false;
+        return true;
+    }
+
+    private static String[] command(String mode) {
+        return new String[]{System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                "-cp", System.getProperty("java.class.path"), BotEngineTest.class.getName(), mode};
+    }
+
+    private static Integer[] table(int... cards) {
+        Integer[] slotToCard = new Integer[12];
+        for (int i = 0; i < cards.length; i++)
+            slotToCard[i] = cards[i] < 0 ? null : cards[i];
+        return slotToCard;
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (engine != null)
+            engine.close();
+    }
+
+    @Test
+    void claimsTheSetOnTheTable() throws IOException {
+        engine = new BotEngine(command("find"), env, 0);
+        // cards 0, 1 and 2 differ only in the first feature (0, 1, 2), so they are a set
+        assertArrayEquals(new int[]{1, 3, 4}, engine.move(table(5, 0, -1, 1, 2), 5000));
+        assertNull(engine.move(table(0, 1, -1, 5), 5000));
+        assertEquals(2, engine.moves);
+        assertEquals(1, engine.passes);
+    }
+
+    @Test
+    void lateAnswersAreDropped() throws IOException {
+        engine = new BotEngine(command("slow"), env, 0);
+        // the first answer always comes after the jvm of the engine started, which is much longer than 1ms
+        assertNull(engine.move(table(0, 1, 2), 1));
+        assertEquals(1, engine.timeouts);
+        // the answer to the first snapshot arrives while waiting for the second one and is ignored
+        assertArrayEquals(new int[]{1, 2, 3}, engine.move(table(7, 0, 1, 2), 5000));
+    }
+
+    @Test
+    void answersAfterTheMatchingLineAreKept() throws IOException {
+        engine = new BotEngine(command("ahead"), env, 0);
+        assertNull(engine.move(table(0, 1, -1, 5), 5000));
+        assertEquals(1, engine.passes);
+        // the answer to the second snapshot came with the answer to the first one (the engine passes on this table
+        // when it is asked)
+        assertArrayEquals(new int[]{0, 1, 2}, engine.move(table(0, 1, -1, 5), 5000));
+        assertEquals(1, engine.passes);
+    }
+
+    @Test
+    void anEngineThatDoesNotReadNeverBlocksTheMove() throws IOException {
+        engine = new BotEngine(command("deaf"), env, 0);
+        // far more snapshots than a pipe holds
+        long slowest = 0;
+        for (int i = 0; i < 3000; i++) {
+            long start = System.nanoTime();
+            assertNull(engine.move(table(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11), 1));
+            slowest = Math.max(slowest, System.nanoTime() - start);
+        }
+        assertEquals(3000, engine.timeouts);
+        assertTrue(slowest < 500000000L, "the slowest move took " + slowest / 1000000L + " ms");
+        long start = System.nanoTime();
+        engine.close();
+        assertTrue(System.nanoTime() - start < 2000000000L);
+    }
+
+    @Test
+    void theEngineThreadsAreAccountedFor() throws IOException {
+        engine = new BotEngine(command("find"), env, 0);
+        assertNotNull(engine.move(table(0, 1, 2), 5000));
+        List<String> names = new ArrayList<>();
+        for (ThreadLogger.Usage usage : env.accounting.usage())
+            names.add(usage.name());
+        assertTrue(names.contains("engine-0"), names.toString());
+        assertTrue(names.contains("engine-0 stdin"), names.toString());
+    }
+}
@@ -0,0 +1,124 @@
+package bguspl.set.ex;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CheckpointFileTest {
+
+    private static final Logger logger = Logger.getLogger("CheckpointFileTest");
+    private static final int DECK = 81, TABLE = 12, PLAYERS = 2;
+
+    @TempDir
+    Path dir;
+
+    private static GameSnapshot snapshot(int sets) {
+        GameSnapshot snapshot = new GameSnapshot(DECK, TABLE, PLAYERS);
+        snapshot.seed = 7;
+        snapshot.sets = sets;
+        snapshot.deckLength = DECK - TABLE - 3 * sets;
+        for (int i = 0; i < snapshot.deckLength; i++)
+            snapshot.deck[i] = DECK - 1 - i;
+        for (int slot = 0; slot < TABLE; slot++)
+            snapshot.table[slot] = slot == sets % TABLE ? -1 : slot;
+        snapshot.scores[0] = sets;
+        snapshot.scores[1] = sets / 2;
+        snapshot.tokens[0] = 4;
+        snapshot.tokens[GameSnapshot.TOKENS] = sets % TABLE;
+        return snapshot;
+    }
+
+    private static void assertSnapshot(int sets, GameSnapshot actual) {
+        GameSnapshot expected = snapshot(sets);
+        assertEquals(expected.seed, actual.seed);
+        assertEquals(expected.sets, actual.sets);
+        assertEquals(expected.deckLength, actual.deckLength);
+        for (int i = 0; i < expected.deckLength; i++)
+            assertEquals(expected.deck[i], actual.deck[i]);
+        assertArrayEquals(expected.table, actual.table);
+        assertArrayEquals(expected.scores, actual.scores);
+        assertArrayEquals(expected.tokens, actual.tokens);
+    }
+
+    @Test
+    void latestSnapshotSurvivesReopening() throws IOException {
+        Path file = dir.resolve("game.checkpoint");
+        CheckpointFile checkpoint = new CheckpointFile(file, logger, DECK, TABLE, PLAYERS);
+        assertNull(checkpoint.latest());
+        for (int sets = 0; sets < 5; sets++)
+            checkpoint.write(snapshot(sets));
+        assertSnapshot(4, checkpoint.latest());
+        checkpoint.close();
+
+        checkpoint = new CheckpointFile(file, logger, DECK, TABLE, PLAYERS);
+        GameSnapshot latest = checkpoint.latest();
+        assertEquals(5, latest.sequence);
+        assertFalse(latest.finished);
+        assertSnapshot(4, latest);
+        GameSnapshot finished = snapshot(5);
+        finished.finished = true;
+        checkpoint.write(finished);
+        assertEquals(6, finished.sequence);
+        assertTrue(checkpoint.latest().finished);
+        checkpoint.close();
+    }
+
+    @Test
+    void tornSnapshotFallsBackToThePreviousOne() throws IOException {
+        Path file = dir.resolve("game.checkpoint");
+        CheckpointFile checkpoint = new CheckpointFile(file, logger, DECK, TABLE, PLAYERS);
+        checkpoint.write(snapshot(1));
+        GameSnapshot torn = snapshot(2);
+        checkpoint.write(torn);
+        checkpoint.close();
+
+        // snapshot 2 went to the first slot (they alternate by sequence number): break a byte in the middle of it
+        int slotSize = (int) ((file.toFile().length() - 24) / 2);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            long at = 24 + slotSize / 2;
+            raf.seek(at);
+            int b = raf.read();
+            raf.seek(at);
+            raf.write(b ^ 0xff);
+        }
+
+        checkpoint = new CheckpointFile(file, logger, DECK, TABLE, PLAYERS);
+        GameSnapshot latest = checkpoint.latest();
+        assertEquals(1, latest.sequence);
+        assertSnapshot(1, latest);
+        checkpoint.close();
+    }
+
+    @Test
+    void fileOfAnotherGameIsReformatted() throws IOException {
+        Path file = dir.resolve("game.checkpoint");
+        CheckpointFile checkpoint = new CheckpointFile(file, logger, DECK, TABLE, PLAYERS);
+        checkpoint.write(snapshot(1));
+        checkpoint.close();
+
+        checkpoint = new CheckpointFile(file, logger, DECK, TABLE, PLAYERS + 1);
+        assertNull(checkpoint.latest());
+        checkpoint.close();
+    }
+
+    @Test
+    void checkpointTakesMicroseconds() throws IOException {
+        CheckpointFile checkpoint = new CheckpointFile(dir.resolve("game.checkpoint"), logger, DECK, TABLE, PLAYERS);
+        GameSnapshot snapshot = snapshot(3);
+        int writes = 20000;
+        for (int i = 0; i < writes; i++)
+            checkpoint.write(snapshot);
+        long start = System.nanoTime();
+        for (int i = 0; i < writes; i++)
+            checkpoint.write(snapshot);
+        long nanosPerWrite = (System.nanoTime() - start) / writes;
+        checkpoint.close();
+        assertTrue(nanosPerWrite < 100000, "a checkpoint took " + nanosPerWrite + "ns");
+    }
+}
@@ -0,0 +1,82 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.UtilImpl;
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactGameStatesTest {
+
+    private static Config config(String featureCount) {
+        Properties properties = new Properties();
+        properties.setProperty("FeatureCount", featureCount);
+        properties.setProperty("LogLevel", "OFF");
+        properties.setProperty("TurnTimeoutSeconds", "5");
+        properties.setProperty("PointFreezeSeconds", "0.1");
+        properties.setProperty("PenaltyFreezeSeconds", "0.3");
+        return new Config(Logger.getAnonymousLogger(), properties);
+    }
+
+    @Test
+    void tenThousandTablesFitInAFewMegabytes() {
+        CompactGameStates states = new CompactGameStates(config("4"), 10000);
+        states.dealAll(1);
+        // 81 cards, 12 slots and 2 players
+        assertTrue(states.bytesPerTable() < 256, states.footprint());
+        assertTrue(states.bytes() < 4 * 1024 * 1024, states.footprint());
+        for (int table = 0; table < states.tables(); table++) {
+            assertEquals(81 - 12, states.deckLength(table));
+            assertFalse(states.isFinished(table));
+        }
+    }
+
+    @Test
+    void everyTablePlaysToTheEnd() {
+        // a deck of 27 cards, so the random players finish quickly
+        Config config = config("3");
+        CompactGameStates states = new CompactGameStates(config, 200);
+        states.dealAll(7);
+        states.simulate(10, 3600000);
+        for (int table = 0; table < states.tables(); table++) {
+            assertTrue(states.isFinished(table));
+            int score = 0;
+            for (int player = 0; player < config.players; player++)
+                score += states.score(table, player);
+            assertEquals(states.sets(table), score);
+            assertTrue(states.sets(table) > 0);
+
+            // no card is lost or dealt twice
+            boolean[] seen = new boolean[config.deckSize];
+            int cards = 0;
+            for (int slot = 0; slot < config.tableSize; slot++) {
+                int card = states.card(table, slot);
+                if (card != CompactGameStates.EMPTY) {
+                    assertFalse(seen[card]);
+                    seen[card] = true;
+                    cards++;
+                }
+            }
+            for (int i = 0; i < states.deckLength(table); i++) {
+                assertFalse(seen[states.deckCard(table, i)]);
+                seen[states.deckCard(table, i)] = true;
+                cards++;
+            }
+            assertEquals(config.deckSize, cards + 3 * states.sets(table));
+        }
+    }
+
+    @Test
+    void setsAgreeWithTheGame() {
+        Config config = config("3");
+        CompactGameStates states = new CompactGameStates(config, 1);
+        UtilImpl util = new UtilImpl(config);
+        for (int a = 0; a < config.deckSize; a++)
+            for (int b = a + 1; b < config.deckSize; b++)
+                for (int c = b + 1; c < config.deckSize; c++)
+                    assertEquals(util.testSet(new int[]{a, b, c}), states.isSet(a, b, c));
+    }
+}
@@ -4,6 +4,7 @@ import bguspl.set.Config;
 import bguspl.set.Env;
 import bguspl.set.UserInterface;
 import bguspl.set.Util;
+import bguspl.set.UtilImpl;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -11,6 +12,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.util.Properties;
 import java.util.logging.Logger;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -83,4 +85,77 @@ class DealerTest {
         assertEquals(null, table.slotToCard[1]);
         
     }
-}
\ No newline at end of file
+
+    @Test
+    void aRestoredClaimIsCheckedWhenThePlayersStart() throws InterruptedException {
+        Properties properties = new Properties();
+        // a deck of 9 cards: cards 0, 1 and 2 are a set (they differ only in the first feature)
+        properties.setProperty("FeatureCount", "2");
+        properties.setProperty("HumanPlayers", "1");
+        properties.setProperty("ComputerPlayers", "0");
+        properties.setProperty("TableDelaySeconds", "0");
+        properties.setProperty("PointFreezeSeconds", "0");
+        properties.setProperty("EndGamePauseSeconds", "0");
+        Config config = new Config(logger, properties);
+        Env env = new Env(logger, config, ui, new UtilImpl(config));
+        Table table = new Table(env);
+        Player[] players = new Player[1];
+        Dealer dealer = new Dealer(env, table, players);
+        players[0] = new Player(env, dealer, table, 0, true);
+
+        GameSnapshot snapshot = new GameSnapshot(config.deckSize, config.tableSize, 1);
+        for (int slot = 0; slot < 3; slot++) {
+            snapshot.table[slot] = slot;
+            snapshot.tokens[slot] = slot;
+        }
+        snapshot.deckLength = config.deckSize - 3;
+        for (int i = 0; i < snapshot.deckLength; i++)
+            snapshot.deck[i] = i + 3;
+        dealer.setCheckpoint(null, snapshot);
+
+        Thread dealerThread = new Thread(dealer, "dealer");
+        dealerThread.start();
+        try {
+            // nobody presses a key, the restored tokens are the claim
+            long deadline = System.currentTimeMillis() + 5000;
+            while (players[0].score() == 0 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertEquals(1, players[0].score());
+        } finally {
+            dealer.terminate();
+            dealerThread.join(5000);
+        }
+    }
+
+    @Test
+    void aClaimOnAReplacedSlotGetsNeitherAPointNorAPenalty() {
+        Properties properties = new Properties();
+        // a deck of 9 cards: cards 0, 1 and 2 are a set (they differ only in the first feature)
+        properties.setProperty("FeatureCount", "2");
+        Config config = new Config(logger, properties);
+        Env env = new Env(logger, config, ui, new UtilImpl(config));
+        Table table = new Table(env);
+        Player[] players = new Player[1];
+        Dealer dealer = new Dealer(env, table, players);
+        players[0] = new Player(env, dealer, table, 0, true);
+        for (int slot = 0; slot < 3; slot++)
+            table.placeCard(slot, slot);
+
+        Player player = players[0];
+        for (int i = 0; i < 3; i++) {
+            player.setSlots[i] = i;
+            player.setEpochs[i] = table.epoch(i);
+            player.set[i] = i;
+        }
+        // the dealer replaces slot 0 after the claim was copied (with the same card, so only the epoch tells)
+        table.removeCard(0);
+        table.placeCard(0, 0);
+        player.penalty = -1;
+        dealer.playersQueue.add(player);
+
+        assertFalse(dealer.checkSet());
+        assertEquals(0, player.penalty);
+        assertEquals(0, player.score());
+        assertEquals(0, dealer.numberOfSets());
+    }
+}
@@ -0,0 +1,80 @@
+package bguspl.set.ex;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GameEventsTest {
+
+    @TempDir
+    Path dir;
+
+    private List<RecordedEvent> record(Runnable game) throws IOException {
+        Path file = dir.resolve("game.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("bguspl.set.CardPlaced");
+            recording.enable("bguspl.set.TokenToggled");
+            recording.enable("bguspl.set.ClaimVerdict");
+            recording.enable("bguspl.set.Freeze");
+            // the game events are enabled by default, like in a recording with the default settings
+            recording.disable("bguspl.set.CardRemoved");
+            recording.start();
+            game.run();
+            recording.stop();
+            recording.dump(file);
+        }
+        return RecordingFile.readAllEvents(file).stream()
+                .filter(event -> event.getEventType().getName().startsWith("bguspl.set."))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void enabledEventsAreRecordedWithTheirFields() throws Exception {
+        List<RecordedEvent> events = record(() -> {
+            GameEvents.cardPlaced(40, 3, 7);
+            GameEvents.tokenToggled(1, 3, true, 7);
+            GameEvents.claimVerdict(1, new int[]{3, 4, 5}, "stale", 1500, 2, 9);
+            GameEvents.Freeze freeze = GameEvents.beginFreeze(1, true, 3000);
+            GameEvents.endFreeze(freeze);
+            // disabled in the recording
+            GameEvents.cardRemoved(40, 3, 8);
+        });
+        assertEquals(4, events.size());
+
+        RecordedEvent placed = events.get(0);
+        assertEquals("bguspl.set.CardPlaced", placed.getEventType().getName());
+        assertEquals(40, placed.getInt("card"));
+        assertEquals(3, placed.getInt("slot"));
+        assertEquals(7, placed.getLong("epoch"));
+
+        RecordedEvent token = events.get(1);
+        assertTrue(token.getBoolean("placed"));
+        assertEquals(1, token.getInt("player"));
+
+        RecordedEvent verdict = events.get(2);
+        assertEquals("3,4,5", verdict.getString("slots"));
+        assertEquals("stale", verdict.getString("verdict"));
+        assertEquals(1500, verdict.getDuration("waitNanos").toNanos());
+        assertEquals(2, verdict.getInt("queued"));
+
+        RecordedEvent freeze = events.get(3);
+        assertEquals("bguspl.set.Freeze", freeze.getEventType().getName());
+        assertTrue(freeze.getBoolean("penalty"));
+        assertEquals(3000, freeze.getDuration("millis").toMillis());
+    }
+
+    @Test
+    void nothingIsRecordedWhenDisabled() throws Exception {
+        List<RecordedEvent> events = record(() -> GameEvents.cardRemoved(40, 3, 8));
+        assertTrue(events.isEmpty());
+    }
+}
@@ -0,0 +1,191 @@
+package bguspl.set.ex;
+
+import bguspl.set.RemoteProtocol;
+import org.junit.jupiter.api.Test;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GameStateCodecTest {
+
+    private static final int DECK = 81, TABLE = 12, PLAYERS = 4;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(GameStateCodec.maxSize(DECK, TABLE, PLAYERS));
+
+    /**
+     * A new game: the deck is shuffled and the table is dealt.
+     */
+    private static GameSnapshot deal(Random random) {
+        GameSnapshot snapshot = new GameSnapshot(DECK, TABLE, PLAYERS);
+        snapshot.sequence = 1;
+        snapshot.seed = random.nextLong();
+        for (int i = 0; i < DECK; i++)
+            snapshot.deck[i] = i;
+        for (int i = DECK - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1), card = snapshot.deck[i];
+            snapshot.deck[i] = snapshot.deck[j];
+            snapshot.deck[j] = card;
+        }
+        snapshot.deckLength = DECK;
+        for (int slot = 0; slot < TABLE; slot++)
+            snapshot.table[slot] = draw(snapshot);
+        return snapshot;
+    }
+
+    private static int draw(GameSnapshot snapshot) {
+        int card = snapshot.deck[0];
+        System.arraycopy(snapshot.deck, 1, snapshot.deck, 0, --snapshot.deckLength);
+        return card;
+    }
+
+    /**
+     * The next snapshot: a player found a set, and the tokens moved.
+     */
+    private static GameSnapshot next(GameSnapshot previous, Random random) {
+        GameSnapshot snapshot = new GameSnapshot(DECK, TABLE, PLAYERS);
+        snapshot.copy(previous);
+        snapshot.sequence++;
+        snapshot.sets++;
+        snapshot.scores[random.nextInt(PLAYERS)]++;
+        for (int i = 0; i < 3 && snapshot.deckLength > 0; i++)
+            snapshot.table[random.nextInt(TABLE)] = draw(snapshot);
+        snapshot.tokens[random.nextInt(snapshot.tokens.length)] = random.nextInt(TABLE + 1) - 1;
+        return snapshot;
+    }
+
+    private static void assertSnapshot(GameSnapshot expected, GameSnapshot actual) {
+        assertEquals(expected.sequence, actual.sequence);
+        assertEquals(expected.finished, actual.finished);
+        assertEquals(expected.seed, actual.seed);
+        assertEquals(expected.sets, actual.sets);
+        assertEquals(expected.deckLength, actual.deckLength);
+        for (int i = 0; i < expected.deckLength; i++)
+            assertEquals(expected.deck[i], actual.deck[i]);
+        assertArrayEquals(expected.table, actual.table);
+        assertArrayEquals(expected.scores, actual.scores);
+        assertArrayEquals(expected.tokens, actual.tokens);
+    }
+
+    @Test
+    void fullSnapshotRoundTrip() {
+        GameSnapshot snapshot = deal(new Random(1));
+        snapshot.finished = true;
+        snapshot.tokens[5] = 7;
+        GameStateCodec.putFull(snapshot, buffer);
+        RemoteProtocol.flip(buffer);
+        assertEquals(GameStateCodec.FULL, GameStateCodec.kind(buffer));
+        assertSnapshot(snapshot, GameStateCodec.getFull(buffer, new GameSnapshot(DECK, TABLE, PLAYERS)));
+        assertFalse(buffer.hasRemaining());
+
+        RemoteProtocol.position(buffer, 2);
+        assertThrows(IllegalArgumentException.class,
+                () -> GameStateCodec.getFull(buffer, new GameSnapshot(DECK, TABLE, PLAYERS + 1)));
+    }
+
+    @Test
+    void deltasFollowAGame() {
+        Random random = new Random(2);
+        GameSnapshot previous = deal(random);
+        GameSnapshot mirror = new GameSnapshot(DECK, TABLE, PLAYERS);
+        mirror.copy(previous);
+        while (previous.deckLength > 0) {
+            GameSnapshot snapshot = next(previous, random);
+            ((Buffer) buffer).clear();
+            GameStateCodec.putDelta(previous, snapshot, buffer);
+            // drawing a few cards costs far less than the whole snapshot
+            assertTrue(buffer.position() < 60, "delta of " + buffer.position() + " bytes");
+            RemoteProtocol.flip(buffer);
+            assertEquals(GameStateCodec.DELTA, GameStateCodec.kind(buffer));
+            GameStateCodec.getDelta(buffer, mirror, mirror);
+            assertFalse(buffer.hasRemaining());
+            assertSnapshot(snapshot, mirror);
+            previous = snapshot;
+        }
+    }
+
+    @Test
+    void deltaAfterReshuffleCarriesTheDeck() {
+        Random random = new Random(3);
+        GameSnapshot base = deal(random);
+        GameSnapshot reshuffled = deal(random);
+        reshuffled.sequence = 2;
+        ((Buffer) buffer).clear();
+        GameStateCodec.putDelta(base, reshuffled, buffer);
+        RemoteProtocol.flip(buffer);
+        GameStateCodec.kind(buffer);
+        GameSnapshot decoded = GameStateCodec.getDelta(buffer, base, new GameSnapshot(DECK, TABLE, PLAYERS));
+        reshuffled.seed = base.seed; // a delta keeps the seed of its base
+        assertSnapshot(reshuffled, decoded);
+
+        // a delta only applies to its own base
+        RemoteProtocol.position(buffer, 2);
+        assertThrows(IllegalArgumentException.class, () -> GameStateCodec.getDelta(buffer, reshuffled, decoded));
+    }
+
+    @Test
+    void eventsApplyToASnapshot() {
+        GameSnapshot snapshot = new GameSnapshot(DECK, TABLE, PLAYERS);
+        GameStateCodec.putPlaceCard(buffer, 40, 3);
+        GameStateCodec.putToken(buffer, true, 2, 3);
+        GameStateCodec.putToken(buffer, true, 2, 5);
+        GameStateCodec.putToken(buffer, false, 2, 3);
+        GameStateCodec.putSet(buffer, 2);
+        GameStateCodec.putScore(buffer, 2, 1);
+        GameStateCodec.putRemoveCard(buffer, 3);
+        RemoteProtocol.flip(buffer);
+        byte[] expected = {GameStateCodec.PLACE_CARD, GameStateCodec.PLACE_TOKEN, GameStateCodec.PLACE_TOKEN,
+                GameStateCodec.REMOVE_TOKEN, GameStateCodec.SET, GameStateCodec.SCORE, GameStateCodec.REMOVE_CARD};
+        for (byte event : expected) {
+            assertEquals(GameStateCodec.EVENT, GameStateCodec.kind(buffer));
+            assertEquals(event, GameStateCodec.applyEvent(buffer, snapshot));
+            if (event == GameStateCodec.PLACE_CARD)
+                assertEquals(40, snapshot.table[3]);
+        }
+        assertFalse(buffer.hasRemaining());
+        assertEquals(-1, snapshot.table[3]);
+        assertEquals(-1, snapshot.tokens[2 * GameSnapshot.TOKENS]);
+        assertEquals(5, snapshot.tokens[2 * GameSnapshot.TOKENS + 1]);
+        assertEquals(1, snapshot.scores[2]);
+        assertEquals(1, snapshot.sets);
+    }
+
+    @Test
+    void otherVersionsAreRejected() {
+        buffer.put((byte) (GameStateCodec.VERSION + 1)).put(GameStateCodec.FULL);
+        RemoteProtocol.flip(buffer);
+        assertThrows(IllegalArgumentException.class, () -> GameStateCodec.kind(buffer));
+    }
+
+    @Test
+    void throughput() {
+        Random random = new Random(4);
+        GameSnapshot base = deal(random), snapshot = next(base, random);
+        GameSnapshot decoded = new GameSnapshot(DECK, TABLE, PLAYERS);
+        int rounds = 200000;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            ((Buffer) buffer).clear();
+            GameStateCodec.putFull(snapshot, buffer);
+            RemoteProtocol.flip(buffer);
+            GameStateCodec.kind(buffer);
+            GameStateCodec.getFull(buffer, decoded);
+        }
+        long fullNanos = (System.nanoTime() - start) / rounds;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            ((Buffer) buffer).clear();
+            GameStateCodec.putDelta(base, snapshot, buffer);
+            RemoteProtocol.flip(buffer);
+            GameStateCodec.kind(buffer);
+            GameStateCodec.getDelta(buffer, base, decoded);
+        }
+        long deltaNanos = (System.nanoTime() - start) / rounds;
+        assertSnapshot(snapshot, decoded);
+        // generous bounds, the point is that a round trip is far below a millisecond
+        assertTrue(fullNanos < 50000, "full round trip took " + fullNanos + "ns");
+        assertTrue(deltaNanos < 50000, "delta round trip took " + deltaNanos + "ns");
+    }
+}
@@ -0,0 +1,96 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapGameStoreTest {
+
+    private Config config;
+    private int openStores;
+    private long openBytes;
+
+    @BeforeEach
+    void setUp() {
+        Properties properties = new Properties();
+        // a deck of 27 cards, so the random players finish quickly
+        properties.setProperty("FeatureCount", "3");
+        properties.setProperty("LogLevel", "OFF");
+        properties.setProperty("TurnTimeoutSeconds", "5");
+        properties.setProperty("PointFreezeSeconds", "0.1");
+        properties.setProperty("PenaltyFreezeSeconds", "0.3");
+        config = new Config(Logger.getAnonymousLogger(), properties);
+        openStores = OffHeapGameStore.openStores();
+        openBytes = OffHeapGameStore.openBytes();
+    }
+
+    @AfterEach
+    void noStoreIsLeaked() {
+        assertEquals(openStores, OffHeapGameStore.openStores(),
+                () -> String.join("\n", OffHeapGameStore.describeOpenStores()));
+        assertEquals(openBytes, OffHeapGameStore.openBytes());
+    }
+
+    /**
+     * Plays the same games on the heap and in a store, and compares every table.
+     */
+    private void playsLikeTheHeap(OffHeapGameStore store) {
+        CompactGameStates heap = new CompactGameStates(config, store.tables);
+        CompactGameStates offHeap = new CompactGameStates(config, store);
+        heap.dealAll(3);
+        offHeap.dealAll(3);
+        assertEquals(heap.simulate(10, 3600000), offHeap.simulate(10, 3600000));
+        for (int table = 0; table < store.tables; table++) {
+            assertTrue(offHeap.isFinished(table));
+            assertEquals(heap.sets(table), offHeap.sets(table));
+            assertEquals(heap.deckLength(table), offHeap.deckLength(table));
+            for (int player = 0; player < config.players; player++)
+                assertEquals(heap.score(table, player), offHeap.score(table, player));
+            for (int slot = 0; slot < config.tableSize; slot++)
+                assertEquals(heap.card(table, slot), offHeap.card(table, slot));
+        }
+    }
+
+    @Test
+    void directStorePlaysLikeTheHeap() throws Exception {
+        try (OffHeapGameStore store = OffHeapGameStore.direct(config, 100)) {
+            assertEquals(1, OffHeapGameStore.openStores() - openStores);
+            assertEquals(0, store.recordSize() % 8);
+            assertEquals(100L * store.recordSize(), OffHeapGameStore.openBytes() - openBytes);
+            playsLikeTheHeap(store);
+        }
+    }
+
+    @Test
+    void mappedStorePlaysLikeTheHeap(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("tables.bin");
+        try (OffHeapGameStore store = OffHeapGameStore.mapped(config, 100, file)) {
+            assertEquals(store.bytes(), Files.size(file));
+            playsLikeTheHeap(store);
+        }
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void aClosedStoreCannotBeUsed() throws Exception {
+        OffHeapGameStore store = OffHeapGameStore.direct(config, 10);
+        CompactGameStates states = new CompactGameStates(config, store);
+        states.dealAll(1);
+        assertTrue(store.isOpen());
+        assertTrue(OffHeapGameStore.describeOpenStores().stream().anyMatch(s -> s.contains("aClosedStoreCannot")));
+        store.close();
+        assertFalse(store.isOpen());
+        assertThrows(IndexOutOfBoundsException.class, () -> states.sets(0));
+        // closing twice releases once
+        store.close();
+    }
+}
@@ -12,6 +12,8 @@ import java.util.Properties;
 import java.util.logging.Logger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class TableTest {
 
@@ -137,6 +139,43 @@ class TableTest {
         removeSomeCardsAndAssert();
     }
 
+    @Test
+    void epoch_ChangesWithEveryCardChange() {
+        long before = table.epoch(2);
+        table.placeCard(8, 2);
+        assertEquals(before + 1, table.epoch(2));
+        table.removeCard(2);
+        assertEquals(before + 2, table.epoch(2));
+    }
+
+    @Test
+    void isCurrent_StaleAfterReplacement() {
+        fillAllSlots();
+        int[] slots = {0, 1, 2};
+        long[] epochs = {table.epoch(0), table.epoch(1), table.epoch(2)};
+        assertTrue(table.isCurrent(slots, epochs));
+        table.removeCard(3);
+        assertTrue(table.isCurrent(slots, epochs));
+        table.removeCard(1);
+        table.placeCard(1, 1);
+        assertFalse(table.isCurrent(slots, epochs));
+    }
+
+    @Test
+    void tryLockSlot_FrozenSlotOnly() throws InterruptedException {
+        table.lockSlot(1);
+        boolean[] taken = new boolean[2];
+        Thread other = new Thread(() -> {
+            taken[0] = table.tryLockSlot(1);
+            taken[1] = table.tryLockSlot(2);
+            if (taken[1]) table.unlockSlot(2);
+        });
+        other.start();
+        other.join();
+        table.unlockSlot(1);
+        assertFalse(taken[0]);
+        assertTrue(taken[1]);
+    }
 
     static class MockUserInterface implements UserInterface {
         @Override
@@ -148,6 +187,8 @@ class TableTest {
         @Override
         public void setCountdown(long millies, boolean warn) {}
         @Override
+        public void setCountdownDeadline(long deadlineNanos, long warnMillies) {}
+        @Override
         public void setElapsed(long millies) {}
         @Override
         public void setScore(int player, int score) {}